@@ -0,0 +1,70 @@
+package com.wadeyuan.store.threads;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/*
+ * A virtual thread that blocks while holding a monitor (a synchronized block, e.g. inside Hibernate, H2 or the JDBC driver)
+ * keeps its carrier thread blocked too. The JDK reports those as jdk.VirtualThreadPinned JFR events, this streams them
+ * in process into the store.threads.pinned timer and logs where they happened.
+ */
+@Component
+@ConditionalOnProperty(name = "store.threads.virtual", havingValue = "true", matchIfMissing = true)
+public class PinnedThreadMonitor {
+    private static final Logger log = LoggerFactory.getLogger(PinnedThreadMonitor.class);
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    private static final int LOGGED_FRAMES = 12;
+
+    private final Timer pinnedTimer;
+    private final Duration threshold;
+    private RecordingStream recordingStream;
+
+    public PinnedThreadMonitor(MeterRegistry meterRegistry, @Value("${store.threads.pinned-threshold:20ms}") Duration threshold) {
+        this.pinnedTimer = Timer.builder("store.threads.pinned")
+                .description("Time virtual threads stayed pinned to their carrier thread while blocked")
+                .register(meterRegistry);
+        this.threshold = threshold;
+    }
+
+    @PostConstruct
+    public void start() {
+        recordingStream = new RecordingStream();
+        recordingStream.enable(PINNED_EVENT).withThreshold(threshold).withStackTrace();
+        recordingStream.onEvent(PINNED_EVENT, this::onPinned);
+        recordingStream.startAsync();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if(recordingStream != null) recordingStream.close();
+    }
+
+    private void onPinned(RecordedEvent event) {
+        pinnedTimer.record(event.getDuration());
+        if(!log.isWarnEnabled()) return;
+
+        RecordedStackTrace stackTrace = event.getStackTrace();
+        List<RecordedFrame> frames = stackTrace == null ? List.of() : stackTrace.getFrames();
+        String location = frames.stream()
+                .limit(LOGGED_FRAMES)
+                .map(frame -> frame.getMethod().getType().getName() + "." + frame.getMethod().getName() + ":" + frame.getLineNumber())
+                .collect(Collectors.joining("\n\tat "));
+        log.warn("Virtual thread {} pinned for {} ms\n\tat {}", event.getThread() == null ? "?" : event.getThread().getJavaName(),
+                event.getDuration().toMillis(), location);
+    }
+}
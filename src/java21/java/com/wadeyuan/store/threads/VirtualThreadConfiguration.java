@@ -0,0 +1,33 @@
+package com.wadeyuan.store.threads;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.scheduling.annotation.AsyncAnnotationBeanPostProcessor;
+
+import java.util.concurrent.Executors;
+
+/*
+ * Only compiled into the Java 21 build (./gradlew bootRun -PvirtualThreads), where it is on unless store.threads.virtual=false.
+ * Each request runs on its own virtual thread instead of one of Tomcat's 200 platform threads, so the number of requests in
+ * flight is bounded by the connection pool rather than by the thread pool.
+ */
+@Configuration
+@ConditionalOnProperty(name = "store.threads.virtual", havingValue = "true", matchIfMissing = true)
+public class VirtualThreadConfiguration {
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+        return protocolHandler -> protocolHandler.setExecutor(Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("http-virtual-", 0).factory()));
+    }
+
+    // Replaces the pooled application executor, Spring MVC also runs async requests (the streamed product listing) on it
+    @Bean(name = {TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME, AsyncAnnotationBeanPostProcessor.DEFAULT_TASK_EXECUTOR_BEAN_NAME})
+    public AsyncTaskExecutor applicationTaskExecutor() {
+        return new TaskExecutorAdapter(Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("task-virtual-", 0).factory()));
+    }
+}
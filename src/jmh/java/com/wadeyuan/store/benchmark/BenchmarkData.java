@@ -0,0 +1,57 @@
+package com.wadeyuan.store.benchmark;
+
+import com.wadeyuan.store.constants.DiscountType;
+import com.wadeyuan.store.domain.Discount;
+import com.wadeyuan.store.domain.Product;
+import com.wadeyuan.store.domain.ShoppingCart;
+import com.wadeyuan.store.pricing.DiscountRuleIndex;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Synthetic, seeded catalogs, carts and discount tables shared by the benchmarks
+final class BenchmarkData {
+    private static final long SEED = 20230629L;
+
+    private BenchmarkData() {}
+
+    static List<Product> products(int count) {
+        Random random = new Random(SEED);
+        List<Product> products = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            products.add(new Product(i, "Product " + i, BigDecimal.valueOf(1 + random.nextInt(100_000), 2), LocalDateTime.now()));
+        }
+        return products;
+    }
+
+    static ShoppingCart cart(List<Product> products) {
+        ShoppingCart cart = new ShoppingCart(1, new ArrayList<>());
+        Random random = new Random(SEED);
+        for (Product product : products) {
+            cart.addToCart(product, 1 + random.nextInt(9));
+        }
+        return cart;
+    }
+
+    // Half of the rules are "buy x, get the rest z% off" on the same product, the rest require another product of the catalog
+    static List<Discount> discounts(List<Product> products, int count) {
+        Random random = new Random(SEED);
+        List<Discount> discounts = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            Product target = products.get(random.nextInt(products.size()));
+            Product required = random.nextBoolean() ? target : products.get(random.nextInt(products.size()));
+            DiscountType discountType = random.nextBoolean() ? DiscountType.PERCENTAGE : DiscountType.AMOUNT;
+            BigDecimal discountValue = BigDecimal.valueOf(1 + random.nextInt(discountType == DiscountType.PERCENTAGE ? 10_000 : 50_000), 2);
+            discounts.add(new Discount(i, required, random.nextInt(4), target, discountType, discountValue, true));
+        }
+        return discounts;
+    }
+
+    // The production index over the given rules
+    static DiscountRuleIndex discountRuleIndex(List<Discount> discounts) {
+        return new DiscountRuleIndex(discounts);
+    }
+}
@@ -0,0 +1,60 @@
+package com.wadeyuan.store.benchmark;
+
+import com.wadeyuan.store.domain.CartItem;
+import com.wadeyuan.store.domain.Product;
+import com.wadeyuan.store.domain.ShoppingCart;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+    In-memory ShoppingCart mutations and lookups, without persistence.
+    Lookups and updates target the last line, the worst case of a scan in insertion order.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CartMutationBenchmark {
+
+    @Param({"1", "100", "10000"})
+    private int cartLines;
+
+    private ShoppingCart cart;
+    private Product lastProduct;
+    private Product newProduct;
+
+    @Setup
+    public void setUp() {
+        List<Product> products = BenchmarkData.products(cartLines);
+        cart = BenchmarkData.cart(products);
+        lastProduct = products.get(products.size() - 1);
+        newProduct = new Product(cartLines + 1, "Product " + (cartLines + 1), BigDecimal.TEN, LocalDateTime.now());
+    }
+
+    @Benchmark
+    public ShoppingCart addToExistingLine() {
+        cart.addToCart(lastProduct, 1);
+        cart.removeFromCart(lastProduct, 1);
+        return cart;
+    }
+
+    @Benchmark
+    public ShoppingCart addAndRemoveNewLine() {
+        cart.addToCart(newProduct, 1);
+        cart.removeFromCart(newProduct, 1);
+        return cart;
+    }
+
+    @Benchmark
+    public CartItem getCarItemByProduct() {
+        return cart.getCarItemByProduct(lastProduct);
+    }
+
+    @Benchmark
+    public CartItem getCartItemByProductId() {
+        return cart.getCartItemByProductId(lastProduct.getId());
+    }
+}
@@ -0,0 +1,70 @@
+package com.wadeyuan.store.benchmark;
+
+import com.wadeyuan.store.domain.CartItem;
+import com.wadeyuan.store.domain.Product;
+import com.wadeyuan.store.domain.ShoppingCart;
+import com.wadeyuan.store.pricing.CartPrice;
+import com.wadeyuan.store.pricing.DiscountRule;
+import com.wadeyuan.store.pricing.DiscountRuleIndex;
+import com.wadeyuan.store.pricing.Money;
+import com.wadeyuan.store.pricing.PricingEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+    The /calculate pricing path: a whole cart, the discount of one line and a single discount rule.
+    The measured line is the one with the most rules targeting it, the worst case of the cart.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CartPricingBenchmark {
+
+    @Param({"1", "100", "10000"})
+    private int cartLines;
+
+    @Param({"1", "1000", "100000"})
+    private int discountRules;
+
+    private final PricingEngine pricingEngine = new PricingEngine();
+    private DiscountRuleIndex discountRuleIndex;
+    private ShoppingCart cart;
+    private CartItem item;
+    private long unitPrice;
+    private DiscountRule rule;
+
+    @Setup
+    public void setUp() {
+        List<Product> products = BenchmarkData.products(cartLines);
+        cart = BenchmarkData.cart(products);
+        discountRuleIndex = BenchmarkData.discountRuleIndex(BenchmarkData.discounts(products, discountRules));
+
+        item = cart.getItems().get(0);
+        for (CartItem candidate : cart.getItems()) {
+            if (rulesOf(candidate).size() > rulesOf(item).size()) item = candidate;
+        }
+        unitPrice = Money.toMicros(item.getProduct().getPrice());
+        rule = rulesOf(item).get(0);
+    }
+
+    private List<DiscountRule> rulesOf(CartItem cartItem) {
+        return discountRuleIndex.findByTargetProductId(cartItem.getProduct().getId());
+    }
+
+    @Benchmark
+    public CartPrice price() {
+        return pricingEngine.price(cart, discountRuleIndex);
+    }
+
+    @Benchmark
+    public long calculateDiscountOfCartItem() {
+        return pricingEngine.calculateDiscountOfCartItem(item, unitPrice, cart, discountRuleIndex);
+    }
+
+    @Benchmark
+    public long calculateDiscountAmountFromDiscountRule() {
+        return pricingEngine.calculateDiscountAmountFromDiscountRule(item, unitPrice, cart, rule);
+    }
+}
@@ -0,0 +1,207 @@
+package com.wadeyuan.store.benchmark;
+
+import org.flywaydb.core.Flyway;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+    The cart statements, and the discount lookup of the reactive variant, against the schema before and after V2 of the migrations, on an in-memory H2.
+    JOIN_TABLE stops at V1 (items linked through shopping_cart_items, no discount index), FOREIGN_KEY migrates the same data on to V2.
+    Removing a line from the join table layout rewrites the remaining join rows of the cart, as Hibernate does for a bag.
+    The query plans of both layouts are printed during setup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SchemaBenchmark {
+    private static final int PRODUCTS = 1_000;
+    private static final int CARTS = 10_000;
+    private static final int ITEMS_PER_CART = 5;
+    private static final int DISCOUNTS = 20_000;
+    private static final long SEED = 20230629L;
+
+    private static final String LOAD_CART_JOIN_TABLE = "select c.id, c.version, i.id, i.quantity, p.id, p.name, p.price from shopping_cart c " +
+            "left join shopping_cart_items j on j.shopping_cart_id = c.id left join cart_item i on i.id = j.items_id " +
+            "left join product p on p.id = i.product_id where c.id = ?";
+    private static final String LOAD_CART_FOREIGN_KEY = "select c.id, c.version, i.id, i.quantity, p.id, p.name, p.price from shopping_cart c " +
+            "left join cart_item i on i.shopping_cart_id = c.id left join product p on p.id = i.product_id where c.id = ?";
+    // The statement of ReactiveDiscountRepository.findEnabledRulesByTargetProductIds, for the products of one cart
+    private static final String FIND_DISCOUNTS = "select id, required_product_id, required_quantity, target_product_id, discount_type, discount_value from discount " +
+            "where target_product_id in (" + String.join(", ", Collections.nCopies(ITEMS_PER_CART, "?")) + ") and enabled = true";
+
+    public enum Layout { JOIN_TABLE, FOREIGN_KEY }
+
+    @Param({"JOIN_TABLE", "FOREIGN_KEY"})
+    private Layout layout;
+
+    private Connection connection;
+    private PreparedStatement loadCart;
+    private PreparedStatement findDiscounts;
+    private PreparedStatement insertItem;
+    private PreparedStatement deleteItem;
+    private PreparedStatement insertJoinRow;
+    private PreparedStatement deleteJoinRows;
+    private Random random;
+    private long nextItemId = CARTS * ITEMS_PER_CART + 1;
+
+    @Setup
+    public void setUp() throws SQLException {
+        String url = "jdbc:h2:mem:schema-" + layout + ";DB_CLOSE_DELAY=-1";
+        Flyway.configure().dataSource(url, "sa", "").target("1").load().migrate();
+        connection = DriverManager.getConnection(url, "sa", "");
+        populate();
+        if(layout == Layout.FOREIGN_KEY) Flyway.configure().dataSource(url, "sa", "").load().migrate();
+
+        loadCart = connection.prepareStatement(layout == Layout.JOIN_TABLE ? LOAD_CART_JOIN_TABLE : LOAD_CART_FOREIGN_KEY);
+        findDiscounts = connection.prepareStatement(FIND_DISCOUNTS);
+        deleteItem = connection.prepareStatement("delete from cart_item where id = ?");
+        if(layout == Layout.JOIN_TABLE) {
+            insertItem = connection.prepareStatement("insert into cart_item (id, product_id, quantity, line_amount, discount_amount) values (?, ?, 1, 0, 0)");
+            insertJoinRow = connection.prepareStatement("insert into shopping_cart_items (shopping_cart_id, items_id) values (?, ?)");
+            deleteJoinRows = connection.prepareStatement("delete from shopping_cart_items where shopping_cart_id = ?");
+        } else {
+            insertItem = connection.prepareStatement("insert into cart_item (id, product_id, quantity, line_amount, discount_amount, shopping_cart_id) values (?, ?, 1, 0, 0, ?)");
+        }
+
+        printPlan("load cart", (layout == Layout.JOIN_TABLE ? LOAD_CART_JOIN_TABLE : LOAD_CART_FOREIGN_KEY).replace("?", "1"));
+        printPlan("find discounts", FIND_DISCOUNTS.replace("?", "1"));
+        random = new Random(SEED);
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("shutdown");
+        }
+    }
+
+    @Benchmark
+    public void loadCart(Blackhole blackhole) throws SQLException {
+        loadCart.setLong(1, 1 + random.nextInt(CARTS));
+        try (ResultSet rs = loadCart.executeQuery()) {
+            while (rs.next()) {
+                blackhole.consume(rs.getLong(3));
+                blackhole.consume(rs.getString(6));
+            }
+        }
+    }
+
+    @Benchmark
+    public void findDiscounts(Blackhole blackhole) throws SQLException {
+        long cartId = 1 + random.nextInt(CARTS);
+        for (int i = 0; i < ITEMS_PER_CART; i++) {
+            findDiscounts.setLong(1 + i, productIdOf(cartId, i));
+        }
+        try (ResultSet rs = findDiscounts.executeQuery()) {
+            while (rs.next()) {
+                blackhole.consume(rs.getLong(1));
+            }
+        }
+    }
+
+    // A product the cart doesn't hold yet is added and removed again
+    @Benchmark
+    public void addAndRemoveLine() throws SQLException {
+        long cartId = 1 + random.nextInt(CARTS);
+        long itemId = nextItemId++;
+        insertItem.setLong(1, itemId);
+        insertItem.setLong(2, PRODUCTS);
+        if(layout == Layout.FOREIGN_KEY) {
+            insertItem.setLong(3, cartId);
+            insertItem.executeUpdate();
+            deleteItem.setLong(1, itemId);
+            deleteItem.executeUpdate();
+            return;
+        }
+
+        insertItem.executeUpdate();
+        insertJoinRow.setLong(1, cartId);
+        insertJoinRow.setLong(2, itemId);
+        insertJoinRow.executeUpdate();
+        // Removing from the bag deletes every join row of the cart and inserts the remaining ones again
+        deleteJoinRows.setLong(1, cartId);
+        deleteJoinRows.executeUpdate();
+        for (int i = 0; i < ITEMS_PER_CART; i++) {
+            insertJoinRow.setLong(1, cartId);
+            insertJoinRow.setLong(2, itemIdOf(cartId, i));
+            insertJoinRow.addBatch();
+        }
+        insertJoinRow.executeBatch();
+        deleteItem.setLong(1, itemId);
+        deleteItem.executeUpdate();
+    }
+
+    // Rows in the layout of V1, the FOREIGN_KEY layout gets them through the V2 data migration
+    private void populate() throws SQLException {
+        Random data = new Random(SEED);
+        connection.setAutoCommit(false);
+        try (PreparedStatement products = connection.prepareStatement("insert into product (id, name, price, created_timestamp) values (?, ?, ?, current_timestamp)");
+             PreparedStatement carts = connection.prepareStatement("insert into shopping_cart (id, version, total_amount, discount_amount, stale, last_modified) values (?, 0, 0, 0, true, current_timestamp)");
+             PreparedStatement items = connection.prepareStatement("insert into cart_item (id, product_id, quantity, line_amount, discount_amount) values (?, ?, ?, 0, 0)");
+             PreparedStatement joinRows = connection.prepareStatement("insert into shopping_cart_items (shopping_cart_id, items_id) values (?, ?)");
+             PreparedStatement discounts = connection.prepareStatement("insert into discount (id, required_product_id, required_quantity, target_product_id, discount_type, discount_value, enabled) values (?, ?, 1, ?, 0, 10, ?)")) {
+            for (int id = 1; id <= PRODUCTS; id++) {
+                products.setLong(1, id);
+                products.setString(2, "Product " + id);
+                products.setBigDecimal(3, BigDecimal.valueOf(1 + data.nextInt(100_000), 2));
+                products.addBatch();
+            }
+            products.executeBatch();
+            for (long cartId = 1; cartId <= CARTS; cartId++) {
+                carts.setLong(1, cartId);
+                carts.addBatch();
+                for (int i = 0; i < ITEMS_PER_CART; i++) {
+                    // Distinct products per cart, and never the last product, which addAndRemoveLine adds
+                    long itemId = itemIdOf(cartId, i);
+                    items.setLong(1, itemId);
+                    items.setLong(2, productIdOf(cartId, i));
+                    items.setInt(3, 1 + data.nextInt(5));
+                    items.addBatch();
+                    joinRows.setLong(1, cartId);
+                    joinRows.setLong(2, itemId);
+                    joinRows.addBatch();
+                }
+            }
+            carts.executeBatch();
+            items.executeBatch();
+            joinRows.executeBatch();
+            for (int id = 1; id <= DISCOUNTS; id++) {
+                discounts.setLong(1, id);
+                discounts.setLong(2, 1 + data.nextInt(PRODUCTS));
+                discounts.setLong(3, 1 + data.nextInt(PRODUCTS));
+                discounts.setBoolean(4, data.nextInt(5) == 0);
+                discounts.addBatch();
+            }
+            discounts.executeBatch();
+        }
+        connection.commit();
+        connection.setAutoCommit(true);
+    }
+
+    private static long itemIdOf(long cartId, int line) {
+        return (cartId - 1) * ITEMS_PER_CART + line + 1;
+    }
+
+    private static long productIdOf(long cartId, int line) {
+        return 1 + (cartId * ITEMS_PER_CART + line) % (PRODUCTS - 1);
+    }
+
+    private void printPlan(String name, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement(); ResultSet rs = statement.executeQuery("explain " + sql)) {
+            while (rs.next()) {
+                System.out.println("[" + layout + "] " + name + ":\n" + rs.getString(1));
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.wadeyuan.store.load;
+
+import com.wadeyuan.store.ElectronicsStoreApplication;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import javax.sql.DataSource;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/*
+ * Starts the store twice on a random port, once with Tomcat's platform thread pool and once with virtual request threads,
+ * and drives the cart endpoints with the same closed population of shoppers against both.
+ * Every shopper creates a cart, then repeatedly adds a random product and asks for the calculated total.
+ *
+ * ./gradlew cartLoadScenario -PvirtualThreads [-Pshoppers=2000] [-Prounds=10]
+ */
+public class CartLoadScenario {
+    private static final int PRODUCTS = 20;
+    private static final int WARMUP_SHOPPERS = 200;
+
+    public static void main(String[] args) throws Exception {
+        int shoppers = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        List<Result> results = new ArrayList<>();
+        for (boolean virtualThreads : new boolean[]{false, true}) {
+            results.add(run(virtualThreads, shoppers, rounds));
+        }
+
+        System.out.printf("%n%d shoppers, %d rounds each%n", shoppers, rounds);
+        System.out.printf("%-9s %10s %8s %10s %9s %9s %9s %14s %16s%n",
+                "threads", "requests", "errors", "req/s", "p50 ms", "p99 ms", "max ms", "peak platform", "max conn waiters");
+        for (Result result : results) {
+            System.out.printf("%-9s %10d %8d %10.0f %9.2f %9.2f %9.2f %14d %16d%n",
+                    result.mode, result.requests, result.errors, result.requests / result.seconds,
+                    result.percentile(0.50), result.percentile(0.99), result.percentile(1.0),
+                    result.peakPlatformThreads, result.maxConnectionWaiters);
+        }
+    }
+
+    private static Result run(boolean virtualThreads, int shoppers, int rounds) throws Exception {
+        String mode = virtualThreads ? "virtual" : "platform";
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(ElectronicsStoreApplication.class)
+                .properties("server.port=0", "store.threads.virtual=" + virtualThreads, "logging.level.root=warn")
+                .run();
+        try (ExecutorService clientThreads = Executors.newVirtualThreadPerTaskExecutor()) {
+            String baseUrl = "http://localhost:" + ((WebServerApplicationContext) context).getWebServer().getPort();
+            HttpClient client = HttpClient.newBuilder().executor(clientThreads).build();
+            for (int i = 1; i <= PRODUCTS; i++) {
+                send(client, HttpRequest.newBuilder(URI.create(baseUrl + "/products"))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString("{\"name\": \"Product " + i + "\", \"price\": " + (i * 5 + 0.99) + "}"))
+                        .build());
+            }
+
+            drive(client, clientThreads, baseUrl, WARMUP_SHOPPERS, rounds, null);
+
+            HikariDataSource dataSource = context.getBean(DataSource.class).unwrap(HikariDataSource.class);
+            LongAccumulator maxConnectionWaiters = new LongAccumulator(Math::max, 0);
+            ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+            threadMXBean.resetPeakThreadCount();
+            try (ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor()) {
+                sampler.scheduleAtFixedRate(() -> maxConnectionWaiters.accumulate(dataSource.getHikariPoolMXBean().getThreadsAwaitingConnection()),
+                        0, 10, TimeUnit.MILLISECONDS);
+                Result result = new Result(mode);
+                long start = System.nanoTime();
+                drive(client, clientThreads, baseUrl, shoppers, rounds, result);
+                result.seconds = (System.nanoTime() - start) / 1e9;
+                // Virtual threads are not counted here, only the carriers, Tomcat's workers and the JVM's own threads
+                result.peakPlatformThreads = threadMXBean.getPeakThreadCount();
+                result.maxConnectionWaiters = maxConnectionWaiters.get();
+                return result;
+            }
+        } finally {
+            context.close();
+        }
+    }
+
+    private static void drive(HttpClient client, ExecutorService clientThreads, String baseUrl, int shoppers, int rounds, Result result) throws InterruptedException, ExecutionException {
+        List<long[]> latencies = new ArrayList<>(shoppers);
+        AtomicInteger errors = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>(shoppers);
+        for (int shopper = 0; shopper < shoppers; shopper++) {
+            long[] shopperLatencies = new long[1 + rounds * 2];
+            latencies.add(shopperLatencies);
+            futures.add(clientThreads.submit(() -> {
+                int recorded = 0;
+                try {
+                    long start = System.nanoTime();
+                    HttpResponse<String> created = send(client, HttpRequest.newBuilder(URI.create(baseUrl + "/shopping-carts"))
+                            .header("Content-Type", "application/json")
+                            .POST(HttpRequest.BodyPublishers.ofString("{\"items\": []}"))
+                            .build());
+                    shopperLatencies[recorded++] = System.nanoTime() - start;
+                    String cart = created.headers().firstValue("Location").orElseThrow();
+                    for (int round = 0; round < rounds; round++) {
+                        long productId = ThreadLocalRandom.current().nextInt(1, PRODUCTS + 1);
+                        start = System.nanoTime();
+                        send(client, HttpRequest.newBuilder(URI.create(cart + "/add/" + productId + "?quantity=1"))
+                                .PUT(HttpRequest.BodyPublishers.noBody())
+                                .build());
+                        shopperLatencies[recorded++] = System.nanoTime() - start;
+                        start = System.nanoTime();
+                        send(client, HttpRequest.newBuilder(URI.create(cart + "/calculate")).GET().build());
+                        shopperLatencies[recorded++] = System.nanoTime() - start;
+                    }
+                } catch (Exception e) {
+                    // The shopper gives up on the first failed request, like a customer facing an error page would
+                    errors.incrementAndGet();
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        if(result == null) return;
+
+        result.errors = errors.get();
+        result.latencies = latencies.stream().flatMapToLong(Arrays::stream).filter(latency -> latency > 0).sorted().toArray();
+        result.requests = result.latencies.length;
+    }
+
+    private static HttpResponse<String> send(HttpClient client, HttpRequest request) throws Exception {
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if(response.statusCode() >= 400) throw new IllegalStateException(request.method() + " " + request.uri() + " answered " + response.statusCode());
+        return response;
+    }
+
+    private static class Result {
+        final String mode;
+        long[] latencies = new long[0];
+        long requests;
+        long errors;
+        double seconds;
+        long peakPlatformThreads;
+        long maxConnectionWaiters;
+
+        Result(String mode) {
+            this.mode = mode;
+        }
+
+        double percentile(double quantile) {
+            if(latencies.length == 0) return 0;
+            int index = (int) Math.ceil(quantile * latencies.length) - 1;
+            return latencies[Math.max(0, index)] / 1e6;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.wadeyuan.store.load;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Latencies of one phase of a load test (warmup or measurement), an HdrHistogram per endpoint and per scenario.
+ * Values are recorded in nanoseconds with three significant digits and reported in milliseconds.
+ * Files are written in a fixed order without timestamps, so the reports of two commits can be diffed directly.
+ */
+class Recording {
+    private static final long HIGHEST_TRACKABLE = TimeUnit.MINUTES.toNanos(10);
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    void record(String name, long latencyNanos) {
+        histograms.computeIfAbsent(name, key -> new ConcurrentHistogram(HIGHEST_TRACKABLE, 3))
+                .recordValue(Math.min(Math.max(0, latencyNanos), HIGHEST_TRACKABLE));
+    }
+
+    // Failed requests are recorded as well, a fast error is still a response the client waited for
+    void recordError(String name, long latencyNanos) {
+        record(name, latencyNanos);
+        errors.computeIfAbsent(name, key -> new LongAdder()).increment();
+    }
+
+    // One .hgrm file (HdrHistogram percentile distribution) per endpoint and scenario, plus the summary table in summary.txt
+    void write(Path directory, String header, double seconds) throws IOException {
+        Files.createDirectories(directory);
+        Map<String, Histogram> sorted = new TreeMap<>(histograms);
+        for (Map.Entry<String, Histogram> entry : sorted.entrySet()) {
+            try (PrintStream out = new PrintStream(Files.newOutputStream(directory.resolve(fileName(entry.getKey()))), false, StandardCharsets.UTF_8)) {
+                entry.getValue().outputPercentileDistribution(out, NANOS_PER_MILLI);
+            }
+        }
+        try (PrintStream out = new PrintStream(Files.newOutputStream(directory.resolve("summary.txt")), false, StandardCharsets.UTF_8)) {
+            printSummary(out, header, seconds);
+        }
+    }
+
+    void printSummary(PrintStream out, String header, double seconds) {
+        out.println(header);
+        out.printf("%-45s %9s %7s %9s %9s %9s %9s %9s %9s%n", "endpoint", "count", "errors", "req/s", "p50 ms", "p95 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(histograms).entrySet()) {
+            Histogram histogram = entry.getValue();
+            LongAdder failed = errors.get(entry.getKey());
+            out.printf("%-45s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n", entry.getKey(), histogram.getTotalCount(), failed == null ? 0 : failed.sum(),
+                    histogram.getTotalCount() / seconds,
+                    histogram.getValueAtPercentile(50) / NANOS_PER_MILLI, histogram.getValueAtPercentile(95) / NANOS_PER_MILLI,
+                    histogram.getValueAtPercentile(99) / NANOS_PER_MILLI, histogram.getValueAtPercentile(99.9) / NANOS_PER_MILLI,
+                    histogram.getMaxValue() / NANOS_PER_MILLI);
+        }
+    }
+
+    // e.g. "GET /shopping-carts/{id}/calculate" is written to get-shopping-carts-id-calculate.hgrm
+    private static String fileName(String name) {
+        return name.toLowerCase().replaceAll("[^a-z0-9]+", "-").replaceAll("^-|-$", "") + ".hgrm";
+    }
+}
@@ -0,0 +1,183 @@
+package com.wadeyuan.store.load;
+
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/*
+ * The weighted journeys of StoreLoadTest, following the flows of ElectronicsStoreApplicationTests.
+ * Every request is sent asynchronously and recorded under its endpoint template, the first failing request ends the journey.
+ */
+class Scenarios {
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    record Scenario(String name, int weight, Function<Session, CompletableFuture<?>> journey) {}
+
+    // Products, and carts that already hold a few lines, created before the load starts
+    record Catalog(List<Long> productIds, List<String> productNames, List<String> carts) {}
+
+    private static final List<Scenario> DEFAULT_MIX = List.of(
+            new Scenario("browse", 40, Scenarios::browse),
+            new Scenario("fillCart", 35, Scenarios::fillCart),
+            new Scenario("recalculate", 20, Scenarios::recalculate),
+            new Scenario("admin", 5, Scenarios::admin));
+
+    // e.g. "browse=10,fillCart=60,recalculate=30", scenarios left out don't run
+    static List<Scenario> mix(String weights) {
+        if(weights == null || weights.isBlank()) return DEFAULT_MIX;
+
+        List<Scenario> mix = new ArrayList<>();
+        for (String weight : weights.split(",")) {
+            String[] nameAndWeight = weight.trim().split("=");
+            Scenario scenario = DEFAULT_MIX.stream().filter(candidate -> candidate.name().equals(nameAndWeight[0])).findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("Unknown scenario " + nameAndWeight[0]));
+            mix.add(new Scenario(scenario.name(), Integer.parseInt(nameAndWeight[1]), scenario.journey()));
+        }
+        return mix;
+    }
+
+    static Scenario pick(List<Scenario> mix, Random random) {
+        int total = mix.stream().mapToInt(Scenario::weight).sum();
+        int ticket = random.nextInt(total);
+        for (Scenario scenario : mix) {
+            ticket -= scenario.weight();
+            if(ticket < 0) return scenario;
+        }
+        throw new IllegalStateException();
+    }
+
+    // A page of the catalog, then one product of it
+    private static CompletableFuture<?> browse(Session session) {
+        long afterId = session.randomProductId() - 1;
+        return session.send("GET /products", session.get("/products?limit=20&afterId=" + afterId))
+                .thenCompose(page -> session.send("GET /products/{id}", session.get("/products/" + session.randomProductId())));
+    }
+
+    // A new cart gets three products, is calculated, loses one and is viewed and calculated again
+    private static CompletableFuture<?> fillCart(Session session) {
+        List<Long> products = session.distinctProductIds(3);
+        return session.send("POST /shopping-carts", session.post("/shopping-carts", "{\"items\": []}"))
+                .thenCompose(created -> {
+                    String cart = created.headers().firstValue("Location").orElseThrow();
+                    CompletableFuture<?> journey = CompletableFuture.completedFuture(null);
+                    for (long productId : products) {
+                        journey = journey.thenCompose(previous -> session.send("PUT /shopping-carts/{id}/add/{productId}",
+                                session.put(cart + "/add/" + productId + "?quantity=" + (1 + session.random.nextInt(3)), null)));
+                    }
+                    return journey
+                            .thenCompose(added -> session.send("GET /shopping-carts/{id}/calculate", session.get(cart + "/calculate")))
+                            .thenCompose(calculated -> session.send("PUT /shopping-carts/{id}/remove/{productId}", session.put(cart + "/remove/" + products.get(0) + "?quantity=1", null)))
+                            .thenCompose(removed -> session.send("GET /shopping-carts/{id}", session.get(cart)))
+                            .thenCompose(viewed -> session.send("GET /shopping-carts/{id}/calculate", session.get(cart + "/calculate")));
+                });
+    }
+
+    // An existing cart is calculated over and over, as a shopper reloading the checkout page would
+    private static CompletableFuture<?> recalculate(Session session) {
+        String cart = session.catalog.carts().get(session.random.nextInt(session.catalog.carts().size()));
+        CompletableFuture<?> journey = CompletableFuture.completedFuture(null);
+        for (int i = 0; i < 3; i++) {
+            journey = journey.thenCompose(previous -> session.send("GET /shopping-carts/{id}/calculate", session.get(cart + "/calculate")));
+        }
+        return journey;
+    }
+
+    // A new product with a simple and a complex discount, which are removed again, and a price change of an existing product
+    private static CompletableFuture<?> admin(Session session) {
+        int index = session.random.nextInt(session.catalog.productIds().size());
+        long requiredProductId = session.catalog.productIds().get(index);
+        String price = BigDecimal.valueOf(100 + session.random.nextInt(9_900), 2).toPlainString();
+        return session.send("POST /products", session.post("/products", "{\"name\": \"Load product\", \"price\": " + price + "}"))
+                .thenCompose(created -> {
+                    String product = created.headers().firstValue("Location").orElseThrow();
+                    long productId = Long.parseLong(product.substring(product.lastIndexOf('/') + 1));
+                    String complexDiscount = "{\"requiredProduct\": {\"id\": " + requiredProductId + "}, \"requiredQuantity\": 1, " +
+                            "\"targetProduct\": {\"id\": " + productId + "}, \"discountType\": \"AMOUNT\", \"discountValue\": 1.00, \"enabled\": true}";
+                    return session.send("PUT /products/{id}", session.put("/products/" + requiredProductId,
+                                    "{\"name\": \"" + session.catalog.productNames().get(index) + "\", \"price\": " + price + "}"))
+                            .thenCompose(updated -> session.send("POST /discounts/simpleDiscount/product/{id}",
+                                    session.post("/discounts/simpleDiscount/product/" + productId + "?requiredQuantity=1&percentageOff=10", null)))
+                            .thenCompose(simple -> session.send("POST /discounts", session.post("/discounts", complexDiscount))
+                                    .thenCompose(complex -> session.send("DELETE /discounts/{id}", session.delete(complex.headers().firstValue("Location").orElseThrow())))
+                                    .thenCompose(deleted -> session.send("DELETE /discounts/{id}", session.delete(simple.headers().firstValue("Location").orElseThrow()))));
+                });
+    }
+
+    // One arrival of a journey, with a random source of its own so the requests of a run follow from its seed
+    static class Session {
+        private final HttpClient client;
+        private final String baseUrl;
+        private final Catalog catalog;
+        private final Recording recording;
+        private final Random random;
+
+        Session(HttpClient client, String baseUrl, Catalog catalog, Recording recording, Random random) {
+            this.client = client;
+            this.baseUrl = baseUrl;
+            this.catalog = catalog;
+            this.recording = recording;
+            this.random = random;
+        }
+
+        CompletableFuture<HttpResponse<String>> send(String endpoint, HttpRequest request) {
+            long start = System.nanoTime();
+            return client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).handle((response, e) -> {
+                long latency = System.nanoTime() - start;
+                if(e != null || response.statusCode() >= 400) {
+                    recording.recordError(endpoint, latency);
+                    throw new CompletionException(e != null ? e : new IllegalStateException(request.method() + " " + request.uri() + " answered " + response.statusCode()));
+                }
+                recording.record(endpoint, latency);
+                return response;
+            });
+        }
+
+        HttpRequest get(String path) {
+            return request(path).GET().build();
+        }
+
+        HttpRequest post(String path, String json) {
+            return request(path).header("Content-Type", "application/json").POST(body(json)).build();
+        }
+
+        HttpRequest put(String path, String json) {
+            return request(path).header("Content-Type", "application/json").PUT(body(json)).build();
+        }
+
+        HttpRequest delete(String path) {
+            return request(path).DELETE().build();
+        }
+
+        long randomProductId() {
+            return catalog.productIds().get(random.nextInt(catalog.productIds().size()));
+        }
+
+        List<Long> distinctProductIds(int count) {
+            Set<Long> productIds = new LinkedHashSet<>();
+            while (productIds.size() < Math.min(count, catalog.productIds().size())) {
+                productIds.add(randomProductId());
+            }
+            return new ArrayList<>(productIds);
+        }
+
+        // Paths from a Location header are already absolute
+        private HttpRequest.Builder request(String path) {
+            return HttpRequest.newBuilder(URI.create(path.startsWith("http") ? path : baseUrl + path)).timeout(REQUEST_TIMEOUT);
+        }
+
+        private static HttpRequest.BodyPublisher body(String json) {
+            return json == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(json);
+        }
+    }
+}
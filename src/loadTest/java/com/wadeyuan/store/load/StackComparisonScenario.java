@@ -0,0 +1,217 @@
+package com.wadeyuan.store.load;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * Starts the servlet/JPA stack and the WebFlux/R2DBC stack one after the other, each in its own JVM on a free port, with the
+ * same small number of request threads and database connections, and drives the cart endpoints with the same closed
+ * population of shoppers against both. Every shopper creates a cart, then repeatedly adds a random product and asks for the
+ * calculated total. The client sends every request asynchronously from a handful of threads, so it needs no thread per shopper.
+ *
+ * ./gradlew stackComparison -Preactive [-Pshoppers=2000] [-Prounds=10] [-Pthreads=4]
+ */
+public class StackComparisonScenario {
+    private static final int PRODUCTS = 20;
+    private static final int WARMUP_SHOPPERS = 200;
+    private static final Duration STARTUP_TIMEOUT = Duration.ofMinutes(2);
+    private static final Pattern MEASUREMENT = Pattern.compile("\"value\"\\s*:\\s*([0-9.Ee+-]+)");
+
+    public static void main(String[] args) throws Exception {
+        int shoppers = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+        List<Result> results = new ArrayList<>();
+        // Admission control would shed the population instead of letting it queue, and the reactive stack has none
+        results.add(run("servlet", System.getProperty("store.servlet.classpath"), "com.wadeyuan.store.ElectronicsStoreApplication", shoppers, rounds, List.of(),
+                List.of("--server.tomcat.threads.max=" + threads, "--server.tomcat.threads.min-spare=" + threads,
+                        "--spring.datasource.hikari.maximum-pool-size=" + threads, "--store.admission.enabled=false")));
+        results.add(run("reactive", System.getProperty("store.reactive.classpath"), "com.wadeyuan.store.reactive.ReactiveStoreApplication", shoppers, rounds,
+                List.of("-Dreactor.netty.ioWorkerCount=" + threads),
+                List.of("--spring.r2dbc.pool.initial-size=" + threads, "--spring.r2dbc.pool.max-size=" + threads)));
+
+        System.out.printf("%n%d shoppers, %d rounds each, %d request threads and database connections per stack%n", shoppers, rounds, threads);
+        System.out.printf("%-9s %10s %8s %10s %9s %9s %9s %9s %12s %13s%n",
+                "stack", "requests", "errors", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "cpu us/req", "peak threads");
+        for (Result result : results) {
+            System.out.printf("%-9s %10d %8d %10.0f %9.2f %9.2f %9.2f %9.2f %12.1f %13.0f%n",
+                    result.stack, result.requests, result.errors, result.requests / result.seconds,
+                    result.percentile(0.50), result.percentile(0.99), result.percentile(0.999), result.percentile(1.0),
+                    result.requests == 0 ? 0 : result.cpuNanos / 1e3 / result.requests, result.peakThreads);
+        }
+    }
+
+    private static Result run(String stack, String classpath, String mainClass, int shoppers, int rounds, List<String> jvmArgs, List<String> appArgs) throws Exception {
+        if(classpath == null) throw new IllegalStateException("No classpath for the " + stack + " stack, run through ./gradlew stackComparison -Preactive");
+
+        int port = freePort();
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command().orElse("java"));
+        command.addAll(jvmArgs);
+        command.addAll(List.of("-cp", classpath, mainClass, "--server.port=" + port, "--logging.level.root=warn", "--store.cart.reaper.enabled=false"));
+        command.addAll(appArgs);
+        Process server = new ProcessBuilder(command).inheritIO().start();
+        ExecutorService clientThreads = Executors.newFixedThreadPool(4);
+        try {
+            String baseUrl = "http://localhost:" + port;
+            HttpClient client = HttpClient.newBuilder().executor(clientThreads).connectTimeout(Duration.ofSeconds(10)).build();
+            awaitStartup(client, server, baseUrl);
+
+            // Ids are read from the Location header, the two stacks allocate them differently
+            List<Long> productIds = new ArrayList<>();
+            for (int i = 1; i <= PRODUCTS; i++) {
+                HttpResponse<String> created = client.send(json(baseUrl + "/products", "{\"name\": \"Product " + i + "\", \"price\": " + (i * 5 + 0.99) + "}"),
+                        HttpResponse.BodyHandlers.ofString());
+                String location = created.headers().firstValue("Location").orElseThrow();
+                productIds.add(Long.parseLong(location.substring(location.lastIndexOf('/') + 1)));
+            }
+            // Every fourth product is 10% off after the first one, so a calculation has rules to evaluate
+            for (int i = 0; i < productIds.size(); i += 4) {
+                client.send(HttpRequest.newBuilder(URI.create(baseUrl + "/discounts/simpleDiscount/product/" + productIds.get(i) + "?requiredQuantity=1&percentageOff=10"))
+                        .POST(HttpRequest.BodyPublishers.noBody())
+                        .build(), HttpResponse.BodyHandlers.discarding());
+            }
+
+            drive(client, baseUrl, productIds, WARMUP_SHOPPERS, rounds, new Result(stack));
+
+            Result result = new Result(stack);
+            long cpuStart = cpuNanos(server);
+            long start = System.nanoTime();
+            drive(client, baseUrl, productIds, shoppers, rounds, result);
+            result.seconds = (System.nanoTime() - start) / 1e9;
+            result.cpuNanos = cpuNanos(server) - cpuStart;
+            result.peakThreads = measurement(client, baseUrl, "jvm.threads.peak");
+            return result;
+        } finally {
+            clientThreads.shutdownNow();
+            server.destroy();
+            server.waitFor();
+        }
+    }
+
+    private static void drive(HttpClient client, String baseUrl, List<Long> productIds, int shoppers, int rounds, Result result) {
+        List<long[]> latencies = new ArrayList<>(shoppers);
+        AtomicInteger errors = new AtomicInteger();
+        List<CompletableFuture<?>> shopping = new ArrayList<>(shoppers);
+        for (int shopper = 0; shopper < shoppers; shopper++) {
+            long[] shopperLatencies = new long[1 + rounds * 2];
+            latencies.add(shopperLatencies);
+            long start = System.nanoTime();
+            shopping.add(send(client, json(baseUrl + "/shopping-carts", "{\"items\": []}"))
+                    .thenCompose(created -> {
+                        shopperLatencies[0] = System.nanoTime() - start;
+                        return shop(client, created.headers().firstValue("Location").orElseThrow(), productIds, rounds, shopperLatencies, 0);
+                    })
+                    // The shopper gives up on the first failed request, like a customer facing an error page would
+                    .exceptionally(e -> {
+                        errors.incrementAndGet();
+                        return null;
+                    }));
+        }
+        CompletableFuture.allOf(shopping.toArray(CompletableFuture[]::new)).join();
+
+        result.errors = errors.get();
+        result.latencies = latencies.stream().flatMapToLong(Arrays::stream).filter(latency -> latency > 0).sorted().toArray();
+        result.requests = result.latencies.length;
+    }
+
+    // One round of adding a product and calculating the cart, then the next one
+    private static CompletableFuture<Void> shop(HttpClient client, String cart, List<Long> productIds, int rounds, long[] latencies, int round) {
+        if(round == rounds) return CompletableFuture.completedFuture(null);
+
+        long productId = productIds.get(ThreadLocalRandom.current().nextInt(productIds.size()));
+        long addStart = System.nanoTime();
+        return send(client, HttpRequest.newBuilder(URI.create(cart + "/add/" + productId + "?quantity=1"))
+                        .PUT(HttpRequest.BodyPublishers.noBody())
+                        .build())
+                .thenCompose(added -> {
+                    latencies[1 + round * 2] = System.nanoTime() - addStart;
+                    long calculateStart = System.nanoTime();
+                    return send(client, HttpRequest.newBuilder(URI.create(cart + "/calculate")).GET().build())
+                            .thenAccept(calculated -> latencies[2 + round * 2] = System.nanoTime() - calculateStart);
+                })
+                .thenCompose(done -> shop(client, cart, productIds, rounds, latencies, round + 1));
+    }
+
+    private static CompletableFuture<HttpResponse<String>> send(HttpClient client, HttpRequest request) {
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).thenApply(response -> {
+            if(response.statusCode() >= 400) throw new IllegalStateException(request.method() + " " + request.uri() + " answered " + response.statusCode());
+            return response;
+        });
+    }
+
+    private static HttpRequest json(String url, String body) {
+        return HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private static void awaitStartup(HttpClient client, Process server, String baseUrl) throws InterruptedException {
+        long deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+        HttpRequest health = HttpRequest.newBuilder(URI.create(baseUrl + "/actuator/health")).GET().build();
+        while (System.nanoTime() < deadline) {
+            if(!server.isAlive()) throw new IllegalStateException("The store exited with " + server.exitValue() + " during startup");
+            try {
+                if(client.send(health, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) return;
+            } catch (IOException e) {
+                // Not listening yet
+            }
+            Thread.sleep(200);
+        }
+        throw new IllegalStateException("The store didn't start within " + STARTUP_TIMEOUT);
+    }
+
+    // Reads a single value from the actuator metrics endpoint, both stacks expose it
+    private static double measurement(HttpClient client, String baseUrl, String meter) throws IOException, InterruptedException {
+        String body = client.send(HttpRequest.newBuilder(URI.create(baseUrl + "/actuator/metrics/" + meter)).GET().build(), HttpResponse.BodyHandlers.ofString()).body();
+        Matcher matcher = MEASUREMENT.matcher(body);
+        return matcher.find() ? Double.parseDouble(matcher.group(1)) : Double.NaN;
+    }
+
+    private static long cpuNanos(Process server) {
+        return server.toHandle().info().totalCpuDuration().map(Duration::toNanos).orElse(0L);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static class Result {
+        final String stack;
+        long[] latencies = new long[0];
+        long requests;
+        long errors;
+        double seconds;
+        long cpuNanos;
+        double peakThreads;
+
+        Result(String stack) {
+            this.stack = stack;
+        }
+
+        double percentile(double quantile) {
+            if(latencies.length == 0) return 0;
+            int index = (int) Math.ceil(quantile * latencies.length) - 1;
+            return latencies[Math.max(0, index)] / 1e6;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.wadeyuan.store.load;
+
+import com.wadeyuan.store.ElectronicsStoreApplication;
+import com.wadeyuan.store.load.Scenarios.Catalog;
+import com.wadeyuan.store.load.Scenarios.Scenario;
+import com.wadeyuan.store.load.Scenarios.Session;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Starts the store on a random port and runs weighted journeys against it under an open model: journeys arrive at a fixed
+ * rate whether or not the earlier ones are done, so a slow server builds up a backlog instead of slowing the load down.
+ * Request latencies are recorded per endpoint. A journey's latency is taken from the moment it was due to arrive, so time
+ * it spent waiting behind a stalled generator counts as well (no coordinated omission).
+ * After a warmup, the measured phase is written to build/load-test as HdrHistogram percentile distributions and a summary.
+ * Runs with the same seed send the same requests, so the output of two commits can be compared with diff.
+ *
+ * ./gradlew loadTest [-Prate=50] [-Pduration=PT1M] [-Pwarmup=PT10S] [-Pseed=20230629] [-Pmix=browse=40,fillCart=35,recalculate=20,admin=5]
+ *                    [-PmaxInFlight=10000] [-PloadTestOutput=build/load-test] [-PappArgs="--store.cart.write-behind.enabled=true"]
+ */
+public class StoreLoadTest {
+    private static final int PRODUCTS = 50;
+    private static final int CARTS = 200;
+    private static final int LINES_PER_CART = 5;
+    private static final Duration DRAIN_TIMEOUT = Duration.ofMinutes(1);
+
+    public static void main(String[] args) throws Exception {
+        // name=value options of the load test, --name=value arguments are passed on to the application
+        Map<String, String> options = new HashMap<>();
+        List<String> applicationArgs = new ArrayList<>();
+        for (String arg : args) {
+            if(arg.startsWith("--")) {
+                applicationArgs.add(arg);
+            } else {
+                int separator = arg.indexOf('=');
+                options.put(arg.substring(0, separator), arg.substring(separator + 1));
+            }
+        }
+        double rate = Double.parseDouble(options.getOrDefault("rate", "50"));
+        Duration duration = Duration.parse(options.getOrDefault("duration", "PT1M"));
+        Duration warmup = Duration.parse(options.getOrDefault("warmup", "PT10S"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "20230629"));
+        int maxInFlight = Integer.parseInt(options.getOrDefault("maxInFlight", "10000"));
+        List<Scenario> mix = Scenarios.mix(options.get("mix"));
+        Path output = Path.of(options.getOrDefault("output", "build/load-test"));
+
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(ElectronicsStoreApplication.class)
+                .properties("server.port=0", "logging.level.root=warn")
+                .run(applicationArgs.toArray(String[]::new));
+        ExecutorService clientThreads = Executors.newFixedThreadPool(4);
+        try {
+            String baseUrl = "http://localhost:" + ((WebServerApplicationContext) context).getWebServer().getPort();
+            HttpClient client = HttpClient.newBuilder()
+                    .executor(clientThreads)
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(Duration.ofSeconds(10))
+                    .build();
+            Random random = new Random(seed);
+            Catalog catalog = seed(client, baseUrl, random);
+
+            run(client, baseUrl, catalog, mix, random, rate, warmup, maxInFlight, new Recording());
+
+            Recording recording = new Recording();
+            int dropped = run(client, baseUrl, catalog, mix, random, rate, duration, maxInFlight, recording);
+            StringJoiner weights = new StringJoiner(",");
+            mix.forEach(scenario -> weights.add(scenario.name() + "=" + scenario.weight()));
+            String header = String.format("rate=%s/s duration=%s warmup=%s seed=%d mix=%s dropped=%d %s",
+                    rate, duration, warmup, seed, weights, dropped, String.join(" ", applicationArgs)).trim();
+            recording.write(output, header, duration.toNanos() / 1e9);
+            System.out.println();
+            recording.printSummary(System.out, header, duration.toNanos() / 1e9);
+            System.out.println("Histograms written to " + output.toAbsolutePath());
+        } finally {
+            clientThreads.shutdownNow();
+            context.close();
+        }
+    }
+
+    // Returns the number of journeys that never started because maxInFlight journeys were still running
+    private static int run(HttpClient client, String baseUrl, Catalog catalog, List<Scenario> mix, Random random,
+                           double rate, Duration length, int maxInFlight, Recording recording) throws InterruptedException {
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long start = System.nanoTime();
+        long arrivals = length.toNanos() / interval;
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        int dropped = 0;
+        for (long arrival = 0; arrival < arrivals; arrival++) {
+            long due = start + arrival * interval;
+            for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                LockSupport.parkNanos(wait);
+            }
+            // Drawn for every arrival, dropped or not, so a run sends the same journeys whatever the server does
+            Scenario scenario = Scenarios.pick(mix, random);
+            Session session = new Session(client, baseUrl, catalog, recording, new Random(random.nextLong()));
+            if(!inFlight.tryAcquire()) {
+                dropped++;
+                continue;
+            }
+
+            CompletableFuture<?> journey;
+            try {
+                journey = scenario.journey().apply(session);
+            } catch (RuntimeException e) {
+                journey = CompletableFuture.failedFuture(e);
+            }
+            journey.whenComplete((result, e) -> {
+                if(e == null) {
+                    recording.record("journey " + scenario.name(), System.nanoTime() - due);
+                } else {
+                    recording.recordError("journey " + scenario.name(), System.nanoTime() - due);
+                }
+                inFlight.release();
+            });
+        }
+        // Journeys that arrived in time are still measured to their end
+        if(!inFlight.tryAcquire(maxInFlight, DRAIN_TIMEOUT.toNanos(), TimeUnit.NANOSECONDS)) {
+            System.out.println("Some journeys were still running " + DRAIN_TIMEOUT + " after the last arrival");
+        } else {
+            inFlight.release(maxInFlight);
+        }
+        return dropped;
+    }
+
+    // The catalog the journeys work on: products, simple and complex discounts on some of them, and carts holding a few lines
+    private static Catalog seed(HttpClient client, String baseUrl, Random random) throws Exception {
+        Session session = new Session(client, baseUrl, null, new Recording(), random);
+        List<Long> productIds = new ArrayList<>();
+        List<String> productNames = new ArrayList<>();
+        for (int i = 1; i <= PRODUCTS; i++) {
+            String name = "Product " + i;
+            HttpResponse<String> created = session.send("seed", session.post("/products", "{\"name\": \"" + name + "\", \"price\": " + (i * 5 + 0.99) + "}")).join();
+            String location = created.headers().firstValue("Location").orElseThrow();
+            productIds.add(Long.parseLong(location.substring(location.lastIndexOf('/') + 1)));
+            productNames.add(name);
+        }
+        for (int i = 0; i < PRODUCTS; i += 5) {
+            session.send("seed", session.post("/discounts/simpleDiscount/product/" + productIds.get(i) + "?requiredQuantity=1&percentageOff=10", null)).join();
+        }
+        for (int i = 1; i < PRODUCTS; i += 7) {
+            session.send("seed", session.post("/discounts", "{\"requiredProduct\": {\"id\": " + productIds.get(i) + "}, \"requiredQuantity\": 1, " +
+                    "\"targetProduct\": {\"id\": " + productIds.get(i - 1) + "}, \"discountType\": \"AMOUNT\", \"discountValue\": 2.00, \"enabled\": true}")).join();
+        }
+
+        Catalog products = new Catalog(productIds, productNames, List.of());
+        Session cartSession = new Session(client, baseUrl, products, new Recording(), random);
+        List<String> carts = new ArrayList<>();
+        for (int i = 0; i < CARTS; i++) {
+            StringJoiner items = new StringJoiner(", ", "{\"items\": [", "]}");
+            for (long productId : cartSession.distinctProductIds(LINES_PER_CART)) {
+                items.add("{\"product\": {\"id\": " + productId + "}, \"quantity\": " + (1 + random.nextInt(3)) + "}");
+            }
+            HttpResponse<String> created = cartSession.send("seed", cartSession.post("/shopping-carts", items.toString())).join();
+            carts.add(created.headers().firstValue("Location").orElseThrow());
+        }
+        return new Catalog(productIds, productNames, carts);
+    }
+}
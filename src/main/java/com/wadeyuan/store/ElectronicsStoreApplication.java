@@ -2,8 +2,10 @@ package com.wadeyuan.store;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class ElectronicsStoreApplication {
 
 	public static void main(String[] args) {
@@ -0,0 +1,60 @@
+package com.wadeyuan.store.admission;
+
+/*
+    Concurrency limit that adapts to the latency it observes (AIMD). While requests finish within the latency threshold and
+    the limit is actually used, it grows by about one per limit's worth of requests. A request slower than the threshold,
+    or failing with a server error, cuts the limit by the backoff ratio, at most once per threshold so one slow burst
+    doesn't collapse it. The limit stays between min and max.
+ */
+public class AdaptiveLimiter {
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyThresholdNanos;
+    private final double backoffRatio;
+    // Guarded by this, every call is a few arithmetic operations
+    private double limit;
+    private int inFlight;
+    private long lastDecrease;
+
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit, long latencyThresholdNanos, double backoffRatio) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.latencyThresholdNanos = latencyThresholdNanos;
+        this.backoffRatio = backoffRatio;
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.lastDecrease = System.nanoTime() - latencyThresholdNanos;
+    }
+
+    // Takes a slot if fewer than share * limit requests are in flight, a share below 1 leaves the rest of the limit to higher lanes
+    public synchronized boolean tryAcquire(double share) {
+        if(inFlight >= Math.max(1, (int) (limit * share))) return false;
+        inFlight++;
+        return true;
+    }
+
+    public void release(long latencyNanos, boolean failed) {
+        release(latencyNanos, failed, System.nanoTime());
+    }
+
+    synchronized void release(long latencyNanos, boolean failed, long now) {
+        int used = inFlight;
+        inFlight--;
+        if(failed || latencyNanos > latencyThresholdNanos) {
+            if(now - lastDecrease >= latencyThresholdNanos) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+                lastDecrease = now;
+            }
+        } else if(used * 2 >= limit) {
+            // Only grows while at least half of it is in use, an idle limiter would otherwise drift to the maximum
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+}
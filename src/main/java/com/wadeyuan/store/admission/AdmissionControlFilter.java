@@ -0,0 +1,180 @@
+package com.wadeyuan.store.admission;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+    Sheds load before it reaches the connection pool. A request needs a slot in the bulkhead of its endpoint group and one in
+    the shared limit, both adaptive (see AdaptiveLimiter). A lane only gets its share of the shared limit, so as the database
+    slows down and the shared limit shrinks, bulk and standard requests are turned away while cart requests still get in.
+    Rejected requests are answered right away with 503 and Retry-After instead of queueing behind the ones already running.
+    Runs after the observation filter, so shed requests still show up in http.server.requests.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+@ConditionalOnProperty(name = "store.admission.enabled", havingValue = "true", matchIfMissing = true)
+public class AdmissionControlFilter extends OncePerRequestFilter {
+    private static final String PREFIX = "store.admission.";
+
+    private final Map<EndpointGroup, AdaptiveLimiter> bulkheads = new EnumMap<>(EndpointGroup.class);
+    private final Map<EndpointGroup, Counter> rejections = new EnumMap<>(EndpointGroup.class);
+    private final Map<Lane, Double> shares = new EnumMap<>(Lane.class);
+    private final AdaptiveLimiter shared;
+    private final String retryAfterSeconds;
+
+    public AdmissionControlFilter(Environment environment, MeterRegistry meterRegistry) {
+        this.shared = limiter(environment, "shared", 100, 1000, Duration.ofMillis(250));
+        register(meterRegistry, "shared", shared);
+        for (EndpointGroup group : EndpointGroup.values()) {
+            // A bulk request is slow by nature, only one far beyond the usual counts as a sign of trouble
+            AdaptiveLimiter bulkhead = group.getLane() == Lane.BULK
+                    ? limiter(environment, "groups." + group.key(), 4, 16, Duration.ofSeconds(30))
+                    : limiter(environment, "groups." + group.key(), 50, 500, Duration.ofMillis(250));
+            bulkheads.put(group, bulkhead);
+            register(meterRegistry, group.key(), bulkhead);
+            rejections.put(group, Counter.builder("store.admission.rejected")
+                    .description("Requests shed with 503 Service Unavailable")
+                    .tag("group", group.key())
+                    .tag("lane", group.getLane().name().toLowerCase())
+                    .register(meterRegistry));
+        }
+        shares.put(Lane.CRITICAL, 1.0);
+        shares.put(Lane.STANDARD, environment.getProperty(PREFIX + "lanes.standard", Double.class, 0.8));
+        shares.put(Lane.BULK, environment.getProperty(PREFIX + "lanes.bulk", Double.class, 0.5));
+        Duration retryAfter = environment.getProperty(PREFIX + "retry-after", Duration.class, Duration.ofSeconds(1));
+        this.retryAfterSeconds = Long.toString(Math.max(1, (retryAfter.toMillis() + 999) / 1000));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        EndpointGroup group = EndpointGroup.of(request.getMethod(), request.getRequestURI().substring(request.getContextPath().length()));
+        if(group == null) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        AdaptiveLimiter bulkhead = bulkheads.get(group);
+        if(!bulkhead.tryAcquire(1.0)) {
+            reject(group, response);
+            return;
+        }
+        if(!shared.tryAcquire(shares.get(group.getLane()))) {
+            // Never ran, so it says nothing about latency
+            bulkhead.release(0, false);
+            reject(group, response);
+            return;
+        }
+
+        long start = System.nanoTime();
+        boolean async = false;
+        boolean failed = true;
+        try {
+            filterChain.doFilter(request, response);
+            async = request.isAsyncStarted();
+            failed = false;
+        } finally {
+            if(async) {
+                // Streaming responses hold their slots until the last byte is written
+                request.getAsyncContext().addListener(new ReleasingListener(group, bulkhead));
+            } else {
+                release(group, bulkhead, System.nanoTime() - start, failed || response.getStatus() >= 500);
+            }
+        }
+    }
+
+    private void reject(EndpointGroup group, HttpServletResponse response) {
+        rejections.get(group).increment();
+        response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+        response.setHeader("Retry-After", retryAfterSeconds);
+    }
+
+    private void release(EndpointGroup group, AdaptiveLimiter bulkhead, long latency, boolean failed) {
+        bulkhead.release(latency, failed);
+        // Bulk requests are long by nature, their latency says nothing about how the database copes
+        shared.release(group.getLane() == Lane.BULK ? 0 : latency, failed);
+    }
+
+    // e.g. store.admission.groups.cart.max-limit
+    private static AdaptiveLimiter limiter(Environment environment, String name, int initialLimit, int maxLimit, Duration defaultLatencyThreshold) {
+        String prefix = PREFIX + name + ".";
+        Duration latencyThreshold = environment.getProperty(prefix + "latency-threshold", Duration.class, defaultLatencyThreshold);
+        return new AdaptiveLimiter(
+                environment.getProperty(prefix + "initial-limit", Integer.class, initialLimit),
+                environment.getProperty(prefix + "min-limit", Integer.class, 1),
+                environment.getProperty(prefix + "max-limit", Integer.class, maxLimit),
+                TimeUnit.NANOSECONDS.convert(latencyThreshold),
+                environment.getProperty(PREFIX + "backoff-ratio", Double.class, 0.9));
+    }
+
+    private static void register(MeterRegistry meterRegistry, String name, AdaptiveLimiter limiter) {
+        Gauge.builder("store.admission.limit", limiter, AdaptiveLimiter::getLimit)
+                .description("Current concurrency limit")
+                .tag("limiter", name)
+                .register(meterRegistry);
+        Gauge.builder("store.admission.in-flight", limiter, AdaptiveLimiter::getInFlight)
+                .description("Requests holding a slot")
+                .tag("limiter", name)
+                .register(meterRegistry);
+    }
+
+    // Releases the slots of an async request once it is done. Only a failure counts, how long a stream ran says nothing about latency
+    private class ReleasingListener implements AsyncListener {
+        private final EndpointGroup group;
+        private final AdaptiveLimiter bulkhead;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        ReleasingListener(EndpointGroup group, AdaptiveLimiter bulkhead) {
+            this.group = group;
+            this.bulkhead = bulkhead;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            releaseOnce(event);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            releaseOnce(event);
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            releaseOnce(event);
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // A new async cycle keeps the slots, the listener has to be added again for it
+            event.getAsyncContext().addListener(this);
+        }
+
+        private void releaseOnce(AsyncEvent event) {
+            if(!released.compareAndSet(false, true)) return;
+            boolean failed = event.getThrowable() != null
+                    || event.getSuppliedResponse() instanceof HttpServletResponse response && response.getStatus() >= 500;
+            release(group, bulkhead, 0, failed);
+        }
+    }
+}
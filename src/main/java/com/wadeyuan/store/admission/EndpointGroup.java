@@ -0,0 +1,41 @@
+package com.wadeyuan.store.admission;
+
+// Endpoints that share a bulkhead, each with the lane its requests queue in for the shared limit
+public enum EndpointGroup {
+    CART(Lane.CRITICAL),
+    PRICING(Lane.STANDARD),
+    CATALOG(Lane.STANDARD),
+    ADMIN(Lane.STANDARD),
+    BULK(Lane.BULK);
+
+    private final Lane lane;
+
+    EndpointGroup(Lane lane) {
+        this.lane = lane;
+    }
+
+    public Lane getLane() {
+        return lane;
+    }
+
+    // Property and tag name, e.g. store.admission.groups.cart
+    public String key() {
+        return name().toLowerCase();
+    }
+
+    // Returns null for requests that are never shed, e.g. the actuator endpoints
+    public static EndpointGroup of(String method, String path) {
+        if(path.startsWith("/shopping-carts")) {
+            if(path.equals("/shopping-carts/pricing")) return BULK;
+            if(path.equals("/shopping-carts/quote")) return PRICING;
+            // Every view and change of a cart, the calculation included
+            return CART;
+        }
+        if(path.startsWith("/products")) {
+            if(path.startsWith("/products/stream") || path.startsWith("/products/import")) return BULK;
+            return method.equals("GET") ? CATALOG : ADMIN;
+        }
+        if(path.startsWith("/discounts")) return ADMIN;
+        return null;
+    }
+}
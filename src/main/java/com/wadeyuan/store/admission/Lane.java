@@ -0,0 +1,10 @@
+package com.wadeyuan.store.admission;
+
+// How much of the shared limit requests of a lane may take, lower lanes are shed first as the shared limit shrinks
+public enum Lane {
+    // Cart views and changes, what a shopper on the way to checkout is waiting for
+    CRITICAL,
+    STANDARD,
+    // Streams, imports and bulk pricing, long requests that can wait
+    BULK
+}
@@ -0,0 +1,7 @@
+package com.wadeyuan.store.constants;
+
+public enum CartOperationType {
+    ADD,
+    REMOVE,
+    SET
+}
@@ -0,0 +1,82 @@
+package com.wadeyuan.store.controller;
+
+import com.wadeyuan.store.domain.Product;
+import com.wadeyuan.store.repository.CartLineView;
+
+import java.util.List;
+import java.util.Objects;
+
+/*
+    Strong entity tags computed from the content that ends up in a response, hashed with 64-bit FNV-1a.
+    Cheap enough to compute before deciding whether the response needs to be serialized at all.
+ */
+final class ETags {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private long hash = FNV_OFFSET_BASIS;
+
+    private ETags() {}
+
+    static String of(Product product) {
+        return new ETags().add(product).toString();
+    }
+
+    static String of(List<CartLineView> cart) {
+        return new ETags().add(cart).toString();
+    }
+
+    // A calculation changes with the cart (which includes product prices), with the active discount rules and with the stored
+    // totals: a price or rule change committed before the cart is flagged stale must not leave a tag that outlives the repricing
+    static String of(List<CartLineView> cart, long discountRulesFingerprint) {
+        CartLineView first = cart.get(0);
+        return new ETags().add(cart)
+                .add(discountRulesFingerprint)
+                .add(first.stale() ? 1 : 0)
+                .add(first.totalAmount())
+                .add(first.discountAmount())
+                .toString();
+    }
+
+    // The version is in every cart response, and bumped by every write of the cart
+    private ETags add(List<CartLineView> cart) {
+        add(cart.get(0).cartId()).add(cart.get(0).version());
+        for (CartLineView line : cart) {
+            if(!line.hasItem()) continue;
+            add(line.itemId()).add(line.quantity()).add(line.productId()).add(line.productName()).add(Objects.toString(line.unitPrice()));
+        }
+        return this;
+    }
+
+    private ETags add(Product product) {
+        return add(product.getId())
+                .add(product.getName())
+                .add(Objects.toString(product.getPrice()))
+                .add(Objects.toString(product.getCreatedTimestamp()));
+    }
+
+    private ETags add(long value) {
+        for (int i = 0; i < Long.BYTES; i++) {
+            hash = (hash ^ (value & 0xff)) * FNV_PRIME;
+            value >>>= 8;
+        }
+        return this;
+    }
+
+    private ETags add(String value) {
+        if (value == null) return add(-1L);
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        // Terminate the string so that adjacent fields can't run into each other
+        return add(value.length());
+    }
+
+    @Override
+    public String toString() {
+        return '"' + Long.toHexString(hash) + '"';
+    }
+}
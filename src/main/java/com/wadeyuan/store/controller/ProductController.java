@@ -1,22 +1,56 @@
 package com.wadeyuan.store.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.wadeyuan.store.domain.Product;
+import com.wadeyuan.store.dto.ProductImportDTO;
 import com.wadeyuan.store.repository.ProductRepository;
+import com.wadeyuan.store.service.CatalogService;
+import com.wadeyuan.store.service.ProductImportService;
+import jakarta.persistence.EntityManager;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.time.LocalDateTime;
+import java.util.Iterator;
 import java.util.List;
+import java.util.stream.Stream;
 
 @RestController
 @RequestMapping(value = "/products")
 public class ProductController {
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int STREAM_FLUSH_INTERVAL = 500;
+
     private final ProductRepository productRepository;
+    private final ProductImportService productImportService;
+    private final CatalogService catalogService;
+    private final EntityManager entityManager;
+    private final ObjectWriter productWriter;
+    private final TransactionTemplate readOnlyTransaction;
 
-    public ProductController(ProductRepository productRepository) {
+    public ProductController(ProductRepository productRepository, ProductImportService productImportService, CatalogService catalogService,
+                             EntityManager entityManager, ObjectMapper objectMapper, PlatformTransactionManager transactionManager) {
         this.productRepository = productRepository;
+        this.productImportService = productImportService;
+        this.catalogService = catalogService;
+        this.entityManager = entityManager;
+        this.productWriter = objectMapper.writerFor(Product.class);
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
     }
 
     @PostMapping
@@ -30,16 +64,87 @@ public class ProductController {
         return ResponseEntity.created(location).body(createdProduct);
     }
 
+    // The body is read line by line as it arrives, rows failing validation are reported back instead of failing the import
+    @PostMapping(value = "/import", consumes = "text/csv")
+    public ResponseEntity<ProductImportDTO> importProductsFromCsv(InputStream body) throws IOException {
+        try {
+            return ResponseEntity.ok(productImportService.importCsv(body));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @PostMapping(value = "/import", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<ProductImportDTO> importProductsFromNdjson(InputStream body) throws IOException {
+        return ResponseEntity.ok(productImportService.importNdjson(body));
+    }
+
     @GetMapping(value = "/{productId}")
-    public ResponseEntity<Product> getProduct(@PathVariable Long productId) {
-        if(!productRepository.existsById(productId)) return ResponseEntity.notFound().build();
+    public ResponseEntity<Product> getProduct(@PathVariable Long productId, WebRequest request) {
+        Product product = productRepository.findById(productId).orElse(null);
+        if(product == null) return ResponseEntity.notFound().build();
+        // Answers 304 Not Modified when the client already holds this version, skipping serialization
+        if(request.checkNotModified(ETags.of(product))) return null;
 
-        return ResponseEntity.ok().body(productRepository.findById(productId).get());
+        return ResponseEntity.ok().body(product);
     }
 
     @GetMapping
-    public ResponseEntity<List<Product>> listProducts() {
-        return ResponseEntity.ok(productRepository.findAll());
+    public ResponseEntity<List<Product>> listProducts(@RequestParam(defaultValue = "id") String sort,
+                                                      @RequestParam(required = false) Long afterId,
+                                                      @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime afterTimestamp,
+                                                      @RequestParam(defaultValue = "100") int limit) {
+        PageRequest page = PageRequest.ofSize(Math.max(1, Math.min(limit, MAX_PAGE_SIZE)));
+        List<Product> products;
+        switch (sort) {
+            case "id" -> products = productRepository.findByIdGreaterThanOrderByIdAsc(afterId == null ? 0 : afterId, page);
+            case "createdTimestamp" -> {
+                // The cursor is the (createdTimestamp, id) pair of the last product, ids break ties between equal timestamps
+                if(afterTimestamp == null) {
+                    products = productRepository.findFirstPageOrderByCreatedTimestamp(page);
+                } else {
+                    products = productRepository.findPageAfterCreatedTimestamp(afterTimestamp, afterId == null ? 0 : afterId, page);
+                }
+            }
+            default -> {
+                return ResponseEntity.badRequest().build();
+            }
+        }
+        if(products.size() < page.getPageSize()) return ResponseEntity.ok(products);
+
+        // A full page may have a successor, point to it with a Link header so the body stays a plain list
+        Product last = products.get(products.size() - 1);
+        ServletUriComponentsBuilder next = ServletUriComponentsBuilder.fromCurrentRequest()
+                .replaceQueryParam("sort", sort)
+                .replaceQueryParam("limit", page.getPageSize())
+                .replaceQueryParam("afterId", last.getId())
+                .replaceQueryParam("afterTimestamp");
+        if(sort.equals("createdTimestamp")) next.replaceQueryParam("afterTimestamp", last.getCreatedTimestamp());
+        return ResponseEntity.ok()
+                .header(HttpHeaders.LINK, "<" + next.toUriString() + ">; rel=\"next\"")
+                .body(products);
+    }
+
+    @GetMapping(value = "/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamProducts() {
+        // One JSON document per line, written while the cursor advances so memory stays flat regardless of catalog size
+        StreamingResponseBody body = outputStream -> readOnlyTransaction.executeWithoutResult(status -> {
+            try (Stream<Product> products = productRepository.streamAllOrderById()) {
+                int written = 0;
+                Iterator<Product> iterator = products.iterator();
+                while (iterator.hasNext()) {
+                    Product product = iterator.next();
+                    outputStream.write(productWriter.writeValueAsBytes(product));
+                    outputStream.write('\n');
+                    entityManager.detach(product);
+                    if(++written % STREAM_FLUSH_INTERVAL == 0) outputStream.flush();
+                }
+                outputStream.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
     }
 
     @DeleteMapping(value = "/{productId}")
@@ -52,10 +157,9 @@ public class ProductController {
 
     @PutMapping(value = "/{productId}")
     public ResponseEntity<Product> updateProduct(@PathVariable Long productId, @RequestBody Product product) {
-        if(!productRepository.existsById(productId)) return ResponseEntity.notFound().build();
+        Product updatedProduct = catalogService.updateProduct(productId, product).orElse(null);
+        if(updatedProduct == null) return ResponseEntity.notFound().build();
 
-        product.setId(productId);
-        Product updatedProduct = productRepository.save(product);
         return ResponseEntity.ok(updatedProduct);
     }
 }
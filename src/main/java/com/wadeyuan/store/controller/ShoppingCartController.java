@@ -1,155 +1,243 @@
 package com.wadeyuan.store.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.wadeyuan.store.constants.CartOperationType;
+import com.wadeyuan.store.datasource.ReadYourWrites;
 import com.wadeyuan.store.domain.CartItem;
-import com.wadeyuan.store.domain.Discount;
 import com.wadeyuan.store.domain.Product;
 import com.wadeyuan.store.domain.ShoppingCart;
+import com.wadeyuan.store.dto.CartDTO;
+import com.wadeyuan.store.dto.CartOperationDTO;
+import com.wadeyuan.store.dto.QuoteItemDTO;
 import com.wadeyuan.store.dto.ShoppingCartDTO;
-import com.wadeyuan.store.repository.DiscountRepository;
+import com.wadeyuan.store.pricing.CartPrice;
+import com.wadeyuan.store.pricing.DiscountRuleIndex;
+import com.wadeyuan.store.pricing.PricingEngine;
+import com.wadeyuan.store.repository.CartLineView;
 import com.wadeyuan.store.repository.ProductRepository;
 import com.wadeyuan.store.repository.ShoppingCartRepository;
+import com.wadeyuan.store.service.BulkPricingService;
+import com.wadeyuan.store.service.CartStore;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
-import java.math.BigDecimal;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping(value = "/shopping-carts")
 public class ShoppingCartController {
     private final ShoppingCartRepository shoppingCartRepository;
     private final ProductRepository productRepository;
-    private final DiscountRepository discountRepository;
-
-    public ShoppingCartController(ShoppingCartRepository shoppingCartRepository, ProductRepository productRepository, DiscountRepository discountRepository) {
+    private final CartStore cartStore;
+    private final DiscountRuleIndex discountRuleIndex;
+    private final BulkPricingService bulkPricingService;
+    private final PricingEngine pricingEngine;
+    private final ReadYourWrites readYourWrites;
+    private final ObjectWriter shoppingCartWriter;
+    private final TransactionTemplate readOnlyTransaction;
+
+    public ShoppingCartController(ShoppingCartRepository shoppingCartRepository, ProductRepository productRepository, CartStore cartStore,
+                                  DiscountRuleIndex discountRuleIndex, BulkPricingService bulkPricingService, PricingEngine pricingEngine, ReadYourWrites readYourWrites,
+                                  ObjectMapper objectMapper, PlatformTransactionManager transactionManager) {
         this.shoppingCartRepository = shoppingCartRepository;
         this.productRepository = productRepository;
-        this.discountRepository = discountRepository;
+        this.cartStore = cartStore;
+        this.discountRuleIndex = discountRuleIndex;
+        this.bulkPricingService = bulkPricingService;
+        this.pricingEngine = pricingEngine;
+        this.readYourWrites = readYourWrites;
+        this.shoppingCartWriter = objectMapper.writerFor(ShoppingCartDTO.class);
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
     }
 
     @PostMapping
-    public ResponseEntity<ShoppingCart> createShoppingCart(@RequestBody ShoppingCart shoppingCart) {
-        ShoppingCart createdShoppingCart = shoppingCartRepository.save(shoppingCart);
+    public ResponseEntity<CartDTO> createShoppingCart(@RequestBody ShoppingCart shoppingCart) {
+        List<CartItem> items = shoppingCart.getItems() == null ? List.of() : shoppingCart.getItems();
+        if(items.stream().anyMatch(item -> item == null || item.getProduct() == null || item.getQuantity() <= 0)) return ResponseEntity.badRequest().build();
+
+        // Lines may reference products by id only, resolve them with one query, any unknown product rejects the whole cart
+        Set<Long> productIds = items.stream().map(item -> item.getProduct().getId()).collect(Collectors.toSet());
+        Map<Long, Product> products = productRepository.findAllById(productIds).stream()
+                .collect(Collectors.toMap(Product::getId, Function.identity()));
+        if(products.size() != productIds.size()) return ResponseEntity.badRequest().build();
+
+        // Lines posted for the same product are merged into one, as adding the product twice would, a cart holds one line per product.
+        // The new cart is priced on its first calculation
+        ShoppingCart mergedShoppingCart = new ShoppingCart(0, new ArrayList<>());
+        for (CartItem item : items) {
+            mergedShoppingCart.addToCart(products.get(item.getProduct().getId()), item.getQuantity());
+        }
+        ShoppingCart createdShoppingCart = shoppingCartRepository.save(mergedShoppingCart);
+        readYourWrites.cartWritten(createdShoppingCart.getId());
         URI location = ServletUriComponentsBuilder.fromCurrentRequest()
                 .path("/{id}")
                 .buildAndExpand(createdShoppingCart.getId())
                 .toUri();
-        return ResponseEntity.created(location).body(createdShoppingCart);
+        // Read back, so lines posted with a product id only are answered with the product's name and price
+        return ResponseEntity.created(location).body(CartDTO.of(findLines(createdShoppingCart.getId())));
     }
 
     @GetMapping(value = "/{shoppingCartId}")
-    public ResponseEntity<ShoppingCart> getShoppingCart(@PathVariable Long shoppingCartId) {
-        if(!shoppingCartRepository.existsById(shoppingCartId)) return ResponseEntity.notFound().build();
+    public ResponseEntity<CartDTO> getShoppingCart(@PathVariable Long shoppingCartId, WebRequest request) {
+        // Reads plain columns, no entity is loaded for a view of the cart
+        List<CartLineView> lines = findLines(shoppingCartId);
+        if(lines.isEmpty()) return ResponseEntity.notFound().build();
+        if(request.checkNotModified(ETags.of(lines))) return null;
 
-        return ResponseEntity.ok(shoppingCartRepository.findById(shoppingCartId).get());
+        return ResponseEntity.ok(CartDTO.of(lines));
     }
 
     @PutMapping(value = "/{shoppingCartId}/add/{productId}")
-    public ResponseEntity<ShoppingCart> addToShoppingCart(@PathVariable Long shoppingCartId, @PathVariable Long productId, @RequestParam Integer quantity) {
-        if(!shoppingCartRepository.existsById(shoppingCartId)) return ResponseEntity.notFound().build();
-        if(!productRepository.existsById(productId)) return ResponseEntity.badRequest().build();
+    public ResponseEntity<CartDTO> addToShoppingCart(@PathVariable Long shoppingCartId, @PathVariable Long productId, @RequestParam Integer quantity) {
+        if(quantity <= 0) return ResponseEntity.badRequest().build();
 
-        ShoppingCart shoppingCart = shoppingCartRepository.findById(shoppingCartId).get();
-        Product product = productRepository.findById(productId).get();
+        Product product = productRepository.findById(productId).orElse(null);
+        if(product == null) return ResponseEntity.badRequest().build();
 
-        shoppingCart.addToCart(product, quantity);
-        return ResponseEntity.ok(shoppingCartRepository.save(shoppingCart));
+        return ResponseEntity.of(cartStore.update(shoppingCartId, shoppingCart -> shoppingCart.addToCart(product, quantity), CartDTO::of));
     }
 
     @PutMapping(value = "/{shoppingCartId}/remove/{productId}")
-    public ResponseEntity<ShoppingCart> removeFromShoppingCart(@PathVariable Long shoppingCartId, @PathVariable Long productId, @RequestParam Integer quantity) {
-        if(!shoppingCartRepository.existsById(shoppingCartId)) return ResponseEntity.notFound().build();
-        if(!productRepository.existsById(productId)) return ResponseEntity.badRequest().build();
+    public ResponseEntity<CartDTO> removeFromShoppingCart(@PathVariable Long shoppingCartId, @PathVariable Long productId, @RequestParam Integer quantity) {
+        if(quantity <= 0) return ResponseEntity.badRequest().build();
 
-        ShoppingCart shoppingCart = shoppingCartRepository.findById(shoppingCartId).get();
-        Product product = productRepository.findById(productId).get();
+        Product product = productRepository.findById(productId).orElse(null);
+        if(product == null) return ResponseEntity.badRequest().build();
 
-        shoppingCart.removeFromCart(product, quantity);
-        return ResponseEntity.ok(shoppingCartRepository.save(shoppingCart));
+        return ResponseEntity.of(cartStore.update(shoppingCartId, shoppingCart -> shoppingCart.removeFromCart(product, quantity), CartDTO::of));
     }
 
-    @PutMapping(value = "/{shoppingCartId}/clear")
-    public ResponseEntity<ShoppingCart> clearCart(@PathVariable Long shoppingCartId) {
-        if(!shoppingCartRepository.existsById(shoppingCartId)) return ResponseEntity.notFound().build();
+    @PutMapping(value = "/{shoppingCartId}/batch")
+    public ResponseEntity<ShoppingCartDTO> applyToShoppingCart(@PathVariable Long shoppingCartId, @RequestBody List<CartOperationDTO> operations, @RequestParam(defaultValue = "false") boolean calculate) {
+        if(!operations.stream().allMatch(ShoppingCartController::isValid)) return ResponseEntity.badRequest().build();
+
+        // Resolve every referenced product with one query, any unknown product rejects the whole batch
+        Set<Long> productIds = operations.stream().map(CartOperationDTO::getProductId).collect(Collectors.toSet());
+        Map<Long, Product> products = productRepository.findAllById(productIds).stream()
+                .collect(Collectors.toMap(Product::getId, Function.identity()));
+        if(products.size() != productIds.size()) return ResponseEntity.badRequest().build();
+
+        // All operations are applied and saved in one transaction, and replayed together if another writer got there first
+        return ResponseEntity.of(cartStore.update(shoppingCartId, shoppingCart -> {
+            for (CartOperationDTO operation : operations) {
+                Product product = products.get(operation.getProductId());
+                switch (operation.getOperation()) {
+                    case ADD -> shoppingCart.addToCart(product, operation.getQuantity());
+                    case REMOVE -> shoppingCart.removeFromCart(product, operation.getQuantity());
+                    case SET -> shoppingCart.updateQuantity(product, operation.getQuantity());
+                }
+            }
+        }, savedShoppingCart -> calculate ? ShoppingCartDTO.of(savedShoppingCart, storedPrice(savedShoppingCart)) : ShoppingCartDTO.of(savedShoppingCart)));
+    }
 
-        ShoppingCart shoppingCart = shoppingCartRepository.findById(shoppingCartId).get();
-        shoppingCart.getItems().clear();
-        return ResponseEntity.ok(shoppingCartRepository.save(shoppingCart));
+    @PutMapping(value = "/{shoppingCartId}/clear")
+    public ResponseEntity<CartDTO> clearCart(@PathVariable Long shoppingCartId) {
+        return ResponseEntity.of(cartStore.update(shoppingCartId, ShoppingCart::clearCart, CartDTO::of));
     }
 
     @DeleteMapping(value = "/{shoppingCartId}")
-    public ResponseEntity<ShoppingCart> deleteShoppingCart(@PathVariable Long shoppingCartId) {
-        if(!shoppingCartRepository.existsById(shoppingCartId)) return ResponseEntity.notFound().build();
+    public ResponseEntity<Void> deleteShoppingCart(@PathVariable Long shoppingCartId) {
+        if(!cartStore.delete(shoppingCartId)) return ResponseEntity.notFound().build();
 
-        shoppingCartRepository.deleteById(shoppingCartId);
         return ResponseEntity.ok().build();
     }
 
     @GetMapping(value = "/{shoppingCartId}/calculate")
-    public ResponseEntity<ShoppingCartDTO> viewCart(@PathVariable Long shoppingCartId) {
-        if(!shoppingCartRepository.existsById(shoppingCartId)) return ResponseEntity.notFound().build();
-
-        ShoppingCart cart = shoppingCartRepository.findById(shoppingCartId).get();
-        BigDecimal totalAmount = BigDecimal.ZERO; // Calculated by all cart items original price
-        BigDecimal discountAmount = BigDecimal.ZERO; // Calculated by all cart items discount (if any)
-
-        for (CartItem item : cart.getItems()) {
-            Product product = item.getProduct();
+    public ResponseEntity<ShoppingCartDTO> viewCart(@PathVariable Long shoppingCartId, WebRequest request) {
+        List<CartLineView> lines = findLines(shoppingCartId);
+        if(lines.isEmpty()) return ResponseEntity.notFound().build();
+        // The tag covers cart contents, product prices and the active discount rules, so a match skips pricing as well
+        if(request.checkNotModified(ETags.of(lines, discountRuleIndex.getFingerprint()))) return null;
+        // Totals are kept up to date by every change of the cart, only a price or discount change since then needs pricing here.
+        // That pricing is for the response only, the stored totals are brought up to date by the next change of the cart
+        if(lines.get(0).stale()) return ResponseEntity.of(priceStaleCart(shoppingCartId));
+
+        return ResponseEntity.ok(ShoppingCartDTO.of(lines));
+    }
 
-            // Accumulate to the total amount of the entire cart
-            BigDecimal cartItemAmount = product.getPrice().multiply(BigDecimal.valueOf(item.getQuantity())); // Amount of current cart item
-            totalAmount = totalAmount.add(cartItemAmount);
+    @PostMapping(value = "/pricing", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> priceShoppingCarts(@RequestBody List<Long> shoppingCartIds) {
+        if(shoppingCartIds.contains(null)) return ResponseEntity.badRequest().build();
+        List<Long> distinctIds = new ArrayList<>(new LinkedHashSet<>(shoppingCartIds));
+        if(distinctIds.size() > BulkPricingService.MAX_CARTS) return ResponseEntity.badRequest().build();
+
+        // One priced cart per line, each chunk is flushed as soon as it is priced
+        StreamingResponseBody body = outputStream -> bulkPricingService.price(distinctIds, pricedCarts -> {
+            for (ShoppingCartDTO pricedCart : pricedCarts) {
+                outputStream.write(shoppingCartWriter.writeValueAsBytes(pricedCart));
+                outputStream.write('\n');
+            }
+            outputStream.flush();
+        });
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
 
-            // Accumulate to the total discount amount of the entire cart, additional comparison to the cartItemAmount, because the discount of one item shouldn't exceed its amount
-            BigDecimal cartItemDiscount = calculateDiscountOfCartItem(item, cart);
-            discountAmount = discountAmount.add(cartItemDiscount.min(cartItemAmount));
+    // Prices the items as if they were in a cart, without creating one. Read-only, so Hibernate never flushes anything for it
+    @PostMapping(value = "/quote")
+    @Transactional(readOnly = true)
+    public ResponseEntity<ShoppingCartDTO> quote(@RequestBody List<QuoteItemDTO> items) {
+        if(items.stream().anyMatch(item -> item == null || item.getQuantity() <= 0)) return ResponseEntity.badRequest().build();
+
+        // Resolve every quoted product with one query, any unknown product rejects the whole quote
+        Set<Long> productIds = items.stream().map(QuoteItemDTO::getProductId).collect(Collectors.toSet());
+        Map<Long, Product> products = productRepository.findAllById(productIds).stream()
+                .collect(Collectors.toMap(Product::getId, Function.identity()));
+        if(products.size() != productIds.size()) return ResponseEntity.badRequest().build();
+
+        // A transient cart, never persisted, so the same product quoted twice ends up in one line just like in a real cart
+        ShoppingCart cart = new ShoppingCart(0, new ArrayList<>());
+        for (QuoteItemDTO item : items) {
+            cart.addToCart(products.get(item.getProductId()), item.getQuantity());
         }
-
-        ShoppingCartDTO dto = new ShoppingCartDTO(cart.getId(), cart.getItems());
-        dto.setTotalAmount(totalAmount);
-        dto.setDiscountAmount(discountAmount);
-        dto.setFinalAmount(totalAmount.subtract(discountAmount));
-
-        return ResponseEntity.ok(dto);
+        return ResponseEntity.ok(ShoppingCartDTO.of(cart, pricingEngine.price(cart, discountRuleIndex)));
     }
 
-    private BigDecimal calculateDiscountOfCartItem(CartItem item, ShoppingCart cart) {
-        // Find all discounts that are applied to the current product
-        List<Discount> discounts = discountRepository.findDiscountsByTargetProductAndEnabledIsTrue(item.getProduct());
-
-        return discounts.stream()
-                .map(discount -> calculateDiscountAmountFromDiscountRule(item, cart, discount)) // Calculate the amount of each discount rule applied to current item
-                .max(BigDecimal::compareTo) // We choose the maximum discount for the item
-                .orElse(BigDecimal.ZERO); // If nothing find, return zero
+    // Every retry lost the race against other writers of the same cart, on its version or on its one line per product
+    @ExceptionHandler(ConcurrencyFailureException.class)
+    public ResponseEntity<Void> handleConflict() {
+        return ResponseEntity.status(HttpStatus.CONFLICT).build();
     }
 
-    private BigDecimal calculateDiscountAmountFromDiscountRule(CartItem item, ShoppingCart cart, Discount discount) {
-        Product product = item.getProduct();
-        Product requiredProductInCart = discount.getRequiredProduct();
-        BigDecimal discountAmount = BigDecimal.ZERO;
+    // Adding or removing nothing is a mistake of the client, setting a quantity of zero removes the line
+    private static boolean isValid(CartOperationDTO operation) {
+        if(operation == null || operation.getOperation() == null) return false;
+        return operation.getOperation() == CartOperationType.SET ? operation.getQuantity() >= 0 : operation.getQuantity() > 0;
+    }
 
-        int discountableProductQuantity; // To calculate the number of discountable products in current cart item
-        int requiredQuantity = discount.getRequiredQuantity();
-        if (!requiredProductInCart.equals(product)) {
-            // If the discount rule requires some other products in cart, we'll check whether there are sufficient number of required product to apply discount
-            CartItem requiredItem = cart.getCarItemByProduct(requiredProductInCart);
-            if(requiredItem == null || requiredItem.getQuantity() < requiredQuantity) return discountAmount;
+    // A cart held in memory by the cart store may be ahead of the database, and the replica may be behind the primary
+    private List<CartLineView> findLines(long shoppingCartId) {
+        return cartStore.viewResident(shoppingCartId, CartLineView::of)
+                .orElseGet(() -> readYourWrites.readCart(shoppingCartId, () -> shoppingCartRepository.findLinesById(shoppingCartId)));
+    }
 
-            discountableProductQuantity = item.getQuantity();
-        } else {
-            // If the discount rule requires the same product (typically by x and the remaining y can get z% off), we'll calculate the discountable products
-            if(item.getQuantity() <= requiredQuantity) return discountAmount;
+    private Optional<ShoppingCartDTO> priceStaleCart(long shoppingCartId) {
+        Optional<ShoppingCartDTO> resident = cartStore.viewResident(shoppingCartId, cart -> ShoppingCartDTO.of(cart, pricingEngine.price(cart, discountRuleIndex)));
+        if(resident.isPresent()) return resident;
 
-            discountableProductQuantity = item.getQuantity() - requiredQuantity;
-        }
-        // Calculate the discount amount
-        switch (discount.getDiscountType()) {
-            case AMOUNT -> discountAmount = discount.getDiscountValue();
-            case PERCENTAGE -> discountAmount = discount.getDiscountValue().multiply(BigDecimal.valueOf(discountableProductQuantity)).multiply(product.getPrice()).divide(BigDecimal.valueOf(100));
-        }
+        return readYourWrites.readCart(shoppingCartId, () -> readOnlyTransaction.execute(status -> shoppingCartRepository.findWithItemsById(shoppingCartId)
+                .map(cart -> ShoppingCartDTO.of(cart, pricingEngine.price(cart, discountRuleIndex)))));
+    }
 
-        return discountAmount;
+    private CartPrice storedPrice(ShoppingCart cart) {
+        return new CartPrice(cart.getTotalAmount(), cart.getDiscountAmount());
     }
 }
@@ -0,0 +1,52 @@
+package com.wadeyuan.store.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.flywaydb.core.Flyway;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+
+/*
+    Replaces the single datasource with a pool per database: spring.datasource.* for the primary, store.datasource.replica.* for the replica.
+    JPA, Flyway, JdbcTemplate and the rest see only the routing datasource, which picks the pool per transaction.
+ */
+@Configuration
+@ConditionalOnProperty(name = "store.datasource.replica.enabled", havingValue = "true")
+public class ReadWriteDataSourceConfiguration {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean
+    @ConfigurationProperties("store.datasource.replica.hikari")
+    public HikariDataSource replicaDataSource(@Value("${store.datasource.replica.url}") String url,
+                                              @Value("${store.datasource.replica.username:sa}") String username,
+                                              @Value("${store.datasource.replica.password:}") String password,
+                                              @Value("${store.datasource.replica.migrate:false}") boolean migrate) {
+        HikariDataSource replica = DataSourceBuilder.create().type(HikariDataSource.class).url(url).username(username).password(password).build();
+        // A local stand-in has no replication to bring the schema over, a real replica gets it from the primary
+        if(migrate) Flyway.configure().dataSource(replica).load().migrate();
+        return replica;
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(@Qualifier("primaryDataSource") DataSource primaryDataSource, @Qualifier("replicaDataSource") DataSource replicaDataSource, MeterRegistry meterRegistry) {
+        ReadWriteRoutingDataSource routingDataSource = new ReadWriteRoutingDataSource(primaryDataSource, replicaDataSource, meterRegistry);
+        routingDataSource.afterPropertiesSet();
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+}
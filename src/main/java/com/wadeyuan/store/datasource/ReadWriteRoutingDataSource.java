@@ -0,0 +1,59 @@
+package com.wadeyuan.store.datasource;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/*
+    Hands out replica connections to read-only transactions and primary connections to everything else,
+    including work outside a transaction. Has to sit behind a LazyConnectionDataSourceProxy: the transaction's
+    read-only flag is only set once the transaction has begun, so the connection must not be fetched before the first statement.
+ */
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource {
+    public enum Route { PRIMARY, REPLICA }
+
+    private static final ThreadLocal<Boolean> PRIMARY_ONLY = ThreadLocal.withInitial(() -> false);
+
+    private final Counter primaryConnections;
+    private final Counter replicaConnections;
+
+    public ReadWriteRoutingDataSource(DataSource primary, DataSource replica, MeterRegistry meterRegistry) {
+        setTargetDataSources(Map.of(Route.PRIMARY, primary, Route.REPLICA, replica));
+        setDefaultTargetDataSource(primary);
+        this.primaryConnections = connections(meterRegistry, Route.PRIMARY);
+        this.replicaConnections = connections(meterRegistry, Route.REPLICA);
+    }
+
+    // Runs the work on the primary even in a read-only transaction, for reads that must see a write the replica may not have yet
+    public static <T> T onPrimary(Supplier<T> work) {
+        boolean previous = PRIMARY_ONLY.get();
+        PRIMARY_ONLY.set(true);
+        try {
+            return work.get();
+        } finally {
+            PRIMARY_ONLY.set(previous);
+        }
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if(!PRIMARY_ONLY.get() && TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            replicaConnections.increment();
+            return Route.REPLICA;
+        }
+        primaryConnections.increment();
+        return Route.PRIMARY;
+    }
+
+    private static Counter connections(MeterRegistry meterRegistry, Route route) {
+        return Counter.builder("store.datasource.connections")
+                .description("Connections handed out by the read/write routing")
+                .tag("route", route.name().toLowerCase())
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,48 @@
+package com.wadeyuan.store.datasource;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/*
+    Remembers the carts this node wrote lately, reads of them go to the primary until the replica has surely caught up.
+    The window has to cover the replication lag. Only writes made through this node are known, so a client bouncing
+    between nodes needs sticky sessions to read its own writes.
+ */
+@Component
+public class ReadYourWrites {
+    // Expired entries are only looked at when the map has grown past this, a busy node rewrites most of its carts within the window anyway
+    private static final int PURGE_THRESHOLD = 10_000;
+
+    private final boolean enabled;
+    private final long windowNanos;
+    private final Map<Long, Long> writtenCarts = new ConcurrentHashMap<>();
+
+    public ReadYourWrites(@Value("${store.datasource.replica.enabled:false}") boolean enabled,
+                          @Value("${store.datasource.replica.read-your-writes-window:5s}") Duration window) {
+        this.enabled = enabled;
+        this.windowNanos = window.toNanos();
+    }
+
+    // Call once the write is committed
+    public void cartWritten(long shoppingCartId) {
+        if(!enabled) return;
+        long now = System.nanoTime();
+        writtenCarts.put(shoppingCartId, now + windowNanos);
+        if(writtenCarts.size() > PURGE_THRESHOLD) writtenCarts.values().removeIf(deadline -> deadline - now < 0);
+    }
+
+    public <T> T readCart(long shoppingCartId, Supplier<T> read) {
+        Long deadline = writtenCarts.get(shoppingCartId);
+        if(deadline == null) return read.get();
+        if(deadline - System.nanoTime() < 0) {
+            writtenCarts.remove(shoppingCartId, deadline);
+            return read.get();
+        }
+        return ReadWriteRoutingDataSource.onPrimary(read);
+    }
+}
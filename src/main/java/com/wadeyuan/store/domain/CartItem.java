@@ -1,17 +1,30 @@
 package com.wadeyuan.store.domain;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import java.util.Objects;
 
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = CartItem.CACHE_REGION)
 public class CartItem {
+    // The cached ShoppingCart.items collection only holds item ids, the items themselves come from this region
+    public static final String CACHE_REGION = "cart-item";
+
     @Id
     @GeneratedValue(strategy = GenerationType.AUTO)
     private long id;
     @ManyToOne
     private Product product;
     private int quantity;
+    // Price and discount of the whole line in micros, as of the last repricing of the cart
+    @JsonIgnore
+    private long lineAmount;
+    @JsonIgnore
+    private long discountAmount;
 
     public CartItem() {}
 
@@ -21,6 +34,14 @@ public class CartItem {
         this.quantity = quantity;
     }
 
+    // A copy to change without touching this item, sharing the product
+    public CartItem copy() {
+        CartItem copy = new CartItem(id, product, quantity);
+        copy.lineAmount = lineAmount;
+        copy.discountAmount = discountAmount;
+        return copy;
+    }
+
     public long getId() {
         return id;
     }
@@ -45,6 +66,22 @@ public class CartItem {
         this.quantity = quantity;
     }
 
+    public long getLineAmount() {
+        return lineAmount;
+    }
+
+    public void setLineAmount(long lineAmount) {
+        this.lineAmount = lineAmount;
+    }
+
+    public long getDiscountAmount() {
+        return discountAmount;
+    }
+
+    public void setDiscountAmount(long discountAmount) {
+        this.discountAmount = discountAmount;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
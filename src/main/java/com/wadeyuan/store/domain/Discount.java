@@ -3,12 +3,19 @@ package com.wadeyuan.store.domain;
 import com.wadeyuan.store.constants.DiscountType;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.Min;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import java.math.BigDecimal;
 import java.util.Objects;
 
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = Discount.CACHE_REGION)
 public class Discount {
+    // Second-level cache region, sized in application.conf
+    public static final String CACHE_REGION = "discount";
+
     @Id
     @GeneratedValue(strategy = GenerationType.AUTO)
     private long id;
@@ -1,24 +1,46 @@
 package com.wadeyuan.store.domain;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.wadeyuan.store.pricing.Money;
+import jakarta.persistence.Cacheable;
+import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Transient;
 import jakarta.validation.constraints.NotBlank;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
-import java.util.Objects;
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = Product.CACHE_REGION)
 public class Product {
+    // Spelled out because the bulk import allocates ids from the same pooled sequence (see ProductImportService)
+    public static final String ID_SEQUENCE = "product_seq";
+    public static final int ID_ALLOCATION_SIZE = 50;
+    // Second-level cache region, sized in application.conf
+    public static final String CACHE_REGION = "product";
+
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = ID_SEQUENCE)
+    @SequenceGenerator(name = ID_SEQUENCE, sequenceName = ID_SEQUENCE, allocationSize = ID_ALLOCATION_SIZE)
     private long id;
     @NotBlank(message = "Name is mandatory")
     private String name;
     private BigDecimal price;
+    // Part of the keyset cursor of the product listing, so it can't be null (see V3 of the migrations)
+    @Column(nullable = false)
     private LocalDateTime createdTimestamp;
+    // The price in micros, converted once per loaded product rather than for every cart line priced with it.
+    // Kept with the price it was converted from, so a price set behind the setter's back (e.g. by a merge) is converted again
+    @Transient
+    private volatile PriceMicros priceMicros;
 
     public Product() {}
 
@@ -53,6 +75,16 @@ public class Product {
         this.price = price;
     }
 
+    @JsonIgnore
+    public long getPriceMicros() {
+        PriceMicros current = priceMicros;
+        if(current == null || current.price() != price) {
+            current = new PriceMicros(price, Money.toMicros(price));
+            priceMicros = current;
+        }
+        return current.micros();
+    }
+
     @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
     public LocalDateTime getCreatedTimestamp() {
         return createdTimestamp;
@@ -67,12 +99,13 @@ public class Product {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Product product = (Product) o;
-        return id == product.id && price.equals(product.price) && name.equals(product.name) && Objects.equals(createdTimestamp, product.createdTimestamp);
+        // Identity is the id alone, so lookups don't compare prices and names and a price change keeps the same product
+        return id == product.id;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(id, name, price, createdTimestamp);
+        return Long.hashCode(id);
     }
 
     @Override
@@ -84,4 +117,6 @@ public class Product {
                 ", createdTimestamp=" + createdTimestamp +
                 '}';
     }
+
+    private record PriceMicros(BigDecimal price, long micros) {}
 }
@@ -1,23 +1,88 @@
 package com.wadeyuan.store.domain;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.OptimisticLock;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 @Entity
 public class ShoppingCart {
+    // Second-level cache region of the items collection, sized in application.conf
+    public static final String ITEMS_CACHE_REGION = "cart-items";
+
     @Id
     @GeneratedValue(strategy = GenerationType.AUTO)
     private long id;
+    // Bumped once by every mutation (see ShoppingCartService), item changes included, so concurrent writers can't silently overwrite each other
+    @Version
+    private long version;
+    // Items point at their cart with a foreign key, no join table. Not updatable since items never move to another cart:
+    // the key is written with the item's insert and no extra statement maintains it
     @OneToMany(cascade = CascadeType.ALL, orphanRemoval = true)
+    @JoinColumn(name = "shopping_cart_id", nullable = false, updatable = false)
+    @OptimisticLock(excluded = true)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = ITEMS_CACHE_REGION)
     List<CartItem> items;
+    // Items keyed by product id, rebuilt lazily whenever the items list is replaced or changed behind our back (e.g. on load)
+    @Transient
+    private Map<Long, CartItem> itemsByProductId;
+    @Transient
+    private List<CartItem> indexedItems;
+    // Running totals in micros, brought up to date by PricingEngine.reprice after every mutation so that /calculate only reads them
+    @JsonIgnore
+    private long totalAmount;
+    @JsonIgnore
+    private long discountAmount;
+    // Set when a price or a discount rule the totals depend on has changed, the next repricing then starts from scratch
+    @JsonIgnore
+    private boolean stale;
+    // Set on creation and by every mutation, carts left alone past the TTL are deleted by CartReaper
+    @JsonIgnore
+    private LocalDateTime lastModified;
+    // Products whose lines changed since the last repricing
+    @JsonIgnore
+    @Transient
+    private Set<Long> changedProductIds = new HashSet<>();
+    // Items removed since the cart was loaded. Adding their product again brings the same row back, since a new row for the
+    // product would be inserted before the old one is deleted and break the unique (cart, product) constraint
+    @Transient
+    private Map<Long, CartItem> removedItems = new HashMap<>();
 
     public ShoppingCart() {}
 
     public ShoppingCart(long id, List<CartItem> items) {
         this.id = id;
         this.items = items;
+        this.stale = items != null && !items.isEmpty();
+    }
+
+    // A copy to change without touching this cart, sharing only the products. Keeps the ids and the version of the cart
+    // and its items, so it can be merged in its place
+    public ShoppingCart copy() {
+        ShoppingCart copy = new ShoppingCart();
+        copy.id = id;
+        copy.version = version;
+        copy.items = new ArrayList<>(items.size());
+        for (CartItem item : items) {
+            copy.items.add(item.copy());
+        }
+        copy.totalAmount = totalAmount;
+        copy.discountAmount = discountAmount;
+        copy.stale = stale;
+        copy.lastModified = lastModified;
+        copy.changedProductIds.addAll(changedProductIds);
+        removedItems.forEach((productId, item) -> copy.removedItems.put(productId, item.copy()));
+        return copy;
     }
 
     public long getId() {
@@ -28,42 +93,162 @@ public class ShoppingCart {
         this.id = id;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     public List<CartItem> getItems() {
         return items;
     }
 
     public void setItems(List<CartItem> items) {
         this.items = items;
+        this.itemsByProductId = null;
+        this.stale = items != null && !items.isEmpty();
+    }
+
+    public long getTotalAmount() {
+        return totalAmount;
+    }
+
+    public void setTotalAmount(long totalAmount) {
+        this.totalAmount = totalAmount;
+    }
+
+    public long getDiscountAmount() {
+        return discountAmount;
+    }
+
+    public void setDiscountAmount(long discountAmount) {
+        this.discountAmount = discountAmount;
+    }
+
+    public boolean isStale() {
+        return stale;
+    }
+
+    public void setStale(boolean stale) {
+        this.stale = stale;
+    }
+
+    public LocalDateTime getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(LocalDateTime lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public Set<Long> getChangedProductIds() {
+        return changedProductIds;
     }
 
     public void addToCart(Product product, int quantity) {
+        changedProductIds.add(product.getId());
         CartItem cartItem = getCarItemByProduct(product);
         if(cartItem != null) {
             cartItem.setQuantity(cartItem.getQuantity() + quantity);
             return;
         }
-        cartItem = new CartItem();
+        cartItem = removedItems.remove(product.getId());
+        if(cartItem == null) {
+            cartItem = new CartItem();
+        } else {
+            // Its old share was taken off the totals on removal
+            cartItem.setLineAmount(0);
+            cartItem.setDiscountAmount(0);
+        }
         cartItem.setProduct(product);
         cartItem.setQuantity(quantity);
+        Map<Long, CartItem> index = itemIndex();
         items.add(cartItem);
+        index.put(product.getId(), cartItem);
     }
 
     public void removeFromCart(Product product, int quantity) {
         CartItem cartItem = getCarItemByProduct(product);
         if(cartItem == null) return;
 
+        changedProductIds.add(product.getId());
         int newQuantity = cartItem.getQuantity() - quantity;
         if(newQuantity <= 0) {
-            items.remove(cartItem);
+            removeItem(cartItem);
         } else {
             cartItem.setQuantity(newQuantity);
         }
     }
 
+    // Zero removes the line, and doesn't add one for a product the cart doesn't hold
+    public void updateQuantity(Product product, int quantity) {
+        CartItem cartItem = getCarItemByProduct(product);
+        int currentQuantity = cartItem == null ? 0 : cartItem.getQuantity();
+        if(quantity <= 0) {
+            if(cartItem != null) removeFromCart(product, currentQuantity);
+        } else if(quantity > currentQuantity) {
+            addToCart(product, quantity - currentQuantity);
+        } else if(quantity < currentQuantity) {
+            removeFromCart(product, currentQuantity - quantity);
+        }
+    }
+
+    public void clearCart() {
+        for (CartItem item : items) {
+            removedItems.put(item.getProduct().getId(), item);
+        }
+        itemIndex().clear();
+        items.clear();
+        // Nothing left to depend on a price or a discount rule, so even a stale cart is exact again
+        totalAmount = 0;
+        discountAmount = 0;
+        stale = false;
+        changedProductIds.clear();
+    }
+
     public CartItem getCarItemByProduct(Product product) {
-        return items.stream().filter(item -> item.getProduct().equals(product))
-                .findFirst()
-                .orElse(null);
+        return getCartItemByProductId(product.getId());
+    }
+
+    public CartItem getCartItemByProductId(long productId) {
+        return itemIndex().get(productId);
+    }
+
+    private void removeItem(CartItem cartItem) {
+        Map<Long, CartItem> index = itemIndex();
+        // Match by identity, CartItem.equals compares every field and new items share the same id
+        for (int i = 0; i < items.size(); i++) {
+            if(items.get(i) == cartItem) {
+                items.remove(i);
+                break;
+            }
+        }
+        index.remove(cartItem.getProduct().getId());
+        removedItems.put(cartItem.getProduct().getId(), cartItem);
+        // The line takes its share of the totals with it, lines depending on it are repriced through changedProductIds
+        totalAmount -= cartItem.getLineAmount();
+        discountAmount -= cartItem.getDiscountAmount();
+    }
+
+    private Map<Long, CartItem> itemIndex() {
+        if(itemsByProductId == null || indexedItems != items || itemsByProductId.size() != items.size()) {
+            Map<Long, CartItem> index = new HashMap<>(Math.max(16, items.size() * 2));
+            for (CartItem item : items) {
+                index.putIfAbsent(item.getProduct().getId(), item);
+            }
+            itemsByProductId = index;
+            indexedItems = items;
+        }
+        return itemsByProductId;
+    }
+
+    @PrePersist
+    void prePersist() {
+        // Saved without going through PricingEngine.reprice (e.g. created with items), the totals are computed on first use
+        if(!changedProductIds.isEmpty()) stale = true;
+        if(lastModified == null) lastModified = LocalDateTime.now();
     }
 
     @Override
@@ -83,6 +268,7 @@ public class ShoppingCart {
     public String toString() {
         return "ShoppingCart{" +
                 "id=" + id +
+                ", version=" + version +
                 ", items=" + items +
                 '}';
     }
@@ -0,0 +1,19 @@
+package com.wadeyuan.store.dto;
+
+import com.wadeyuan.store.domain.ShoppingCart;
+import com.wadeyuan.store.repository.CartLineView;
+
+import java.util.List;
+
+public record CartDTO(long id, long version, List<CartLineDTO> items) {
+
+    public static CartDTO of(ShoppingCart cart) {
+        return new CartDTO(cart.getId(), cart.getVersion(), cart.getItems().stream().map(CartLineDTO::of).toList());
+    }
+
+    // Expects the rows of one cart, at least one
+    public static CartDTO of(List<CartLineView> lines) {
+        CartLineView cart = lines.get(0);
+        return new CartDTO(cart.cartId(), cart.version(), lines.stream().filter(CartLineView::hasItem).map(CartLineDTO::of).toList());
+    }
+}
@@ -0,0 +1,26 @@
+package com.wadeyuan.store.dto;
+
+import com.wadeyuan.store.domain.CartItem;
+import com.wadeyuan.store.domain.Product;
+import com.wadeyuan.store.pricing.Money;
+import com.wadeyuan.store.repository.CartLineView;
+
+import java.math.BigDecimal;
+
+// The line amount is before discounts, a calculation reports the discount of the whole cart
+public record CartLineDTO(long productId, String name, BigDecimal unitPrice, int quantity, BigDecimal lineAmount) {
+
+    public static CartLineDTO of(CartItem item) {
+        Product product = item.getProduct();
+        return of(product.getId(), product.getName(), product.getPrice(), item.getQuantity());
+    }
+
+    public static CartLineDTO of(CartLineView line) {
+        return of(line.productId(), line.productName(), line.unitPrice(), line.quantity());
+    }
+
+    private static CartLineDTO of(long productId, String name, BigDecimal unitPrice, int quantity) {
+        BigDecimal lineAmount = unitPrice == null ? null : Money.toBigDecimal(Math.multiplyExact(Money.toMicros(unitPrice), quantity));
+        return new CartLineDTO(productId, name, unitPrice, quantity, lineAmount);
+    }
+}
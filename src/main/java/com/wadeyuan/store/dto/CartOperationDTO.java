@@ -0,0 +1,50 @@
+package com.wadeyuan.store.dto;
+
+import com.wadeyuan.store.constants.CartOperationType;
+
+public class CartOperationDTO {
+    private CartOperationType operation;
+    private long productId;
+    private int quantity;
+
+    public CartOperationDTO() {}
+
+    public CartOperationDTO(CartOperationType operation, long productId, int quantity) {
+        this.operation = operation;
+        this.productId = productId;
+        this.quantity = quantity;
+    }
+
+    public CartOperationType getOperation() {
+        return operation;
+    }
+
+    public void setOperation(CartOperationType operation) {
+        this.operation = operation;
+    }
+
+    public long getProductId() {
+        return productId;
+    }
+
+    public void setProductId(long productId) {
+        this.productId = productId;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(int quantity) {
+        this.quantity = quantity;
+    }
+
+    @Override
+    public String toString() {
+        return "CartOperationDTO{" +
+                "operation=" + operation +
+                ", productId=" + productId +
+                ", quantity=" + quantity +
+                '}';
+    }
+}
@@ -0,0 +1,77 @@
+package com.wadeyuan.store.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ProductImportDTO {
+    private long imported;
+    private long failed;
+    private List<RowError> errors = new ArrayList<>();
+
+    public long getImported() {
+        return imported;
+    }
+
+    public void setImported(long imported) {
+        this.imported = imported;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public void setFailed(long failed) {
+        this.failed = failed;
+    }
+
+    public List<RowError> getErrors() {
+        return errors;
+    }
+
+    public void setErrors(List<RowError> errors) {
+        this.errors = errors;
+    }
+
+    @Override
+    public String toString() {
+        return "ProductImportDTO{" +
+                "imported=" + imported +
+                ", failed=" + failed +
+                ", errors=" + errors +
+                '}';
+    }
+
+    public static class RowError {
+        private long row;
+        private String message;
+
+        public RowError(long row, String message) {
+            this.row = row;
+            this.message = message;
+        }
+
+        public long getRow() {
+            return row;
+        }
+
+        public void setRow(long row) {
+            this.row = row;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public void setMessage(String message) {
+            this.message = message;
+        }
+
+        @Override
+        public String toString() {
+            return "RowError{" +
+                    "row=" + row +
+                    ", message='" + message + '\'' +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.wadeyuan.store.dto;
+
+public class QuoteItemDTO {
+    private long productId;
+    private int quantity;
+
+    public QuoteItemDTO() {}
+
+    public QuoteItemDTO(long productId, int quantity) {
+        this.productId = productId;
+        this.quantity = quantity;
+    }
+
+    public long getProductId() {
+        return productId;
+    }
+
+    public void setProductId(long productId) {
+        this.productId = productId;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(int quantity) {
+        this.quantity = quantity;
+    }
+
+    @Override
+    public String toString() {
+        return "QuoteItemDTO{" +
+                "productId=" + productId +
+                ", quantity=" + quantity +
+                '}';
+    }
+}
@@ -1,69 +1,39 @@
 package com.wadeyuan.store.dto;
 
-import com.wadeyuan.store.domain.CartItem;
+import com.wadeyuan.store.domain.ShoppingCart;
+import com.wadeyuan.store.pricing.CartPrice;
+import com.wadeyuan.store.pricing.Money;
+import com.wadeyuan.store.repository.CartLineView;
 
 import java.math.BigDecimal;
 import java.util.List;
 
-public class ShoppingCartDTO {
-    private long id;
-    private List<CartItem> items;
-    private BigDecimal discountAmount;
-    private BigDecimal totalAmount;
-    private BigDecimal finalAmount;
+// A cart with its amounts, which are null when the cart wasn't calculated
+public record ShoppingCartDTO(long id, List<CartLineDTO> items, BigDecimal discountAmount, BigDecimal totalAmount, BigDecimal finalAmount) {
 
-    public ShoppingCartDTO(long id, List<CartItem> items) {
-        this.id = id;
-        this.items = items;
+    public static ShoppingCartDTO of(ShoppingCart cart) {
+        return new ShoppingCartDTO(cart.getId(), lines(cart), null, null, null);
     }
 
-    public long getId() {
-        return id;
+    public static ShoppingCartDTO of(ShoppingCart cart, CartPrice price) {
+        return of(cart.getId(), lines(cart), price);
     }
 
-    public void setId(long id) {
-        this.id = id;
+    // Expects the rows of one cart, at least one, and prices it with the totals stored on the cart
+    public static ShoppingCartDTO of(List<CartLineView> lines) {
+        CartLineView cart = lines.get(0);
+        return of(cart.cartId(), lines.stream().filter(CartLineView::hasItem).map(CartLineDTO::of).toList(), new CartPrice(cart.totalAmount(), cart.discountAmount()));
     }
 
-    public List<CartItem> getItems() {
-        return items;
+    private static ShoppingCartDTO of(long id, List<CartLineDTO> items, CartPrice price) {
+        // BigDecimal only appears at the DTO boundary, pricing works on fixed-point micros
+        return new ShoppingCartDTO(id, items,
+                Money.toBigDecimal(price.discountAmount()),
+                Money.toBigDecimal(price.totalAmount()),
+                Money.toBigDecimal(price.finalAmount()));
     }
 
-    public void setItems(List<CartItem> items) {
-        this.items = items;
-    }
-
-    public BigDecimal getDiscountAmount() {
-        return discountAmount;
-    }
-
-    public void setDiscountAmount(BigDecimal discountAmount) {
-        this.discountAmount = discountAmount;
-    }
-
-    public BigDecimal getTotalAmount() {
-        return totalAmount;
-    }
-
-    public void setTotalAmount(BigDecimal totalAmount) {
-        this.totalAmount = totalAmount;
-    }
-
-    public BigDecimal getFinalAmount() {
-        return finalAmount;
-    }
-
-    public void setFinalAmount(BigDecimal finalAmount) {
-        this.finalAmount = finalAmount;
-    }
-
-    @Override
-    public String toString() {
-        return "ShoppingCartDTO{" +
-                "id=" + id +
-                ", items=" + items +
-                ", discountAmount=" + discountAmount +
-                ", totalAmount=" + totalAmount +
-                '}';
+    private static List<CartLineDTO> lines(ShoppingCart cart) {
+        return cart.getItems().stream().map(CartLineDTO::of).toList();
     }
 }
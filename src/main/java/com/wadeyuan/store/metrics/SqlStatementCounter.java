@@ -0,0 +1,22 @@
+package com.wadeyuan.store.metrics;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+// Counts the SQL statements Hibernate prepares on the current thread, which serves one request at a time
+public class SqlStatementCounter implements StatementInspector {
+    private static final ThreadLocal<long[]> STATEMENTS = ThreadLocal.withInitial(() -> new long[1]);
+
+    @Override
+    public String inspect(String sql) {
+        STATEMENTS.get()[0]++;
+        return sql;
+    }
+
+    public static void reset() {
+        STATEMENTS.get()[0] = 0;
+    }
+
+    public static long count() {
+        return STATEMENTS.get()[0];
+    }
+}
@@ -0,0 +1,9 @@
+package com.wadeyuan.store.pricing;
+
+// Totals of a priced cart, in micros
+public record CartPrice(long totalAmount, long discountAmount) {
+
+    public long finalAmount() {
+        return totalAmount - discountAmount;
+    }
+}
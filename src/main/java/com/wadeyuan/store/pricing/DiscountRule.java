@@ -0,0 +1,41 @@
+package com.wadeyuan.store.pricing;
+
+import com.wadeyuan.store.constants.DiscountType;
+import com.wadeyuan.store.domain.Discount;
+
+/*
+    A discount compiled for the pricing engine: products by id and the value in fixed point,
+    micros for AMOUNT discounts and basis points for PERCENTAGE discounts.
+ */
+public record DiscountRule(long id, long requiredProductId, int requiredQuantity, long targetProductId, DiscountType discountType, long discountValue) {
+
+    public static DiscountRule of(Discount discount) {
+        long discountValue = switch (discount.getDiscountType()) {
+            case AMOUNT -> Money.toMicros(discount.getDiscountValue());
+            case PERCENTAGE -> Money.toBasisPoints(discount.getDiscountValue());
+        };
+        return new DiscountRule(discount.getId(),
+                discount.getRequiredProduct().getId(),
+                discount.getRequiredQuantity(),
+                discount.getTargetProduct().getId(),
+                discount.getDiscountType(),
+                discountValue);
+    }
+
+    // 64-bit hash of every field, summed over a rule set to fingerprint it independently of order
+    public long fingerprint() {
+        long hash = id;
+        hash = hash * 31 + requiredProductId;
+        hash = hash * 31 + requiredQuantity;
+        hash = hash * 31 + targetProductId;
+        hash = hash * 31 + discountType.ordinal();
+        hash = hash * 31 + discountValue;
+        // Final mix of MurmurHash3, spreads nearby inputs over the whole range
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,168 @@
+package com.wadeyuan.store.pricing;
+
+import com.wadeyuan.store.datasource.ReadWriteRoutingDataSource;
+import com.wadeyuan.store.domain.Discount;
+import com.wadeyuan.store.repository.DiscountRepository;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+@Component
+public class DiscountRuleIndex implements DiscountRuleLookup {
+    private final Supplier<List<Discount>> enabledDiscounts;
+    // Readers always see a complete, immutable snapshot; writers build a new one and swap it in
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    public DiscountRuleIndex(List<Discount> discounts) {
+        // A fixed set of rules without a database, e.g. in unit tests and benchmarks
+        this(() -> discounts);
+        rebuild();
+    }
+
+    @Autowired
+    public DiscountRuleIndex(DiscountRepository discountRepository) {
+        // Read from the primary, a replica lagging behind would take back rules this node has just put
+        this(() -> ReadWriteRoutingDataSource.onPrimary(discountRepository::findDiscountsByEnabledIsTrue));
+    }
+
+    private DiscountRuleIndex(Supplier<List<Discount>> enabledDiscounts) {
+        this.enabledDiscounts = enabledDiscounts;
+    }
+
+    @PostConstruct
+    public synchronized void rebuild() {
+        snapshot = Snapshot.of(enabledDiscounts.get());
+    }
+
+    /*
+        Reloads the rules, so rules created or deleted on another node show up here too.
+        Returns the target products whose rules changed, their carts have to be priced again.
+        Holds the lock while reading, a change committed meanwhile is put once the read rules are in place.
+     */
+    public synchronized Set<Long> refresh() {
+        Snapshot current = snapshot;
+        Snapshot reloaded = Snapshot.of(enabledDiscounts.get());
+        if(reloaded.fingerprint == current.fingerprint) return Set.of();
+
+        Set<Long> changedProductIds = new HashSet<>();
+        for (DiscountRule rule : reloaded.byId.values()) {
+            if(!rule.equals(current.byId.get(rule.id()))) changedProductIds.add(rule.targetProductId());
+        }
+        for (DiscountRule rule : current.byId.values()) {
+            if(!rule.equals(reloaded.byId.get(rule.id()))) changedProductIds.add(rule.targetProductId());
+        }
+        snapshot = reloaded;
+        return changedProductIds;
+    }
+
+    @Override
+    public List<DiscountRule> findByTargetProductId(long productId) {
+        return snapshot.findByTargetProductId(productId);
+    }
+
+    public List<DiscountRule> findByRequiredProductId(long productId) {
+        return snapshot.byRequiredProductId.getOrDefault(productId, List.of());
+    }
+
+    // Identifies the set of enabled rules, equal on every node holding the same rules
+    public long getFingerprint() {
+        return snapshot.fingerprint;
+    }
+
+    // The rules as of now, unaffected by later puts and removes, so a batch of carts can be priced against one set of rules
+    public DiscountRuleLookup currentRules() {
+        return snapshot;
+    }
+
+    public synchronized void put(Discount discount) {
+        Snapshot updated = snapshot.without(discount.getId());
+        snapshot = discount.isEnabled() ? updated.with(DiscountRule.of(discount)) : updated;
+    }
+
+    public synchronized void remove(long discountId) {
+        snapshot = snapshot.without(discountId);
+    }
+
+    private static final class Snapshot implements DiscountRuleLookup {
+        static final Snapshot EMPTY = new Snapshot(Map.of(), Map.of(), Map.of(), 0);
+
+        final Map<Long, DiscountRule> byId;
+        final Map<Long, List<DiscountRule>> byTargetProductId;
+        final Map<Long, List<DiscountRule>> byRequiredProductId;
+        final long fingerprint;
+
+        Snapshot(Map<Long, DiscountRule> byId, Map<Long, List<DiscountRule>> byTargetProductId, Map<Long, List<DiscountRule>> byRequiredProductId, long fingerprint) {
+            this.byId = byId;
+            this.byTargetProductId = byTargetProductId;
+            this.byRequiredProductId = byRequiredProductId;
+            this.fingerprint = fingerprint;
+        }
+
+        @Override
+        public List<DiscountRule> findByTargetProductId(long productId) {
+            return byTargetProductId.getOrDefault(productId, List.of());
+        }
+
+        static Snapshot of(List<Discount> discounts) {
+            Map<Long, DiscountRule> ids = new HashMap<>();
+            Map<Long, List<DiscountRule>> byTarget = new HashMap<>();
+            Map<Long, List<DiscountRule>> byRequired = new HashMap<>();
+            long fingerprint = 0;
+            for (Discount discount : discounts) {
+                DiscountRule rule = DiscountRule.of(discount);
+                fingerprint += rule.fingerprint();
+                ids.put(rule.id(), rule);
+                byTarget.computeIfAbsent(rule.targetProductId(), key -> new ArrayList<>()).add(rule);
+                byRequired.computeIfAbsent(rule.requiredProductId(), key -> new ArrayList<>()).add(rule);
+            }
+            byTarget.replaceAll((productId, list) -> List.copyOf(list));
+            byRequired.replaceAll((productId, list) -> List.copyOf(list));
+            return new Snapshot(ids, byTarget, byRequired, fingerprint);
+        }
+
+        Snapshot with(DiscountRule rule) {
+            Map<Long, DiscountRule> ids = new HashMap<>(byId);
+            ids.put(rule.id(), rule);
+            return new Snapshot(ids,
+                    append(byTargetProductId, rule.targetProductId(), rule),
+                    append(byRequiredProductId, rule.requiredProductId(), rule),
+                    fingerprint + rule.fingerprint());
+        }
+
+        Snapshot without(long discountId) {
+            DiscountRule existing = byId.get(discountId);
+            if (existing == null) return this;
+
+            Map<Long, DiscountRule> ids = new HashMap<>(byId);
+            ids.remove(discountId);
+            return new Snapshot(ids,
+                    detach(byTargetProductId, existing.targetProductId(), discountId),
+                    detach(byRequiredProductId, existing.requiredProductId(), discountId),
+                    fingerprint - existing.fingerprint());
+        }
+
+        private static Map<Long, List<DiscountRule>> append(Map<Long, List<DiscountRule>> index, long productId, DiscountRule rule) {
+            Map<Long, List<DiscountRule>> copy = new HashMap<>(index);
+            List<DiscountRule> rules = new ArrayList<>(index.getOrDefault(productId, List.of()));
+            rules.add(rule);
+            copy.put(productId, List.copyOf(rules));
+            return copy;
+        }
+
+        private static Map<Long, List<DiscountRule>> detach(Map<Long, List<DiscountRule>> index, long productId, long discountId) {
+            Map<Long, List<DiscountRule>> copy = new HashMap<>(index);
+            List<DiscountRule> rules = index.getOrDefault(productId, List.of()).stream()
+                    .filter(rule -> rule.id() != discountId)
+                    .toList();
+            if (rules.isEmpty()) {
+                copy.remove(productId);
+            } else {
+                copy.put(productId, rules);
+            }
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package com.wadeyuan.store.pricing;
+
+import java.util.List;
+
+public interface DiscountRuleLookup {
+    List<DiscountRule> findByTargetProductId(long productId);
+}
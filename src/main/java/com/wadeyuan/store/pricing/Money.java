@@ -0,0 +1,51 @@
+package com.wadeyuan.store.pricing;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/*
+    Fixed-point helpers for the pricing engine.
+    Amounts are a long count of micros (millionths of a currency unit) and percentages a long count of basis points (hundredths of a percent).
+    Converting into micros or basis points rounds HALF_EVEN; prices and percentages are stored with two decimals, so in practice this is exact.
+    Every division inside the engine also rounds HALF_EVEN, and overflow throws ArithmeticException rather than wrapping.
+ */
+public final class Money {
+    public static final int SCALE = 6;
+    public static final int PERCENTAGE_SCALE = 2;
+    private static final long BASIS_POINTS_PER_UNIT = 10_000L; // 100% expressed in basis points
+
+    private Money() {}
+
+    public static long toMicros(BigDecimal amount) {
+        return amount.setScale(SCALE, RoundingMode.HALF_EVEN).unscaledValue().longValueExact();
+    }
+
+    public static long toBasisPoints(BigDecimal percentage) {
+        return percentage.setScale(PERCENTAGE_SCALE, RoundingMode.HALF_EVEN).unscaledValue().longValueExact();
+    }
+
+    // Only called at the DTO boundary; keeps at least two decimals so whole amounts still read as money
+    public static BigDecimal toBigDecimal(long micros) {
+        BigDecimal amount = BigDecimal.valueOf(micros, SCALE).stripTrailingZeros();
+        return amount.scale() < 2 ? amount.setScale(2) : amount;
+    }
+
+    public static long percentageOf(long micros, long basisPoints) {
+        return divideHalfEven(Math.multiplyExact(micros, basisPoints), BASIS_POINTS_PER_UNIT);
+    }
+
+    static long divideHalfEven(long dividend, long divisor) {
+        long quotient = dividend / divisor;
+        long remainder = dividend % divisor;
+        if (remainder == 0) return quotient;
+
+        // Compare twice the remainder with the divisor without overflowing, then break ties towards the even quotient
+        long doubledRemainder = Math.abs(remainder) * 2;
+        long absDivisor = Math.abs(divisor);
+        int signum = (dividend < 0) == (divisor < 0) ? 1 : -1;
+        if (doubledRemainder > absDivisor || (doubledRemainder == absDivisor && (quotient & 1) != 0)) {
+            return quotient + signum;
+        }
+        return quotient;
+    }
+}
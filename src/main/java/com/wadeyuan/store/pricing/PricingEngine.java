@@ -0,0 +1,181 @@
+package com.wadeyuan.store.pricing;
+
+import com.wadeyuan.store.domain.CartItem;
+import com.wadeyuan.store.domain.ShoppingCart;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Prices a cart on long micros (see Money), so the per item and per rule loops allocate nothing.
+    Unit prices come from the product rows loaded with the cart, each converted from BigDecimal once (see Product.getPriceMicros).
+    Metrics are recorded once per cart rather than per item, to keep their cost off the inner loops.
+ */
+@Component
+public class PricingEngine {
+    private final Timer pricingTimer;
+    private final Timer discountTimer;
+    private final DistributionSummary cartLines;
+    private final DistributionSummary rulesEvaluated;
+    private final Timer repricingTimer;
+    private final DistributionSummary repricedLines;
+
+    public PricingEngine() {
+        // Without a registry meters are no-ops, e.g. in unit tests and benchmarks
+        this(new CompositeMeterRegistry());
+    }
+
+    @Autowired
+    public PricingEngine(MeterRegistry meterRegistry) {
+        this.pricingTimer = Timer.builder("store.pricing.duration")
+                .description("Time to price a whole cart")
+                .register(meterRegistry);
+        this.discountTimer = Timer.builder("store.pricing.discount.duration")
+                .description("Time spent in calculateDiscountOfCartItem for all lines of a cart")
+                .register(meterRegistry);
+        this.cartLines = DistributionSummary.builder("store.pricing.cart.lines")
+                .description("Lines of each priced cart")
+                .register(meterRegistry);
+        this.rulesEvaluated = DistributionSummary.builder("store.pricing.rules.evaluated")
+                .description("Discount rules evaluated for each priced cart")
+                .register(meterRegistry);
+        this.repricingTimer = Timer.builder("store.pricing.reprice.duration")
+                .description("Time to bring the running totals of a cart up to date after a change")
+                .register(meterRegistry);
+        this.repricedLines = DistributionSummary.builder("store.pricing.repriced.lines")
+                .description("Lines priced again for each change of a cart")
+                .register(meterRegistry);
+    }
+
+    public CartPrice price(ShoppingCart cart, DiscountRuleLookup discountRules) {
+        long start = System.nanoTime();
+        long totalAmount = 0; // Calculated by all cart items original price
+        long discountAmount = 0; // Calculated by all cart items discount (if any)
+
+        List<CartItem> items = cart.getItems();
+        long[] unitPrices = new long[items.size()];
+        for (int i = 0; i < items.size(); i++) {
+            CartItem item = items.get(i);
+            unitPrices[i] = item.getProduct().getPriceMicros();
+
+            // Accumulate to the total amount of the entire cart
+            totalAmount = Math.addExact(totalAmount, Math.multiplyExact(unitPrices[i], item.getQuantity()));
+        }
+
+        long discountStart = System.nanoTime();
+        long evaluated = 0;
+        for (int i = 0; i < items.size(); i++) {
+            CartItem item = items.get(i);
+            List<DiscountRule> rules = discountRules.findByTargetProductId(item.getProduct().getId());
+            evaluated += rules.size();
+
+            // The discount of one item shouldn't exceed its amount
+            long cartItemDiscount = calculateDiscountOfCartItem(item, unitPrices[i], cart, rules);
+            discountAmount = Math.addExact(discountAmount, Math.min(cartItemDiscount, unitPrices[i] * item.getQuantity()));
+        }
+
+        long end = System.nanoTime();
+        discountTimer.record(end - discountStart, TimeUnit.NANOSECONDS);
+        pricingTimer.record(end - start, TimeUnit.NANOSECONDS);
+        cartLines.record(items.size());
+        rulesEvaluated.record(evaluated);
+        return new CartPrice(totalAmount, discountAmount);
+    }
+
+    /*
+        Brings the running totals stored on the cart and its lines up to date after addToCart, removeFromCart or clearCart.
+        Only the lines of changed products are priced again, plus the lines whose discount rules require one of those products.
+        A stale cart (a price or a rule changed underneath it) is priced from scratch.
+     */
+    public void reprice(ShoppingCart cart, DiscountRuleIndex discountRules) {
+        long start = System.nanoTime();
+        int repriced = 0;
+        if(cart.isStale()) {
+            cart.setTotalAmount(0);
+            cart.setDiscountAmount(0);
+            for (CartItem item : cart.getItems()) {
+                item.setLineAmount(0);
+                item.setDiscountAmount(0);
+                repriceLine(cart, item, discountRules);
+            }
+            repriced = cart.getItems().size();
+            cart.setStale(false);
+        } else if(!cart.getChangedProductIds().isEmpty()) {
+            // Keyed by product id, a line depending on several changed products is priced once
+            Map<Long, CartItem> affectedItems = new LinkedHashMap<>();
+            for (long productId : cart.getChangedProductIds()) {
+                CartItem item = cart.getCartItemByProductId(productId);
+                if(item != null) affectedItems.put(productId, item);
+                for (DiscountRule rule : discountRules.findByRequiredProductId(productId)) {
+                    CartItem dependentItem = cart.getCartItemByProductId(rule.targetProductId());
+                    if(dependentItem != null) affectedItems.put(rule.targetProductId(), dependentItem);
+                }
+            }
+            for (CartItem item : affectedItems.values()) {
+                repriceLine(cart, item, discountRules);
+            }
+            repriced = affectedItems.size();
+        }
+        cart.getChangedProductIds().clear();
+
+        repricingTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        repricedLines.record(repriced);
+    }
+
+    // Replaces the line's share of the cart totals with freshly computed amounts
+    private void repriceLine(ShoppingCart cart, CartItem item, DiscountRuleLookup discountRules) {
+        long unitPrice = item.getProduct().getPriceMicros();
+        long lineAmount = Math.multiplyExact(unitPrice, item.getQuantity());
+        // The discount of one item shouldn't exceed its amount
+        long discountAmount = Math.min(calculateDiscountOfCartItem(item, unitPrice, cart, discountRules), lineAmount);
+
+        cart.setTotalAmount(Math.addExact(cart.getTotalAmount(), lineAmount - item.getLineAmount()));
+        cart.setDiscountAmount(Math.addExact(cart.getDiscountAmount(), discountAmount - item.getDiscountAmount()));
+        item.setLineAmount(lineAmount);
+        item.setDiscountAmount(discountAmount);
+    }
+
+    public long calculateDiscountOfCartItem(CartItem item, long unitPrice, ShoppingCart cart, DiscountRuleLookup discountRules) {
+        return calculateDiscountOfCartItem(item, unitPrice, cart, discountRules.findByTargetProductId(item.getProduct().getId()));
+    }
+
+    private long calculateDiscountOfCartItem(CartItem item, long unitPrice, ShoppingCart cart, List<DiscountRule> rules) {
+        if (rules.isEmpty()) return 0;
+
+        // We choose the maximum discount for the item
+        long maxDiscount = Long.MIN_VALUE;
+        for (int i = 0; i < rules.size(); i++) {
+            maxDiscount = Math.max(maxDiscount, calculateDiscountAmountFromDiscountRule(item, unitPrice, cart, rules.get(i)));
+        }
+        return maxDiscount;
+    }
+
+    public long calculateDiscountAmountFromDiscountRule(CartItem item, long unitPrice, ShoppingCart cart, DiscountRule rule) {
+        int discountableProductQuantity; // To calculate the number of discountable products in current cart item
+        if (rule.requiredProductId() != item.getProduct().getId()) {
+            // The rule requires some other product in the cart, check there are sufficient number of it
+            CartItem requiredItem = cart.getCartItemByProductId(rule.requiredProductId());
+            if (requiredItem == null || requiredItem.getQuantity() < rule.requiredQuantity()) return 0;
+
+            discountableProductQuantity = item.getQuantity();
+        } else {
+            // The rule requires the same product (typically buy x and the remaining get z% off)
+            if (item.getQuantity() <= rule.requiredQuantity()) return 0;
+
+            discountableProductQuantity = item.getQuantity() - rule.requiredQuantity();
+        }
+
+        return switch (rule.discountType()) {
+            case AMOUNT -> rule.discountValue();
+            case PERCENTAGE -> Money.percentageOf(Math.multiplyExact(unitPrice, discountableProductQuantity), rule.discountValue());
+        };
+    }
+}
@@ -0,0 +1,32 @@
+package com.wadeyuan.store.repository;
+
+import com.wadeyuan.store.domain.CartItem;
+import com.wadeyuan.store.domain.ShoppingCart;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/*
+    One line of a cart as read by ShoppingCartRepository.findLinesById, along with the columns of its cart.
+    The line columns are null on the single row returned for an empty cart.
+ */
+public record CartLineView(long cartId, long version, long totalAmount, long discountAmount, boolean stale,
+                           Long itemId, Long productId, String productName, BigDecimal unitPrice, Integer quantity) {
+
+    // The same rows for a cart held in memory
+    public static List<CartLineView> of(ShoppingCart cart) {
+        if(cart.getItems().isEmpty()) return List.of(new CartLineView(cart.getId(), cart.getVersion(), cart.getTotalAmount(), cart.getDiscountAmount(), cart.isStale(),
+                null, null, null, null, null));
+
+        return cart.getItems().stream().map(item -> of(cart, item)).toList();
+    }
+
+    private static CartLineView of(ShoppingCart cart, CartItem item) {
+        return new CartLineView(cart.getId(), cart.getVersion(), cart.getTotalAmount(), cart.getDiscountAmount(), cart.isStale(),
+                item.getId(), item.getProduct().getId(), item.getProduct().getName(), item.getProduct().getPrice(), item.getQuantity());
+    }
+
+    public boolean hasItem() {
+        return itemId != null;
+    }
+}
@@ -9,4 +9,5 @@ import java.util.List;
 
 public interface DiscountRepository extends JpaRepository<Discount, Long>, JpaSpecificationExecutor<Discount> {
     List<Discount> findDiscountsByTargetProductAndEnabledIsTrue(Product targetProduct);
+    List<Discount> findDiscountsByEnabledIsTrue();
 }
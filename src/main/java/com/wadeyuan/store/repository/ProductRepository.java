@@ -1,10 +1,38 @@
 package com.wadeyuan.store.repository;
 
 import com.wadeyuan.store.domain.Product;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface ProductRepository extends JpaRepository<Product, Long>, JpaSpecificationExecutor<Product> {
+    // Keyset pages: the pageable only carries the page size, the position comes from the last row of the previous page.
+    // Read-only, so they are served by the replica when there is one
+    @Transactional(readOnly = true)
+    List<Product> findByIdGreaterThanOrderByIdAsc(long id, Pageable pageable);
+
+    @Transactional(readOnly = true)
+    @Query("select p from Product p order by p.createdTimestamp, p.id")
+    List<Product> findFirstPageOrderByCreatedTimestamp(Pageable pageable);
+
+    @Transactional(readOnly = true)
+    @Query("select p from Product p where p.createdTimestamp > :createdTimestamp or (p.createdTimestamp = :createdTimestamp and p.id > :id) order by p.createdTimestamp, p.id")
+    List<Product> findPageAfterCreatedTimestamp(@Param("createdTimestamp") LocalDateTime createdTimestamp, @Param("id") long id, Pageable pageable);
+
+    // Cursor over the whole catalog, must be consumed inside a transaction and closed
+    @QueryHints({@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"), @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")})
+    @Query("select p from Product p order by p.id")
+    Stream<Product> streamAllOrderById();
 }
@@ -1,8 +1,45 @@
 package com.wadeyuan.store.repository;
 
 import com.wadeyuan.store.domain.ShoppingCart;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 
 public interface ShoppingCartRepository extends JpaRepository<ShoppingCart, Long>, JpaSpecificationExecutor<ShoppingCart> {
+    // Loads the cart, its items and their products in a single select
+    @EntityGraph(attributePaths = {"items", "items.product"})
+    Optional<ShoppingCart> findWithItemsById(Long id);
+
+    // Same graph for a batch of carts, ids that don't exist are left out
+    @EntityGraph(attributePaths = {"items", "items.product"})
+    List<ShoppingCart> findWithItemsByIdIn(Collection<Long> ids);
+
+    // Cart and line columns only, for responses that never need the entities. An empty cart comes back as one row without a line.
+    // Read-only, so it is served by the replica when there is one (see ReadYourWrites)
+    @Transactional(readOnly = true)
+    @Query("select new com.wadeyuan.store.repository.CartLineView(c.id, c.version, c.totalAmount, c.discountAmount, c.stale, i.id, p.id, p.name, p.price, i.quantity) " +
+            "from ShoppingCart c left join c.items i left join i.product p where c.id = :id order by i.id")
+    List<CartLineView> findLinesById(@Param("id") long id);
+
+    // Always the primary, the version is about to be written
+    @Query("select c.version from ShoppingCart c where c.id = :id")
+    Optional<Long> findVersionById(@Param("id") long id);
+
+    // The carts of the batch that still exist, always the primary when called in a write transaction
+    @Query("select c.id from ShoppingCart c where c.id in :ids")
+    List<Long> findIdsByIdIn(@Param("ids") Collection<Long> ids);
+
+    // Flags every cart holding the product for a full repricing. "versioned" bumps their version too, so cart mutations in flight retry and see the flag
+    @Transactional
+    @Modifying
+    @Query("update versioned ShoppingCart c set c.stale = true where c.id in (select sc.id from ShoppingCart sc join sc.items i where i.product.id = :productId)")
+    int markStaleByProductId(@Param("productId") long productId);
 }
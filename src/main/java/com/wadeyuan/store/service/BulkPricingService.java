@@ -0,0 +1,97 @@
+package com.wadeyuan.store.service;
+
+import com.wadeyuan.store.domain.ShoppingCart;
+import com.wadeyuan.store.dto.ShoppingCartDTO;
+import com.wadeyuan.store.pricing.DiscountRuleIndex;
+import com.wadeyuan.store.pricing.DiscountRuleLookup;
+import com.wadeyuan.store.pricing.PricingEngine;
+import com.wadeyuan.store.repository.ShoppingCartRepository;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Prices many carts in one go, e.g. for a report or a campaign preview.
+ * Carts are loaded in chunks, each with its items and products in one select, and the next chunk is loaded while the previous one is priced.
+ * Pricing runs on a pool of its own, so a large request can't starve the common pool that parallel streams elsewhere rely on.
+ * All carts of a request are priced against the same discount rules, even if rules change halfway through.
+ * The stored totals of the carts are left as they are, this is a read-only view.
+ */
+@Service
+public class BulkPricingService {
+    public static final int MAX_CARTS = 10_000;
+    private static final int CHUNK_SIZE = 500;
+
+    private final ShoppingCartRepository shoppingCartRepository;
+    private final PricingEngine pricingEngine;
+    private final DiscountRuleIndex discountRuleIndex;
+    private final TransactionTemplate readOnlyTransaction;
+    private final ForkJoinPool pool;
+    private final Timer duration;
+    private final DistributionSummary carts;
+
+    public BulkPricingService(ShoppingCartRepository shoppingCartRepository, PricingEngine pricingEngine, DiscountRuleIndex discountRuleIndex,
+                              PlatformTransactionManager transactionManager, MeterRegistry meterRegistry, @Value("${store.pricing.bulk.parallelism:0}") int parallelism) {
+        this.shoppingCartRepository = shoppingCartRepository;
+        this.pricingEngine = pricingEngine;
+        this.discountRuleIndex = discountRuleIndex;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        // 0 sizes the pool to the machine, pricing is pure CPU work once the carts are loaded
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        this.duration = Timer.builder("store.pricing.bulk.duration")
+                .description("Time to price all carts of a bulk pricing request")
+                .register(meterRegistry);
+        this.carts = DistributionSummary.builder("store.pricing.bulk.carts")
+                .description("Carts priced by each bulk pricing request")
+                .register(meterRegistry);
+    }
+
+    // Receives the priced carts one chunk at a time, in the order the chunks finish
+    @FunctionalInterface
+    public interface ChunkSink {
+        void accept(List<ShoppingCartDTO> pricedCarts) throws IOException;
+    }
+
+    // Carts that don't exist are skipped
+    public void price(List<Long> shoppingCartIds, ChunkSink sink) throws IOException {
+        long start = System.nanoTime();
+        DiscountRuleLookup discountRules = discountRuleIndex.currentRules();
+        int priced = 0;
+        ForkJoinTask<List<ShoppingCartDTO>> pending = null;
+        for (int from = 0; from < shoppingCartIds.size(); from += CHUNK_SIZE) {
+            List<Long> chunk = shoppingCartIds.subList(from, Math.min(from + CHUNK_SIZE, shoppingCartIds.size()));
+            List<ShoppingCart> loaded = readOnlyTransaction.execute(status -> shoppingCartRepository.findWithItemsByIdIn(chunk));
+            ForkJoinTask<List<ShoppingCartDTO>> next = pool.submit(() -> loaded.parallelStream()
+                    .map(cart -> ShoppingCartDTO.of(cart, pricingEngine.price(cart, discountRules)))
+                    .toList());
+            if(pending != null) priced += write(pending, sink);
+            pending = next;
+        }
+        if(pending != null) priced += write(pending, sink);
+        duration.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        carts.record(priced);
+    }
+
+    private int write(ForkJoinTask<List<ShoppingCartDTO>> task, ChunkSink sink) throws IOException {
+        List<ShoppingCartDTO> pricedCarts = task.join();
+        sink.accept(pricedCarts);
+        return pricedCarts.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
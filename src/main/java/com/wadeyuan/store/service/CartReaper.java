@@ -0,0 +1,126 @@
+package com.wadeyuan.store.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Deletes carts nobody has changed for the TTL, so the cart tables don't grow without bound.
+ * Expired carts are taken oldest first, a chunk per transaction and a bounded number of chunks per run, which caps the
+ * rate of deletes and keeps every transaction short. Each chunk is removed with two set-based deletes
+ * (items by their cart key, then the carts) instead of loading the entities and cascading one row at a time.
+ * Carts the cart store holds in memory are left alone, their latest changes may not be written yet, and the others can't be
+ * loaded into it until their chunk is committed. The deleted carts are locked and checked to be still expired first, a
+ * mutation racing the reaper either keeps its cart or loses its version check and finds the cart gone.
+ * Cached items of reaped carts are never looked up again (ids aren't reused) and age out of their bounded cache regions.
+ */
+@Service
+@ConditionalOnProperty(name = "store.cart.reaper.enabled", havingValue = "true", matchIfMissing = true)
+public class CartReaper {
+    private static final Logger log = LoggerFactory.getLogger(CartReaper.class);
+
+    private static final String SELECT_EXPIRED = "select id from shopping_cart where last_modified < :cutoff order by last_modified limit :limit";
+    private static final String LOCK_EXPIRED = "select id from shopping_cart where id in (:ids) and last_modified < :cutoff for update";
+    private static final String DELETE_ITEMS = "delete from cart_item where shopping_cart_id in (:ids)";
+    private static final String DELETE_CARTS = "delete from shopping_cart where id in (:ids)";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final CartStore cartStore;
+    private final TransactionTemplate transactionTemplate;
+    private final Duration ttl;
+    private final int batchSize;
+    private final int maxBatches;
+    private final Timer duration;
+    private final Counter reapedCarts;
+    private final Counter reapedItems;
+    private final Counter failures;
+
+    public CartReaper(NamedParameterJdbcTemplate jdbcTemplate, CartStore cartStore, PlatformTransactionManager transactionManager, MeterRegistry meterRegistry,
+                      @Value("${store.cart.reaper.ttl:7d}") Duration ttl,
+                      @Value("${store.cart.reaper.batch-size:500}") int batchSize,
+                      @Value("${store.cart.reaper.max-batches:20}") int maxBatches) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.cartStore = cartStore;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.ttl = ttl;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxBatches = Math.max(1, maxBatches);
+        this.duration = Timer.builder("store.cart.reaper.duration")
+                .description("Time of one reaper run")
+                .register(meterRegistry);
+        this.reapedCarts = Counter.builder("store.cart.reaper.carts")
+                .description("Expired carts deleted by the reaper")
+                .register(meterRegistry);
+        this.reapedItems = Counter.builder("store.cart.reaper.items")
+                .description("Items of expired carts deleted by the reaper")
+                .register(meterRegistry);
+        this.failures = Counter.builder("store.cart.reaper.failures")
+                .description("Reaper chunks rolled back, they are tried again on the next run")
+                .register(meterRegistry);
+    }
+
+    // Returns the number of carts deleted
+    @Scheduled(fixedDelayString = "${store.cart.reaper.interval:PT1M}", initialDelayString = "${store.cart.reaper.interval:PT1M}")
+    public int reap() {
+        long start = System.nanoTime();
+        // One cutoff for the whole run, so a run always ends even while carts keep expiring
+        Timestamp cutoff = Timestamp.valueOf(LocalDateTime.now().minus(ttl));
+        int reaped = 0;
+        try {
+            // Expired carts held by the cart store come back first in every chunk, they are selected on top of the chunk
+            int held = 0;
+            for (int batch = 0; batch < maxBatches; batch++) {
+                int limit = held + batchSize;
+                Chunk chunk = reapChunk(cutoff, limit);
+                // Counted once committed
+                reaped += chunk.deleted();
+                reapedCarts.increment(chunk.deleted());
+                reapedItems.increment(chunk.deletedItems());
+                held = chunk.held();
+                if(chunk.expired() < limit) break;
+            }
+        } catch (RuntimeException e) {
+            // e.g. a lock timeout against a writer of the same cart, the chunk is still expired next time
+            failures.increment();
+            log.warn("Cart reaper run stopped after {} carts", reaped, e);
+        }
+        duration.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return reaped;
+    }
+
+    private Chunk reapChunk(Timestamp cutoff, int limit) {
+        List<Long> expired = jdbcTemplate.queryForList(SELECT_EXPIRED, Map.of("cutoff", cutoff, "limit", limit), Long.class);
+        return cartStore.withoutResident(expired, cartIds -> {
+            int held = expired.size() - cartIds.size();
+            if(cartIds.isEmpty()) return new Chunk(expired.size(), held, 0, 0);
+
+            // Committed before the cart store lets the carts be loaded again
+            return transactionTemplate.execute(status -> {
+                List<Long> locked = jdbcTemplate.queryForList(LOCK_EXPIRED, Map.of("ids", cartIds, "cutoff", cutoff), Long.class);
+                if(locked.isEmpty()) return new Chunk(expired.size(), held, 0, 0);
+
+                int deletedItems = jdbcTemplate.update(DELETE_ITEMS, Map.of("ids", locked));
+                int deleted = jdbcTemplate.update(DELETE_CARTS, Map.of("ids", locked));
+                return new Chunk(expired.size(), held, deleted, deletedItems);
+            });
+        });
+    }
+
+    private record Chunk(int expired, int held, int deleted, int deletedItems) {}
+}
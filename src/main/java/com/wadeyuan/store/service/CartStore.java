@@ -0,0 +1,39 @@
+package com.wadeyuan.store.service;
+
+import com.wadeyuan.store.domain.Product;
+import com.wadeyuan.store.domain.ShoppingCart;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/*
+ * Where cart mutations go. ShoppingCartService writes every change through to the database,
+ * WriteBehindCartStore (store.cart.write-behind.enabled) keeps active carts in memory and persists them in the background.
+ * Views of a changed cart are taken while the store still guards it, the cart itself never leaves the store.
+ */
+public interface CartStore {
+    // Applies the mutation, reprices the cart and returns its view, or an empty Optional when the cart doesn't exist
+    <T> Optional<T> update(long shoppingCartId, Consumer<ShoppingCart> mutation, Function<ShoppingCart, T> view);
+
+    // Returns false when the cart doesn't exist
+    boolean delete(long shoppingCartId);
+
+    // A view of a cart the database isn't up to date with, or an empty Optional when reading the database is fine
+    <T> Optional<T> viewResident(long shoppingCartId, Function<ShoppingCart, T> view);
+
+    // Whether the store holds the cart in memory, the database may not have its latest changes then
+    boolean isResident(long shoppingCartId);
+
+    // Runs the action on the carts of the list the store doesn't hold in memory, none of them is loaded into it before the action
+    // returns. Lets carts be deleted behind the store's back without a change of theirs being acknowledged from memory meanwhile
+    <T> T withoutResident(List<Long> shoppingCartIds, Function<List<Long>, T> action);
+
+    // Flags the carts in memory holding the product for a full repricing, after a price or a discount rule changed. Call once the
+    // change is committed, the rows of the carts are flagged by ShoppingCartRepository.markStaleByProductId in its transaction
+    void markResidentStaleByProductId(long productId);
+
+    // Replaces the product held by the carts in memory after its change was committed, so their lines show its current name and price
+    void refreshProduct(Product product);
+}
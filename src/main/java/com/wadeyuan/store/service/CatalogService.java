@@ -0,0 +1,139 @@
+package com.wadeyuan.store.service;
+
+import com.wadeyuan.store.constants.DiscountType;
+import com.wadeyuan.store.domain.Discount;
+import com.wadeyuan.store.domain.Product;
+import com.wadeyuan.store.pricing.DiscountRuleIndex;
+import com.wadeyuan.store.repository.DiscountRepository;
+import com.wadeyuan.store.repository.ProductRepository;
+import com.wadeyuan.store.repository.ShoppingCartRepository;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.util.Objects;
+import java.util.Optional;
+
+/*
+ * Price and discount rule changes. Each one reads, writes and flags the carts it affects stale in a single read-write
+ * transaction, which runs on the primary: a replica lagging behind could hand out a product or discount that is already gone.
+ * The copies held in memory (the DiscountRuleIndex, carts held by the CartStore) follow once the change is
+ * committed, so a change that is rolled back never shows in them. Other nodes pick up discount changes with their
+ * DiscountRuleRefresher.
+ */
+@Service
+public class CatalogService {
+    private final ProductRepository productRepository;
+    private final DiscountRepository discountRepository;
+    private final ShoppingCartRepository shoppingCartRepository;
+    private final DiscountRuleIndex discountRuleIndex;
+    private final CartStore cartStore;
+
+    public CatalogService(ProductRepository productRepository, DiscountRepository discountRepository, ShoppingCartRepository shoppingCartRepository,
+                          DiscountRuleIndex discountRuleIndex, CartStore cartStore) {
+        this.productRepository = productRepository;
+        this.discountRepository = discountRepository;
+        this.shoppingCartRepository = shoppingCartRepository;
+        this.discountRuleIndex = discountRuleIndex;
+        this.cartStore = cartStore;
+    }
+
+    // Returns the updated product, or an empty Optional when it doesn't exist
+    @Transactional
+    public Optional<Product> updateProduct(long productId, Product product) {
+        Product existingProduct = productRepository.findById(productId).orElse(null);
+        if(existingProduct == null) return Optional.empty();
+
+        // Keep the creation time, it is part of the keyset used to page through products
+        product.setId(productId);
+        product.setCreatedTimestamp(existingProduct.getCreatedTimestamp());
+        // Compared before saving, which merges the new state into the existing product
+        boolean priceChanged = !Objects.equals(existingProduct.getPrice(), product.getPrice());
+        Product updatedProduct = productRepository.save(product);
+        // Carts holding the product keep totals computed with the old price
+        if(priceChanged) shoppingCartRepository.markStaleByProductId(productId);
+        afterCommit(() -> {
+            // Carts held in memory show the new name and price, and are priced with it
+            cartStore.refreshProduct(updatedProduct);
+            if(priceChanged) cartStore.markResidentStaleByProductId(productId);
+        });
+        return Optional.of(updatedProduct);
+    }
+
+    // Returns the created discount, or an empty Optional when it is incomplete or one of its products doesn't exist
+    @Transactional
+    public Optional<Discount> createDiscount(Discount discount) {
+        // Checked before saving, a rule the pricing engine can't compile would be stored and break every rebuild of the index
+        if(discount.getDiscountType() == null || discount.getDiscountValue() == null) return Optional.empty();
+        Product requiredProduct = findProduct(discount.getRequiredProduct());
+        Product targetProduct = findProduct(discount.getTargetProduct());
+        if(requiredProduct == null || targetProduct == null) return Optional.empty();
+
+        discount.setRequiredProduct(requiredProduct);
+        discount.setTargetProduct(targetProduct);
+        discount.setEnabled(true);
+        Discount createdDiscount = discountRepository.save(discount);
+        long targetProductId = createdDiscount.getTargetProduct().getId();
+        // Only lines of the target product get the discount, so only carts holding it need their totals recomputed
+        shoppingCartRepository.markStaleByProductId(targetProductId);
+        afterCommit(() -> {
+            discountRuleIndex.put(createdDiscount);
+            cartStore.markResidentStaleByProductId(targetProductId);
+        });
+        return Optional.of(createdDiscount);
+    }
+
+    /*
+        Compose a simple discount:
+        required product is the same one with target product, quantity and percentage off coming from request params
+        So that administrator can easily apply a buy x and y% off to the remaining products
+        Returns an empty Optional when the product doesn't exist
+     */
+    @Transactional
+    public Optional<Discount> createSimpleDiscount(long productId, int requiredQuantity, BigDecimal percentageOff) {
+        Product product = productRepository.findById(productId).orElse(null);
+        if(product == null) return Optional.empty();
+
+        Discount simpleDiscount = new Discount();
+        simpleDiscount.setDiscountType(DiscountType.PERCENTAGE);
+        simpleDiscount.setDiscountValue(percentageOff);
+        simpleDiscount.setRequiredProduct(product);
+        simpleDiscount.setRequiredQuantity(requiredQuantity);
+        simpleDiscount.setTargetProduct(product);
+        return createDiscount(simpleDiscount);
+    }
+
+    // Returns false when the discount doesn't exist
+    @Transactional
+    public boolean deleteDiscount(long discountId) {
+        Discount discount = discountRepository.findById(discountId).orElse(null);
+        if(discount == null) return false;
+
+        long targetProductId = discount.getTargetProduct().getId();
+        discountRepository.delete(discount);
+        shoppingCartRepository.markStaleByProductId(targetProductId);
+        afterCommit(() -> {
+            discountRuleIndex.remove(discountId);
+            cartStore.markResidentStaleByProductId(targetProductId);
+        });
+        return true;
+    }
+
+    // The product a discount refers to by id, null when there is none
+    private Product findProduct(Product product) {
+        if(product == null) return null;
+
+        return productRepository.findById(product.getId()).orElse(null);
+    }
+
+    private static void afterCommit(Runnable action) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+}
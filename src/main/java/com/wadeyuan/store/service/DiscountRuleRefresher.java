@@ -0,0 +1,58 @@
+package com.wadeyuan.store.service;
+
+import com.wadeyuan.store.pricing.DiscountRuleIndex;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Set;
+
+/*
+ * Keeps the DiscountRuleIndex of this node in line with the discount table, when several nodes serve the store.
+ * A discount change updates the index of the node that made it right after the commit, the others reload their rules
+ * on every run and so see it within the interval. The carts such a change affects are already flagged stale in the
+ * database, only the copies this node's cart store holds in memory are flagged here.
+ */
+@Service
+@ConditionalOnProperty(name = "store.discounts.refresh.enabled", havingValue = "true", matchIfMissing = true)
+public class DiscountRuleRefresher {
+    private static final Logger log = LoggerFactory.getLogger(DiscountRuleRefresher.class);
+
+    private final DiscountRuleIndex discountRuleIndex;
+    private final CartStore cartStore;
+    private final Counter changedProducts;
+    private final Counter failures;
+
+    public DiscountRuleRefresher(DiscountRuleIndex discountRuleIndex, CartStore cartStore, MeterRegistry meterRegistry) {
+        this.discountRuleIndex = discountRuleIndex;
+        this.cartStore = cartStore;
+        this.changedProducts = Counter.builder("store.discounts.refresh.products")
+                .description("Target products whose rules were changed by another node")
+                .register(meterRegistry);
+        this.failures = Counter.builder("store.discounts.refresh.failures")
+                .description("Refreshes of the discount rules that failed, the rules are read again on the next run")
+                .register(meterRegistry);
+    }
+
+    // Returns the number of target products whose rules changed
+    @Scheduled(fixedDelayString = "${store.discounts.refresh.interval:PT5S}", initialDelayString = "${store.discounts.refresh.interval:PT5S}")
+    public int refresh() {
+        try {
+            Set<Long> changedProductIds = discountRuleIndex.refresh();
+            for (long productId : changedProductIds) {
+                cartStore.markResidentStaleByProductId(productId);
+            }
+            changedProducts.increment(changedProductIds.size());
+            return changedProductIds.size();
+        } catch (RuntimeException e) {
+            // e.g. the database is briefly unreachable, the rules held so far stay in place
+            failures.increment();
+            log.warn("Discount rule refresh failed", e);
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.wadeyuan.store.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.wadeyuan.store.domain.Product;
+import com.wadeyuan.store.dto.ProductImportDTO;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+@Service
+public class ProductImportService {
+    static final int BATCH_SIZE = 1000;
+    static final int MAX_REPORTED_ERRORS = 100;
+
+    private static final String INSERT_PRODUCT = "insert into product (id, name, price, created_timestamp) values (?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final Validator validator;
+    private final ObjectReader productReader;
+    // Hands out one pooled block, the value v owns the ids (v - allocationSize, v]
+    private final String nextIdBlock;
+
+    public ProductImportService(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager, Validator validator, ObjectMapper objectMapper,
+                                EntityManagerFactory entityManagerFactory) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.validator = validator;
+        this.productReader = objectMapper.readerFor(Product.class);
+        // The statement Hibernate draws from the sequence with, in the SQL of whatever database the store runs on
+        this.nextIdBlock = entityManagerFactory.unwrap(SessionFactoryImplementor.class).getJdbcServices().getDialect()
+                .getSequenceSupport().getSequenceNextValString(Product.ID_SEQUENCE);
+    }
+
+    /*
+     * Expects a header line naming the "name" and "price" columns (in any order), one product per following line.
+     * Fields may be double-quoted to contain commas, quotes inside quoted fields are doubled. Line breaks inside fields are not supported.
+     */
+    public ProductImportDTO importCsv(InputStream inputStream) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+        String header = reader.readLine();
+        if(header == null) throw new IllegalArgumentException("CSV header is missing");
+
+        if(header.startsWith("\uFEFF")) header = header.substring(1);
+        List<String> columns = parseCsvLine(header.strip());
+        int nameColumn = columns.indexOf("name");
+        int priceColumn = columns.indexOf("price");
+        if(nameColumn < 0 || priceColumn < 0) throw new IllegalArgumentException("CSV header must contain the columns name and price");
+
+        return importLines(reader, 2, line -> {
+            List<String> fields = parseCsvLine(line);
+            if(fields.size() != columns.size()) {
+                throw new IllegalArgumentException("Expected " + columns.size() + " fields but found " + fields.size());
+            }
+            Product product = new Product();
+            product.setName(fields.get(nameColumn));
+            String price = fields.get(priceColumn).strip();
+            if(!price.isEmpty()) product.setPrice(new BigDecimal(price));
+            return product;
+        });
+    }
+
+    // One JSON product per line, ids and timestamps in the input are ignored
+    public ProductImportDTO importNdjson(InputStream inputStream) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+        return importLines(reader, 1, productReader::readValue);
+    }
+
+    private ProductImportDTO importLines(BufferedReader reader, long firstRow, RowParser parser) throws IOException {
+        ProductImportDTO result = new ProductImportDTO();
+        List<Product> batch = new ArrayList<>(BATCH_SIZE);
+        LocalDateTime createdTimestamp = LocalDateTime.now();
+        long row = firstRow - 1;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            row++;
+            if(line.isBlank()) continue;
+
+            Product product;
+            try {
+                product = parser.parse(line);
+            } catch (JsonProcessingException e) {
+                reportError(result, row, "Malformed JSON: " + e.getOriginalMessage());
+                continue;
+            } catch (NumberFormatException e) {
+                reportError(result, row, "Invalid price");
+                continue;
+            } catch (IllegalArgumentException e) {
+                reportError(result, row, e.getMessage());
+                continue;
+            }
+            Set<ConstraintViolation<Product>> violations = validator.validate(product);
+            if(!violations.isEmpty()) {
+                reportError(result, row, violations.iterator().next().getMessage());
+                continue;
+            }
+
+            product.setCreatedTimestamp(createdTimestamp);
+            batch.add(product);
+            if(batch.size() == BATCH_SIZE) {
+                insert(batch);
+                result.setImported(result.getImported() + batch.size());
+                batch.clear();
+            }
+        }
+        if(!batch.isEmpty()) {
+            insert(batch);
+            result.setImported(result.getImported() + batch.size());
+        }
+        return result;
+    }
+
+    // Every batch commits on its own, so a failure halfway keeps the rows imported before it
+    private void insert(List<Product> batch) {
+        transactionTemplate.executeWithoutResult(status -> {
+            long[] ids = allocateIds(batch.size());
+            List<Object[]> rows = new ArrayList<>(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                Product product = batch.get(i);
+                product.setId(ids[i]);
+                rows.add(new Object[]{product.getId(), product.getName(), product.getPrice(), product.getCreatedTimestamp()});
+            }
+            jdbcTemplate.batchUpdate(INSERT_PRODUCT, rows);
+        });
+    }
+
+    /*
+     * Draws ids the same way Hibernate's pooled optimizer does for Product, so both can share the sequence without collisions.
+     * One sequence call per block of ids, a batch of 1000 rows takes 20. The very first value of the sequence (1) only owns
+     * itself, hence the lower bound.
+     */
+    private long[] allocateIds(int count) {
+        long[] ids = new long[count];
+        int allocated = 0;
+        while (allocated < count) {
+            long highValue = jdbcTemplate.queryForObject(nextIdBlock, Long.class);
+            for (long id = Math.max(1, highValue - Product.ID_ALLOCATION_SIZE + 1); id <= highValue && allocated < count; id++) {
+                ids[allocated++] = id;
+            }
+        }
+        return ids;
+    }
+
+    private void reportError(ProductImportDTO result, long row, String message) {
+        result.setFailed(result.getFailed() + 1);
+        if(result.getErrors().size() < MAX_REPORTED_ERRORS) result.getErrors().add(new ProductImportDTO.RowError(row, message));
+    }
+
+    static List<String> parseCsvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if(quoted) {
+                if(c != '"') {
+                    field.append(c);
+                } else if(i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if(c == '"') {
+                quoted = true;
+            } else if(c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if(quoted) throw new IllegalArgumentException("Unterminated quoted field");
+        fields.add(field.toString());
+        return fields;
+    }
+
+    @FunctionalInterface
+    private interface RowParser {
+        Product parse(String line) throws IOException;
+    }
+}
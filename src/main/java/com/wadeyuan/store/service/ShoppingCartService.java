@@ -0,0 +1,165 @@
+package com.wadeyuan.store.service;
+
+import com.wadeyuan.store.datasource.ReadYourWrites;
+import com.wadeyuan.store.domain.Product;
+import com.wadeyuan.store.domain.ShoppingCart;
+import com.wadeyuan.store.pricing.DiscountRuleIndex;
+import com.wadeyuan.store.pricing.PricingEngine;
+import com.wadeyuan.store.repository.ShoppingCartRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.LockModeType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/*
+ * Cart mutations run in their own transaction and are checked against the cart's version on commit.
+ * A writer that lost the race is rolled back and replays its mutation on a freshly loaded cart, up to maxAttempts times,
+ * after which the ObjectOptimisticLockingFailureException propagates. Two writers adding the same new product lose the race on the
+ * unique (cart, product) constraint instead, since the item is inserted before the version is bumped, and are retried the same way,
+ * ending in a ConcurrencyFailureException. Any other integrity violation (e.g. a product deleted meanwhile) is not retried.
+ * The running totals of the cart are brought up to date in the same transaction.
+ */
+@Service
+public class ShoppingCartService implements CartStore {
+    private static final int MAX_BACKOFF_SHIFT = 6;
+    // The unique (cart, product) constraint, see V2 of the migrations
+    private static final String CART_LINE_CONSTRAINT = "uk_cart_item_shopping_cart_product";
+
+    private final ShoppingCartRepository shoppingCartRepository;
+    private final EntityManager entityManager;
+    private final PricingEngine pricingEngine;
+    private final DiscountRuleIndex discountRuleIndex;
+    private final TransactionTemplate transactionTemplate;
+    private final ReadYourWrites readYourWrites;
+    private final int maxAttempts;
+    private final long backoffNanos;
+    private final Counter conflicts;
+
+    public ShoppingCartService(ShoppingCartRepository shoppingCartRepository, EntityManager entityManager, PricingEngine pricingEngine, DiscountRuleIndex discountRuleIndex,
+                               PlatformTransactionManager transactionManager, ReadYourWrites readYourWrites, MeterRegistry meterRegistry, @Value("${store.cart.retry.max-attempts:10}") int maxAttempts, @Value("${store.cart.retry.backoff:5ms}") Duration backoff) {
+        this.shoppingCartRepository = shoppingCartRepository;
+        this.entityManager = entityManager;
+        this.pricingEngine = pricingEngine;
+        this.discountRuleIndex = discountRuleIndex;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.readYourWrites = readYourWrites;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffNanos = backoff.toNanos();
+        this.conflicts = Counter.builder("store.cart.conflicts")
+                .description("Cart mutations retried after losing an optimistic lock race")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public <T> Optional<T> update(long shoppingCartId, Consumer<ShoppingCart> mutation, Function<ShoppingCart, T> view) {
+        ShoppingCart savedShoppingCart = withRetry(status -> {
+            ShoppingCart shoppingCart = shoppingCartRepository.findWithItemsById(shoppingCartId).orElse(null);
+            if(shoppingCart == null) return null;
+
+            // Quantity changes only touch the cart items, forcing the increment makes them conflict on the cart row too
+            entityManager.lock(shoppingCart, LockModeType.OPTIMISTIC_FORCE_INCREMENT);
+            mutation.accept(shoppingCart);
+            shoppingCart.setLastModified(LocalDateTime.now());
+            pricingEngine.reprice(shoppingCart, discountRuleIndex);
+            return shoppingCartRepository.save(shoppingCart);
+        });
+        if(savedShoppingCart == null) return Optional.empty();
+
+        readYourWrites.cartWritten(shoppingCartId);
+        // Taken after the commit, which is when the version is bumped
+        return Optional.ofNullable(view.apply(savedShoppingCart));
+    }
+
+    @Override
+    public boolean delete(long shoppingCartId) {
+        boolean deleted = withRetry(status -> {
+            ShoppingCart shoppingCart = shoppingCartRepository.findWithItemsById(shoppingCartId).orElse(null);
+            if(shoppingCart == null) return false;
+
+            shoppingCartRepository.delete(shoppingCart);
+            return true;
+        });
+        if(deleted) readYourWrites.cartWritten(shoppingCartId);
+        return deleted;
+    }
+
+    // Every change is written through, the database is always up to date
+    @Override
+    public <T> Optional<T> viewResident(long shoppingCartId, Function<ShoppingCart, T> view) {
+        return Optional.empty();
+    }
+
+    @Override
+    public boolean isResident(long shoppingCartId) {
+        return false;
+    }
+
+    @Override
+    public <T> T withoutResident(List<Long> shoppingCartIds, Function<List<Long>, T> action) {
+        return action.apply(shoppingCartIds);
+    }
+
+    // Nothing is held in memory, the rows are flagged already and every view joins the product row
+    @Override
+    public void markResidentStaleByProductId(long productId) {
+    }
+
+    @Override
+    public void refreshProduct(Product product) {
+    }
+
+    private <T> T withRetry(TransactionCallback<T> callback) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return transactionTemplate.execute(callback);
+            } catch (ObjectOptimisticLockingFailureException | DataIntegrityViolationException e) {
+                ConcurrencyFailureException conflict = asConflict(e);
+                if(conflict == null || attempt >= maxAttempts) throw conflict == null ? e : conflict;
+                conflicts.increment();
+                backoff(attempt, conflict);
+            }
+        }
+    }
+
+    // The lost race the exception stands for, or null for an integrity violation that trying again won't resolve
+    private static ConcurrencyFailureException asConflict(RuntimeException e) {
+        if(e instanceof ConcurrencyFailureException conflict) return conflict;
+        // Matched on the message, drivers differ in how they report the name of the violated constraint
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if(String.valueOf(cause.getMessage()).toLowerCase(Locale.ROOT).contains(CART_LINE_CONSTRAINT)) {
+                return new ConcurrencyFailureException("Another writer added the same product to the cart", e);
+            }
+        }
+        return null;
+    }
+
+    // Exponential backoff with full jitter, so writers that collided once don't collide again in lockstep
+    private void backoff(int attempt, RuntimeException conflict) {
+        long bound = backoffNanos << Math.min(attempt - 1, MAX_BACKOFF_SHIFT);
+        if(bound <= 0) return;
+        try {
+            TimeUnit.NANOSECONDS.sleep(ThreadLocalRandom.current().nextLong(bound));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw conflict;
+        }
+    }
+}
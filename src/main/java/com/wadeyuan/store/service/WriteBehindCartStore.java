@@ -0,0 +1,443 @@
+package com.wadeyuan.store.service;
+
+import com.wadeyuan.store.datasource.ReadYourWrites;
+import com.wadeyuan.store.domain.CartItem;
+import com.wadeyuan.store.domain.Product;
+import com.wadeyuan.store.domain.ShoppingCart;
+import com.wadeyuan.store.pricing.DiscountRuleIndex;
+import com.wadeyuan.store.pricing.PricingEngine;
+import com.wadeyuan.store.repository.ShoppingCartRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/*
+ * Keeps active carts in memory, so a mutation is a little work under the cart's own lock rather than a database round trip.
+ * A cart is loaded on its first use. A mutation changes and prices a copy, which replaces the cart only once all of that
+ * succeeded, so a mutation failing halfway leaves the cart as it was. Changed carts wait in a bounded queue and are merged into the
+ * database every flush interval, a batch of carts per transaction. When the queue stays full the mutating request persists
+ * its cart itself, which slows writers down to the pace of the database instead of letting the backlog grow.
+ * Persisted carts left alone for the idle timeout are dropped from memory, and everything still queued is flushed on shutdown.
+ *
+ * Changes acknowledged since the last flush are lost if the process dies, a shorter flush interval narrows that window.
+ * The store takes itself as the owner of the carts it holds: it has to be the only writer of them, e.g. a single node.
+ * Other writers only bump a cart's version (flagging it stale after a price change), so on such a conflict the cart held
+ * here is repriced and written over the newer version.
+ */
+@Service
+@Primary
+@ConditionalOnProperty(name = "store.cart.write-behind.enabled", havingValue = "true")
+public class WriteBehindCartStore implements CartStore {
+    private static final Logger log = LoggerFactory.getLogger(WriteBehindCartStore.class);
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    private final ShoppingCartRepository shoppingCartRepository;
+    private final ShoppingCartService shoppingCartService;
+    private final EntityManager entityManager;
+    private final PricingEngine pricingEngine;
+    private final DiscountRuleIndex discountRuleIndex;
+    private final TransactionTemplate transactionTemplate;
+    private final ReadYourWrites readYourWrites;
+    private final Map<Long, Entry> carts = new ConcurrentHashMap<>();
+    private final BlockingQueue<Entry> dirtyQueue;
+    private final ScheduledExecutorService flusher;
+    private final int batchSize;
+    private final long enqueueTimeoutNanos;
+    private final long idleTimeoutNanos;
+    private final Timer flushTimer;
+    private final Counter backpressure;
+    private final Counter discarded;
+
+    public WriteBehindCartStore(ShoppingCartRepository shoppingCartRepository, ShoppingCartService shoppingCartService, EntityManager entityManager,
+                                PricingEngine pricingEngine, DiscountRuleIndex discountRuleIndex, PlatformTransactionManager transactionManager, ReadYourWrites readYourWrites, MeterRegistry meterRegistry,
+                                @Value("${store.cart.write-behind.flush-interval:200ms}") Duration flushInterval,
+                                @Value("${store.cart.write-behind.batch-size:500}") int batchSize,
+                                @Value("${store.cart.write-behind.max-dirty:10000}") int maxDirty,
+                                @Value("${store.cart.write-behind.enqueue-timeout:100ms}") Duration enqueueTimeout,
+                                @Value("${store.cart.write-behind.idle-timeout:5m}") Duration idleTimeout) {
+        this.shoppingCartRepository = shoppingCartRepository;
+        this.shoppingCartService = shoppingCartService;
+        this.entityManager = entityManager;
+        this.pricingEngine = pricingEngine;
+        this.discountRuleIndex = discountRuleIndex;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.readYourWrites = readYourWrites;
+        this.dirtyQueue = new ArrayBlockingQueue<>(Math.max(1, maxDirty));
+        this.batchSize = Math.max(1, batchSize);
+        this.enqueueTimeoutNanos = enqueueTimeout.toNanos();
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+        this.flushTimer = Timer.builder("store.cart.write-behind.flush.duration")
+                .description("Time to persist one batch of changed carts")
+                .register(meterRegistry);
+        this.backpressure = Counter.builder("store.cart.write-behind.backpressure")
+                .description("Cart changes persisted by the request itself because the dirty queue was full")
+                .register(meterRegistry);
+        this.discarded = Counter.builder("store.cart.write-behind.discarded")
+                .description("Carts dropped from memory with unpersisted changes, after losing a conflict twice or being deleted meanwhile")
+                .register(meterRegistry);
+        Gauge.builder("store.cart.write-behind.resident", carts, Map::size)
+                .description("Carts held in memory")
+                .register(meterRegistry);
+        Gauge.builder("store.cart.write-behind.dirty", dirtyQueue, BlockingQueue::size)
+                .description("Changed carts waiting to be persisted")
+                .register(meterRegistry);
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cart-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalNanos = Math.max(1, flushInterval.toNanos());
+        flusher.scheduleWithFixedDelay(this::flushAndSweep, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public <T> Optional<T> update(long shoppingCartId, Consumer<ShoppingCart> mutation, Function<ShoppingCart, T> view) {
+        Entry entry = lock(shoppingCartId);
+        if(entry == null) return Optional.empty();
+
+        T result;
+        boolean enqueue;
+        try {
+            ShoppingCart cart = entry.cart.copy();
+            mutation.accept(cart);
+            cart.setLastModified(LocalDateTime.now());
+            pricingEngine.reprice(cart, discountRuleIndex);
+            result = view.apply(cart);
+            // Nothing left that can throw, the change takes effect
+            entry.cart = cart;
+            enqueue = markDirty(entry);
+        } finally {
+            entry.lock.unlock();
+        }
+        if(enqueue) enqueue(entry);
+        return Optional.ofNullable(result);
+    }
+
+    @Override
+    public boolean delete(long shoppingCartId) {
+        Entry entry = lock(shoppingCartId);
+        if(entry == null) return false;
+
+        // Deleted while locked, so nobody loads the cart again in between, a queued change of it is skipped by the flush
+        try {
+            entry.removed = true;
+            carts.remove(shoppingCartId, entry);
+            return shoppingCartService.delete(shoppingCartId);
+        } finally {
+            entry.lock.unlock();
+        }
+    }
+
+    @Override
+    public <T> Optional<T> viewResident(long shoppingCartId, Function<ShoppingCart, T> view) {
+        Entry entry = carts.get(shoppingCartId);
+        if(entry == null) return Optional.empty();
+
+        // A view changes nothing, a stale cart keeps its totals until its next change reprices it
+        entry.lock.lock();
+        try {
+            // Dropped from memory only once persisted (or deleted), the database is up to date then
+            if(entry.removed) return Optional.empty();
+            entry.lastUsed = System.nanoTime();
+            return Optional.ofNullable(view.apply(entry.cart));
+        } finally {
+            entry.lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isResident(long shoppingCartId) {
+        return carts.containsKey(shoppingCartId);
+    }
+
+    @Override
+    public <T> T withoutResident(List<Long> shoppingCartIds, Function<List<Long>, T> action) {
+        // Placeholders, locked before anyone can see them: a request for one of these carts waits for the action to return
+        // and then loads the cart again, if it is still there
+        List<Entry> claimed = new ArrayList<>(shoppingCartIds.size());
+        try {
+            for (long shoppingCartId : shoppingCartIds) {
+                Entry placeholder = new Entry(shoppingCartId, null);
+                placeholder.lock.lock();
+                if(carts.putIfAbsent(shoppingCartId, placeholder) == null) {
+                    claimed.add(placeholder);
+                } else {
+                    placeholder.lock.unlock();
+                }
+            }
+            return action.apply(claimed.stream().map(entry -> entry.id).toList());
+        } finally {
+            for (Entry entry : claimed) {
+                entry.removed = true;
+                carts.remove(entry.id, entry);
+                entry.lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void markResidentStaleByProductId(long productId) {
+        for (Entry entry : carts.values()) {
+            entry.lock.lock();
+            try {
+                if(!entry.removed && entry.cart.getCartItemByProductId(productId) != null) entry.cart.setStale(true);
+            } finally {
+                entry.lock.unlock();
+            }
+        }
+    }
+
+    // Lines keep the product they were loaded or added with, which would otherwise show its old name and price until the cart is evicted
+    @Override
+    public void refreshProduct(Product product) {
+        for (Entry entry : carts.values()) {
+            entry.lock.lock();
+            try {
+                CartItem item = entry.removed ? null : entry.cart.getCartItemByProductId(product.getId());
+                if(item != null) item.setProduct(product);
+            } finally {
+                entry.lock.unlock();
+            }
+        }
+    }
+
+    // Persists every change still in memory, the web server has stopped taking requests by now
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        flusher.shutdown();
+        if(!flusher.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) log.warn("Cart write-behind flush still running at shutdown");
+
+        List<Entry> batch = new ArrayList<>(batchSize);
+        for (Entry entry : carts.values()) {
+            batch.add(entry);
+            if(batch.size() == batchSize) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+        if(!batch.isEmpty()) flush(batch);
+    }
+
+    // Returns the locked entry of the cart, loading the cart on a miss, or null when the cart doesn't exist
+    private Entry lock(long shoppingCartId) {
+        while (true) {
+            Entry entry = carts.get(shoppingCartId);
+            if(entry == null) {
+                ShoppingCart cart = load(shoppingCartId);
+                if(cart == null) return null;
+                Entry loaded = new Entry(shoppingCartId, cart);
+                entry = carts.putIfAbsent(shoppingCartId, loaded);
+                if(entry == null) entry = loaded;
+            }
+            entry.lock.lock();
+            if(!entry.removed) {
+                entry.lastUsed = System.nanoTime();
+                return entry;
+            }
+            // Dropped from memory meanwhile, the database is up to date, start over
+            entry.lock.unlock();
+        }
+    }
+
+    private ShoppingCart load(long shoppingCartId) {
+        return transactionTemplate.execute(status -> {
+            ShoppingCart cart = shoppingCartRepository.findWithItemsById(shoppingCartId).orElse(null);
+            // Lives on across requests, so it must not stay attached to this one's persistence context
+            if(cart != null) entityManager.detach(cart);
+            return cart;
+        });
+    }
+
+    // Call with the entry locked, returns whether the entry has to be put into the dirty queue
+    private boolean markDirty(Entry entry) {
+        entry.dirty = true;
+        if(entry.queued) return false;
+        entry.queued = true;
+        return true;
+    }
+
+    private void enqueue(Entry entry) {
+        try {
+            if(dirtyQueue.offer(entry, enqueueTimeoutNanos, TimeUnit.NANOSECONDS)) return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // The flush can't keep up, this request persists its own change before it is acknowledged
+        backpressure.increment();
+        flush(List.of(entry));
+    }
+
+    private void flushAndSweep() {
+        try {
+            List<Entry> batch = new ArrayList<>(batchSize);
+            while (dirtyQueue.drainTo(batch, batchSize) > 0) {
+                flush(batch);
+                batch.clear();
+            }
+            sweep();
+        } catch (RuntimeException e) {
+            // Keeps the schedule alive, the carts concerned are still dirty and are picked up again by the next sweep
+            log.error("Cart write-behind flush failed", e);
+        }
+    }
+
+    private void flush(List<Entry> batch) {
+        long start = System.nanoTime();
+        // Held until the batch is committed, so no change can slip in between persisting a cart and marking it clean
+        List<Entry> locked = new ArrayList<>(batch.size());
+        try {
+            List<Entry> dirty = new ArrayList<>(batch.size());
+            for (Entry entry : batch) {
+                entry.lock.lock();
+                locked.add(entry);
+                entry.queued = false;
+                if(entry.dirty && !entry.removed) dirty.add(entry);
+            }
+            if(dirty.isEmpty()) return;
+
+            try {
+                persist(dirty);
+            } catch (RuntimeException e) {
+                // One cart spoils the whole transaction, find out which by persisting them one at a time
+                for (Entry entry : dirty) {
+                    persistAlone(entry);
+                }
+            }
+        } finally {
+            locked.forEach(entry -> entry.lock.unlock());
+            flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // Call with the entries locked
+    private void persist(List<Entry> entries) {
+        List<Entry> existing = new ArrayList<>(entries.size());
+        List<Entry> deleted = new ArrayList<>();
+        List<ShoppingCart> saved = transactionTemplate.execute(status -> {
+            // Merging a cart that was deleted meanwhile would insert it again, it is dropped instead
+            Set<Long> existingIds = new HashSet<>(shoppingCartRepository.findIdsByIdIn(entries.stream().map(entry -> entry.id).toList()));
+            for (Entry entry : entries) {
+                (existingIds.contains(entry.id) ? existing : deleted).add(entry);
+            }
+            List<ShoppingCart> merged = shoppingCartRepository.saveAll(existing.stream().map(entry -> entry.cart).toList());
+            shoppingCartRepository.flush();
+            // The merged copies carry the ids of new items and the bumped version, they replace the carts held in memory
+            merged.forEach(entityManager::detach);
+            return merged;
+        });
+        for (int i = 0; i < existing.size(); i++) {
+            existing.get(i).cart = saved.get(i);
+            existing.get(i).dirty = false;
+            // Once evicted, the cart is read from the database again
+            readYourWrites.cartWritten(existing.get(i).id);
+        }
+        for (Entry entry : deleted) {
+            log.warn("Cart {} was deleted meanwhile, dropping its unpersisted changes", entry.id);
+            discard(entry);
+        }
+    }
+
+    // Call with the entry locked
+    private void persistAlone(Entry entry) {
+        try {
+            persist(List.of(entry));
+        } catch (ObjectOptimisticLockingFailureException conflict) {
+            Long version = shoppingCartRepository.findVersionById(entry.id).orElse(null);
+            if(version == null) {
+                log.warn("Cart {} was deleted meanwhile, dropping its unpersisted changes", entry.id);
+                discard(entry);
+                return;
+            }
+            // Another writer bumped the version, e.g. flagging the cart stale. Take it over and price the cart afresh
+            entry.cart.setVersion(version);
+            entry.cart.setStale(true);
+            pricingEngine.reprice(entry.cart, discountRuleIndex);
+            try {
+                persist(List.of(entry));
+            } catch (RuntimeException e) {
+                log.warn("Cart {} lost a second conflict, dropping its unpersisted changes", entry.id, e);
+                discard(entry);
+            }
+        } catch (RuntimeException e) {
+            // Stays dirty, the next sweep queues it again
+            log.error("Could not persist cart {}", entry.id, e);
+        }
+    }
+
+    // Call with the entry locked
+    private void discard(Entry entry) {
+        discarded.increment();
+        entry.removed = true;
+        carts.remove(entry.id, entry);
+    }
+
+    private void sweep() {
+        long now = System.nanoTime();
+        for (Entry entry : carts.values()) {
+            // A cart in use is looked at again next time
+            if(!entry.lock.tryLock()) continue;
+            try {
+                if(entry.removed) continue;
+                if(entry.dirty) {
+                    if(!entry.queued && dirtyQueue.offer(entry)) entry.queued = true;
+                } else if(!entry.queued && now - entry.lastUsed > idleTimeoutNanos) {
+                    entry.removed = true;
+                    carts.remove(entry.id, entry);
+                }
+            } finally {
+                entry.lock.unlock();
+            }
+        }
+    }
+
+    // A cart held in memory, every field but the id is guarded by the lock
+    private static final class Entry {
+        final long id;
+        final ReentrantLock lock = new ReentrantLock();
+        // Null in a placeholder of withoutResident, which is removed by the time anyone else gets its lock
+        ShoppingCart cart;
+        long lastUsed = System.nanoTime();
+        // Changed since it was last persisted
+        boolean dirty;
+        // Waiting in the dirty queue, or being persisted by the request that couldn't queue it
+        boolean queued;
+        // Dropped from memory, whoever still holds the entry has to look the cart up again
+        boolean removed;
+
+        Entry(long id, ShoppingCart cart) {
+            this.id = id;
+            this.cart = cart;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+-- The schema as Hibernate generated it with ddl-auto, the starting point of every existing database
+
+create sequence product_seq start with 1 increment by 50;
+create sequence discount_seq start with 1 increment by 50;
+create sequence cart_item_seq start with 1 increment by 50;
+create sequence shopping_cart_seq start with 1 increment by 50;
+
+create table product (
+    id bigint not null,
+    name varchar(255),
+    price numeric(38,2),
+    created_timestamp timestamp(6),
+    primary key (id)
+);
+
+create table discount (
+    id bigint not null,
+    required_product_id bigint,
+    required_quantity integer not null,
+    target_product_id bigint,
+    discount_type tinyint check (discount_type between 0 and 1),
+    discount_value numeric(38,2),
+    enabled boolean not null,
+    primary key (id)
+);
+
+create table cart_item (
+    id bigint not null,
+    product_id bigint,
+    quantity integer not null,
+    line_amount bigint not null,
+    discount_amount bigint not null,
+    primary key (id)
+);
+
+create table shopping_cart (
+    id bigint not null,
+    version bigint not null,
+    total_amount bigint not null,
+    discount_amount bigint not null,
+    stale boolean not null,
+    last_modified timestamp(6),
+    primary key (id)
+);
+
+create table shopping_cart_items (
+    shopping_cart_id bigint not null,
+    items_id bigint not null unique
+);
+
+create index idx_shopping_cart_last_modified on shopping_cart (last_modified);
+
+alter table discount add constraint fk_discount_required_product foreign key (required_product_id) references product;
+alter table discount add constraint fk_discount_target_product foreign key (target_product_id) references product;
+alter table cart_item add constraint fk_cart_item_product foreign key (product_id) references product;
+alter table shopping_cart_items add constraint fk_shopping_cart_items_item foreign key (items_id) references cart_item;
+alter table shopping_cart_items add constraint fk_shopping_cart_items_cart foreign key (shopping_cart_id) references shopping_cart;
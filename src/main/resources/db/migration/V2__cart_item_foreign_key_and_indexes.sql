@@ -0,0 +1,33 @@
+-- Items reference their cart directly instead of through the shopping_cart_items join table
+
+alter table cart_item add column shopping_cart_id bigint;
+
+update cart_item i set shopping_cart_id = (select j.shopping_cart_id from shopping_cart_items j where j.items_id = i.id);
+
+-- Items no cart refers to can't be reached anymore
+delete from cart_item where shopping_cart_id is null;
+
+alter table cart_item alter column shopping_cart_id set not null;
+
+drop table shopping_cart_items;
+
+alter table cart_item add constraint fk_cart_item_shopping_cart foreign key (shopping_cart_id) references shopping_cart;
+
+-- Carts written before may hold several lines of the same product. They are merged into the oldest line, and the cart is
+-- flagged stale since the totals of the merged line are no longer right
+update shopping_cart c set stale = true
+where exists (select 1 from cart_item d where d.shopping_cart_id = c.id group by d.product_id having count(*) > 1);
+
+update cart_item i set quantity = (select sum(d.quantity) from cart_item d where d.shopping_cart_id = i.shopping_cart_id and d.product_id = i.product_id)
+where exists (select 1 from cart_item d where d.shopping_cart_id = i.shopping_cart_id and d.product_id = i.product_id and d.id > i.id)
+  and not exists (select 1 from cart_item d where d.shopping_cart_id = i.shopping_cart_id and d.product_id = i.product_id and d.id < i.id);
+
+delete from cart_item i
+where exists (select 1 from cart_item d where d.shopping_cart_id = i.shopping_cart_id and d.product_id = i.product_id and d.id < i.id);
+
+-- One line per product in a cart. The index behind it also serves loading the items of a cart and the reaper's deletes
+alter table cart_item add constraint uk_cart_item_shopping_cart_product unique (shopping_cart_id, product_id);
+
+-- The reactive variant looks up the enabled discounts of a cart's products on every calculation and quote. The servlet stack
+-- reads all enabled discounts once into DiscountRuleIndex and doesn't use it
+create index idx_discount_target_product_enabled on discount (target_product_id, enabled);
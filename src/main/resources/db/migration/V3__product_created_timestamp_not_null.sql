@@ -0,0 +1,6 @@
+-- Products are listed page by page after the (created_timestamp, id) of the last one, a product without a timestamp
+-- matches no cursor and drops out of the listing. Every insert sets it, older rows are dated to the epoch and come first
+
+update product set created_timestamp = timestamp '1970-01-01 00:00:00' where created_timestamp is null;
+
+alter table product alter column created_timestamp set not null;
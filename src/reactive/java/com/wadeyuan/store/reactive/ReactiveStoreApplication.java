@@ -0,0 +1,30 @@
+package com.wadeyuan.store.reactive;
+
+import com.wadeyuan.store.pricing.PricingEngine;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.annotation.Bean;
+
+/*
+    The store on WebFlux and R2DBC, serving the same API as ElectronicsStoreApplication on a few event loop threads.
+    Only this package is scanned, the pricing engine and the DTOs of the servlet stack are reused as plain classes.
+    Settings come from reactive.yml, so the application.yml of the servlet stack on the same classpath is never read.
+ */
+@SpringBootApplication
+public class ReactiveStoreApplication {
+
+	public static void main(String[] args) {
+		new SpringApplicationBuilder(ReactiveStoreApplication.class)
+				.web(WebApplicationType.REACTIVE)
+				.properties("spring.config.name=reactive")
+				.run(args);
+	}
+
+	// Unit prices are taken from the product rows that were just read, as on the servlet stack
+	@Bean
+	public PricingEngine pricingEngine(MeterRegistry meterRegistry) {
+		return new PricingEngine(meterRegistry);
+	}
+}
@@ -0,0 +1,70 @@
+package com.wadeyuan.store.reactive.controller;
+
+import com.wadeyuan.store.constants.DiscountType;
+import com.wadeyuan.store.domain.Discount;
+import com.wadeyuan.store.reactive.repository.ReactiveDiscountRepository;
+import com.wadeyuan.store.reactive.repository.ReactiveProductRepository;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.net.URI;
+
+// Same contract as DiscountController. Discounts are read at pricing time, there is no rule index or cart to update
+@RestController
+@RequestMapping(value = "/discounts")
+public class ReactiveDiscountController {
+    private final ReactiveDiscountRepository discountRepository;
+    private final ReactiveProductRepository productRepository;
+
+    public ReactiveDiscountController(ReactiveDiscountRepository discountRepository, ReactiveProductRepository productRepository) {
+        this.discountRepository = discountRepository;
+        this.productRepository = productRepository;
+    }
+
+    @PostMapping
+    public Mono<ResponseEntity<Discount>> createDiscount(@RequestBody Discount discount, ServerHttpRequest request) {
+        // An incomplete discount is rejected before anything is stored, like on the servlet stack
+        if(discount.getRequiredProduct() == null || discount.getTargetProduct() == null
+                || discount.getDiscountType() == null || discount.getDiscountValue() == null) return Mono.just(ResponseEntity.badRequest().build());
+
+        discount.setEnabled(true);
+        // Answered with the full products, like the servlet stack
+        return Mono.zip(productRepository.findById(discount.getRequiredProduct().getId()), productRepository.findById(discount.getTargetProduct().getId()))
+                .flatMap(products -> {
+                    discount.setRequiredProduct(products.getT1());
+                    discount.setTargetProduct(products.getT2());
+                    return discountRepository.insert(discount);
+                })
+                .map(createdDiscount -> {
+                    URI location = UriComponentsBuilder.fromUri(request.getURI())
+                            .replacePath("/discounts/{id}")
+                            .replaceQuery(null)
+                            .buildAndExpand(createdDiscount.getId())
+                            .toUri();
+                    return ResponseEntity.created(location).body(createdDiscount);
+                })
+                .defaultIfEmpty(ResponseEntity.badRequest().build());
+    }
+
+    @PostMapping(value = "/simpleDiscount/product/{productId}")
+    public Mono<ResponseEntity<Discount>> createSimpleDiscount(@RequestParam Integer requiredQuantity, @RequestParam BigDecimal percentageOff, @PathVariable Long productId,
+                                                               ServerHttpRequest request) {
+        // Buy x and the remaining ones get y% off: the required product is the target product
+        return productRepository.findById(productId)
+                .flatMap(product -> {
+                    Discount simpleDiscount = new Discount(0, product, requiredQuantity, product, DiscountType.PERCENTAGE, percentageOff, true);
+                    return createDiscount(simpleDiscount, request);
+                })
+                .defaultIfEmpty(ResponseEntity.badRequest().build());
+    }
+
+    @DeleteMapping(value = "/{discountId}")
+    public Mono<ResponseEntity<Discount>> deleteDiscount(@PathVariable Long discountId) {
+        return discountRepository.deleteById(discountId)
+                .map(deleted -> deleted > 0 ? ResponseEntity.ok().<Discount>build() : ResponseEntity.notFound().<Discount>build());
+    }
+}
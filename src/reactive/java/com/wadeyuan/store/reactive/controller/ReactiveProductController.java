@@ -0,0 +1,113 @@
+package com.wadeyuan.store.reactive.controller;
+
+import com.wadeyuan.store.domain.Product;
+import com.wadeyuan.store.reactive.repository.ReactiveProductRepository;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.time.LocalDateTime;
+import java.util.List;
+
+// Same contract as ProductController, without the bulk import and the entity tags
+@RestController
+@RequestMapping(value = "/products")
+public class ReactiveProductController {
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    private final ReactiveProductRepository productRepository;
+
+    public ReactiveProductController(ReactiveProductRepository productRepository) {
+        this.productRepository = productRepository;
+    }
+
+    @PostMapping
+    public Mono<ResponseEntity<Product>> createProduct(@RequestBody Product product, ServerHttpRequest request) {
+        product.setCreatedTimestamp(LocalDateTime.now());
+        return productRepository.insert(product)
+                .map(createdProduct -> {
+                    URI location = UriComponentsBuilder.fromUri(request.getURI())
+                            .path("/{id}")
+                            .buildAndExpand(createdProduct.getId())
+                            .toUri();
+                    return ResponseEntity.created(location).body(createdProduct);
+                });
+    }
+
+    @GetMapping(value = "/{productId}")
+    public Mono<ResponseEntity<Product>> getProduct(@PathVariable Long productId) {
+        return productRepository.findById(productId)
+                .map(ResponseEntity::ok)
+                .defaultIfEmpty(ResponseEntity.notFound().build());
+    }
+
+    @GetMapping
+    public Mono<ResponseEntity<List<Product>>> listProducts(@RequestParam(defaultValue = "id") String sort,
+                                                            @RequestParam(required = false) Long afterId,
+                                                            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime afterTimestamp,
+                                                            @RequestParam(defaultValue = "100") int limit,
+                                                            ServerHttpRequest request) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        Flux<Product> products;
+        switch (sort) {
+            case "id" -> products = productRepository.findByIdGreaterThanOrderByIdAsc(afterId == null ? 0 : afterId, pageSize);
+            case "createdTimestamp" -> {
+                // The cursor is the (createdTimestamp, id) pair of the last product, ids break ties between equal timestamps
+                if(afterTimestamp == null) {
+                    products = productRepository.findFirstPageOrderByCreatedTimestamp(pageSize);
+                } else {
+                    products = productRepository.findPageAfterCreatedTimestamp(afterTimestamp, afterId == null ? 0 : afterId, pageSize);
+                }
+            }
+            default -> {
+                return Mono.just(ResponseEntity.badRequest().build());
+            }
+        }
+        return products.collectList().map(page -> {
+            if(page.size() < pageSize) return ResponseEntity.ok(page);
+
+            // A full page may have a successor, point to it with a Link header so the body stays a plain list
+            Product last = page.get(page.size() - 1);
+            UriComponentsBuilder next = UriComponentsBuilder.fromUri(request.getURI())
+                    .replaceQueryParam("sort", sort)
+                    .replaceQueryParam("limit", pageSize)
+                    .replaceQueryParam("afterId", last.getId())
+                    .replaceQueryParam("afterTimestamp");
+            if(sort.equals("createdTimestamp")) next.replaceQueryParam("afterTimestamp", last.getCreatedTimestamp());
+            return ResponseEntity.ok()
+                    .header(HttpHeaders.LINK, "<" + next.toUriString() + ">; rel=\"next\"")
+                    .body(page);
+        });
+    }
+
+    // One JSON document per line, rows are read from the cursor only as fast as the client takes them
+    @GetMapping(value = "/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<Product> streamProducts() {
+        return productRepository.streamAllOrderById();
+    }
+
+    @DeleteMapping(value = "/{productId}")
+    public Mono<ResponseEntity<Long>> deleteProduct(@PathVariable Long productId) {
+        return productRepository.deleteById(productId)
+                .map(deleted -> deleted > 0 ? ResponseEntity.ok().<Long>build() : ResponseEntity.notFound().<Long>build());
+    }
+
+    // Carts are priced from current prices on every calculation, so there are no totals to mark stale
+    @PutMapping(value = "/{productId}")
+    public Mono<ResponseEntity<Product>> updateProduct(@PathVariable Long productId, @RequestBody Product product) {
+        return productRepository.findById(productId)
+                .flatMap(existingProduct -> {
+                    product.setId(productId);
+                    product.setCreatedTimestamp(existingProduct.getCreatedTimestamp());
+                    return productRepository.update(product).thenReturn(ResponseEntity.ok(product));
+                })
+                .defaultIfEmpty(ResponseEntity.notFound().build());
+    }
+}
@@ -0,0 +1,118 @@
+package com.wadeyuan.store.reactive.controller;
+
+import com.wadeyuan.store.domain.CartItem;
+import com.wadeyuan.store.domain.ShoppingCart;
+import com.wadeyuan.store.dto.CartDTO;
+import com.wadeyuan.store.dto.QuoteItemDTO;
+import com.wadeyuan.store.dto.ShoppingCartDTO;
+import com.wadeyuan.store.reactive.repository.ReactiveProductRepository;
+import com.wadeyuan.store.reactive.repository.ReactiveShoppingCartRepository;
+import com.wadeyuan.store.reactive.service.ReactiveShoppingCartService;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+// Same contract as ShoppingCartController, without the batch update, the bulk pricing stream and the entity tags
+@RestController
+@RequestMapping(value = "/shopping-carts")
+public class ReactiveShoppingCartController {
+    private final ReactiveShoppingCartRepository shoppingCartRepository;
+    private final ReactiveProductRepository productRepository;
+    private final ReactiveShoppingCartService shoppingCartService;
+
+    public ReactiveShoppingCartController(ReactiveShoppingCartRepository shoppingCartRepository, ReactiveProductRepository productRepository,
+                                          ReactiveShoppingCartService shoppingCartService) {
+        this.shoppingCartRepository = shoppingCartRepository;
+        this.productRepository = productRepository;
+        this.shoppingCartService = shoppingCartService;
+    }
+
+    @PostMapping
+    public Mono<ResponseEntity<CartDTO>> createShoppingCart(@RequestBody ShoppingCart shoppingCart, ServerHttpRequest request) {
+        List<CartItem> items = shoppingCart.getItems() == null ? List.of() : shoppingCart.getItems();
+        if(items.stream().anyMatch(item -> item == null || item.getProduct() == null || item.getQuantity() <= 0)) return Mono.just(ResponseEntity.badRequest().build());
+
+        // Lines posted for the same product are merged into one, a cart holds one line per product
+        ShoppingCart mergedShoppingCart = new ShoppingCart(0, new ArrayList<>());
+        for (CartItem item : items) {
+            mergedShoppingCart.addToCart(item.getProduct(), item.getQuantity());
+        }
+        // Read back, so lines posted with a product id only are answered with the product's name and price
+        return shoppingCartRepository.insert(mergedShoppingCart)
+                .flatMap(id -> shoppingCartRepository.findLinesById(id).map(lines -> {
+                    URI location = UriComponentsBuilder.fromUri(request.getURI())
+                            .path("/{id}")
+                            .buildAndExpand(id)
+                            .toUri();
+                    return ResponseEntity.created(location).body(CartDTO.of(lines));
+                }));
+    }
+
+    @GetMapping(value = "/{shoppingCartId}")
+    public Mono<ResponseEntity<CartDTO>> getShoppingCart(@PathVariable Long shoppingCartId) {
+        return shoppingCartRepository.findLinesById(shoppingCartId)
+                .map(lines -> lines.isEmpty() ? ResponseEntity.notFound().<CartDTO>build() : ResponseEntity.ok(CartDTO.of(lines)));
+    }
+
+    @PutMapping(value = "/{shoppingCartId}/add/{productId}")
+    public Mono<ResponseEntity<CartDTO>> addToShoppingCart(@PathVariable Long shoppingCartId, @PathVariable Long productId, @RequestParam Integer quantity) {
+        if(quantity <= 0) return Mono.just(ResponseEntity.badRequest().build());
+
+        return updateIfProductExists(productId, () -> shoppingCartService.update(shoppingCartId, shoppingCartRepository.addToCart(shoppingCartId, productId, quantity)));
+    }
+
+    @PutMapping(value = "/{shoppingCartId}/remove/{productId}")
+    public Mono<ResponseEntity<CartDTO>> removeFromShoppingCart(@PathVariable Long shoppingCartId, @PathVariable Long productId, @RequestParam Integer quantity) {
+        if(quantity <= 0) return Mono.just(ResponseEntity.badRequest().build());
+
+        return updateIfProductExists(productId, () -> shoppingCartService.update(shoppingCartId, shoppingCartRepository.removeFromCart(shoppingCartId, productId, quantity)));
+    }
+
+    @PutMapping(value = "/{shoppingCartId}/clear")
+    public Mono<ResponseEntity<CartDTO>> clearCart(@PathVariable Long shoppingCartId) {
+        return shoppingCartService.update(shoppingCartId, shoppingCartRepository.clearCart(shoppingCartId))
+                .map(ResponseEntity::ok)
+                .defaultIfEmpty(ResponseEntity.notFound().build());
+    }
+
+    @DeleteMapping(value = "/{shoppingCartId}")
+    public Mono<ResponseEntity<Void>> deleteShoppingCart(@PathVariable Long shoppingCartId) {
+        return shoppingCartRepository.deleteById(shoppingCartId)
+                .map(deleted -> deleted ? ResponseEntity.ok().<Void>build() : ResponseEntity.notFound().<Void>build());
+    }
+
+    @GetMapping(value = "/{shoppingCartId}/calculate")
+    public Mono<ResponseEntity<ShoppingCartDTO>> viewCart(@PathVariable Long shoppingCartId) {
+        return shoppingCartService.calculate(shoppingCartId)
+                .map(ResponseEntity::ok)
+                .defaultIfEmpty(ResponseEntity.notFound().build());
+    }
+
+    // Prices the items as if they were in a cart, without creating one
+    @PostMapping(value = "/quote")
+    public Mono<ResponseEntity<ShoppingCartDTO>> quote(@RequestBody List<QuoteItemDTO> items) {
+        if(items.stream().anyMatch(item -> item == null || item.getQuantity() <= 0)) return Mono.just(ResponseEntity.badRequest().build());
+
+        // Any unknown product rejects the whole quote
+        return shoppingCartService.quote(items)
+                .map(ResponseEntity::ok)
+                .defaultIfEmpty(ResponseEntity.badRequest().build());
+    }
+
+    private Mono<ResponseEntity<CartDTO>> updateIfProductExists(long productId, Supplier<Mono<CartDTO>> update) {
+        return productRepository.existsById(productId).flatMap(exists -> {
+            if(!exists) return Mono.just(ResponseEntity.badRequest().<CartDTO>build());
+
+            return update.get()
+                    .map(ResponseEntity::ok)
+                    .defaultIfEmpty(ResponseEntity.notFound().build());
+        });
+    }
+}
@@ -0,0 +1,61 @@
+package com.wadeyuan.store.reactive.repository;
+
+import org.springframework.r2dbc.core.DatabaseClient;
+import reactor.core.publisher.Mono;
+
+import java.util.Locale;
+
+/*
+    Ids drawn from a sequence the way Hibernate's pooled optimizer draws them for the entities of the servlet stack, so both
+    stacks can share the sequences without collisions (see ProductImportService.allocateIds). A sequence value v owns the ids
+    (v - allocationSize, v], the very first value of a sequence (1) only owns itself. One sequence call per block of ids.
+    A block fetched while another caller fetched one too replaces it, the rest of the replaced block is skipped, never handed out twice.
+ */
+final class PooledIds {
+    // Hibernate's allocation size for the entities that don't set one, the increment of their sequences in the migrations
+    static final int DEFAULT_ALLOCATION_SIZE = 50;
+
+    private final DatabaseClient databaseClient;
+    private final String nextValue;
+    private final int allocationSize;
+    // The next id to hand out and the last one of the current block, guarded by this
+    private long next = 1;
+    private long high = 0;
+
+    PooledIds(DatabaseClient databaseClient, String sequence, int allocationSize) {
+        this.databaseClient = databaseClient;
+        this.nextValue = nextValueStatement(databaseClient.getConnectionFactory().getMetadata().getName(), sequence);
+        this.allocationSize = allocationSize;
+    }
+
+    Mono<Long> nextId() {
+        Long id = take();
+        if(id != null) return Mono.just(id);
+
+        return databaseClient.sql(nextValue)
+                .map(row -> row.get(0, Long.class))
+                .one()
+                .map(this::startBlock);
+    }
+
+    // The statement drawing the next value of a sequence, in the SQL of the database the store runs on
+    static String nextValueStatement(String databaseName, String sequence) {
+        String name = databaseName.toLowerCase(Locale.ROOT);
+        if(name.contains("postgres")) return "select nextval('" + sequence + "')";
+        if(name.contains("oracle")) return "select " + sequence + ".nextval from dual";
+        // The SQL standard form, e.g. H2, SQL Server and MariaDB
+        return "select next value for " + sequence;
+    }
+
+    private synchronized Long take() {
+        return next <= high ? next++ : null;
+    }
+
+    // Hands out the first id of the block owned by the value, the rest is left to the following calls
+    private synchronized long startBlock(long highValue) {
+        long low = Math.max(1, highValue - allocationSize + 1);
+        next = low + 1;
+        high = highValue;
+        return low;
+    }
+}
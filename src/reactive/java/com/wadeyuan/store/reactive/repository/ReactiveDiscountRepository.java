@@ -0,0 +1,85 @@
+package com.wadeyuan.store.reactive.repository;
+
+import com.wadeyuan.store.constants.DiscountType;
+import com.wadeyuan.store.domain.Discount;
+import com.wadeyuan.store.domain.Product;
+import com.wadeyuan.store.pricing.DiscountRule;
+import io.r2dbc.spi.Readable;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+
+// Discounts over R2DBC. Pricing reads them as DiscountRules, compiled the same way as for the DiscountRuleIndex of the servlet stack
+@Repository
+public class ReactiveDiscountRepository {
+    private static final String SELECT_RULES = "select id, required_product_id, required_quantity, target_product_id, discount_type, discount_value from discount ";
+
+    private final DatabaseClient databaseClient;
+    private final PooledIds ids;
+
+    public ReactiveDiscountRepository(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+        this.ids = new PooledIds(databaseClient, "discount_seq", PooledIds.DEFAULT_ALLOCATION_SIZE);
+    }
+
+    // Expects the required and target product to be set, the discount is returned with its id
+    public Mono<Discount> insert(Discount discount) {
+        return ids.nextId()
+                .flatMap(id -> databaseClient.sql("insert into discount (id, required_product_id, required_quantity, target_product_id, discount_type, discount_value, enabled) " +
+                                "values (:id, :requiredProductId, :requiredQuantity, :targetProductId, :discountType, :discountValue, :enabled)")
+                        .bind("id", id)
+                        .bind("requiredProductId", discount.getRequiredProduct().getId())
+                        .bind("requiredQuantity", discount.getRequiredQuantity())
+                        .bind("targetProductId", discount.getTargetProduct().getId())
+                        .bind("discountType", discount.getDiscountType().ordinal())
+                        .bind("discountValue", discount.getDiscountValue())
+                        .bind("enabled", discount.isEnabled())
+                        .fetch()
+                        .rowsUpdated()
+                        .then(Mono.fromSupplier(() -> {
+                            discount.setId(id);
+                            return discount;
+                        })));
+    }
+
+    public Mono<Long> deleteById(long id) {
+        return databaseClient.sql("delete from discount where id = :id")
+                .bind("id", id)
+                .fetch()
+                .rowsUpdated();
+    }
+
+    public Flux<DiscountRule> findEnabledRulesByTargetProductIds(Collection<Long> productIds) {
+        if(productIds.isEmpty()) return Flux.empty();
+
+        return databaseClient.sql(SELECT_RULES + "where target_product_id in (:productIds) and enabled = true")
+                .bind("productIds", productIds)
+                .map(ReactiveDiscountRepository::toRule)
+                .all();
+    }
+
+    // Only needs the cart id, so it can run alongside the query of the cart's lines
+    public Flux<DiscountRule> findEnabledRulesByShoppingCartId(long shoppingCartId) {
+        return databaseClient.sql(SELECT_RULES + "where target_product_id in (select product_id from cart_item where shopping_cart_id = :shoppingCartId) and enabled = true")
+                .bind("shoppingCartId", shoppingCartId)
+                .map(ReactiveDiscountRepository::toRule)
+                .all();
+    }
+
+    private static DiscountRule toRule(Readable row) {
+        // The tinyint column may come back as any integral type
+        DiscountType discountType = DiscountType.values()[row.get("discount_type", Number.class).intValue()];
+        Discount discount = new Discount(row.get("id", Long.class),
+                new Product(row.get("required_product_id", Long.class), null, null, null),
+                row.get("required_quantity", Integer.class),
+                new Product(row.get("target_product_id", Long.class), null, null, null),
+                discountType,
+                row.get("discount_value", BigDecimal.class),
+                true);
+        return DiscountRule.of(discount);
+    }
+}
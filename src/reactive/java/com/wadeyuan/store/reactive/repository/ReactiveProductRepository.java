@@ -0,0 +1,119 @@
+package com.wadeyuan.store.reactive.repository;
+
+import com.wadeyuan.store.domain.Product;
+import io.r2dbc.spi.Readable;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collection;
+
+/*
+    Products over R2DBC, with the statements spelled out like the keyset queries of ProductRepository.
+    Ids come from product_seq in pooled blocks of 50, the allocation size of the servlet stack, so both can share it.
+ */
+@Repository
+public class ReactiveProductRepository {
+    private static final String SELECT = "select id, name, price, created_timestamp from product ";
+
+    private final DatabaseClient databaseClient;
+    private final PooledIds ids;
+
+    public ReactiveProductRepository(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+        this.ids = new PooledIds(databaseClient, Product.ID_SEQUENCE, Product.ID_ALLOCATION_SIZE);
+    }
+
+    public Mono<Product> findById(long id) {
+        return databaseClient.sql(SELECT + "where id = :id")
+                .bind("id", id)
+                .map(ReactiveProductRepository::toProduct)
+                .one();
+    }
+
+    public Mono<Boolean> existsById(long id) {
+        return databaseClient.sql("select count(*) from product where id = :id")
+                .bind("id", id)
+                .map(row -> row.get(0, Long.class) > 0)
+                .one();
+    }
+
+    // Ids that don't exist are left out
+    public Flux<Product> findAllById(Collection<Long> ids) {
+        if(ids.isEmpty()) return Flux.empty();
+
+        return databaseClient.sql(SELECT + "where id in (:ids)")
+                .bind("ids", ids)
+                .map(ReactiveProductRepository::toProduct)
+                .all();
+    }
+
+    public Flux<Product> findByIdGreaterThanOrderByIdAsc(long afterId, int limit) {
+        return databaseClient.sql(SELECT + "where id > :afterId order by id limit :limit")
+                .bind("afterId", afterId)
+                .bind("limit", limit)
+                .map(ReactiveProductRepository::toProduct)
+                .all();
+    }
+
+    public Flux<Product> findFirstPageOrderByCreatedTimestamp(int limit) {
+        return databaseClient.sql(SELECT + "order by created_timestamp, id limit :limit")
+                .bind("limit", limit)
+                .map(ReactiveProductRepository::toProduct)
+                .all();
+    }
+
+    // Keyset on (createdTimestamp, id), ids break ties between equal timestamps
+    public Flux<Product> findPageAfterCreatedTimestamp(LocalDateTime afterTimestamp, long afterId, int limit) {
+        return databaseClient.sql(SELECT + "where created_timestamp > :afterTimestamp or (created_timestamp = :afterTimestamp and id > :afterId) " +
+                        "order by created_timestamp, id limit :limit")
+                .bind("afterTimestamp", afterTimestamp)
+                .bind("afterId", afterId)
+                .bind("limit", limit)
+                .map(ReactiveProductRepository::toProduct)
+                .all();
+    }
+
+    // Rows are requested from the cursor as the client reads them, memory stays flat regardless of catalog size
+    public Flux<Product> streamAllOrderById() {
+        return databaseClient.sql(SELECT + "order by id")
+                .map(ReactiveProductRepository::toProduct)
+                .all();
+    }
+
+    public Mono<Product> insert(Product product) {
+        return ids.nextId()
+                .flatMap(id -> databaseClient.sql("insert into product (id, name, price, created_timestamp) values (:id, :name, :price, :createdTimestamp)")
+                        .bind("id", id)
+                        .bind("name", product.getName())
+                        .bind("price", product.getPrice())
+                        .bind("createdTimestamp", product.getCreatedTimestamp())
+                        .fetch()
+                        .rowsUpdated()
+                        .thenReturn(new Product(id, product.getName(), product.getPrice(), product.getCreatedTimestamp())));
+    }
+
+    // Keeps the creation time, it is part of the keyset used to page through products
+    public Mono<Long> update(Product product) {
+        return databaseClient.sql("update product set name = :name, price = :price where id = :id")
+                .bind("id", product.getId())
+                .bind("name", product.getName())
+                .bind("price", product.getPrice())
+                .fetch()
+                .rowsUpdated();
+    }
+
+    public Mono<Long> deleteById(long id) {
+        return databaseClient.sql("delete from product where id = :id")
+                .bind("id", id)
+                .fetch()
+                .rowsUpdated();
+    }
+
+    private static Product toProduct(Readable row) {
+        return new Product(row.get("id", Long.class), row.get("name", String.class), row.get("price", BigDecimal.class), row.get("created_timestamp", LocalDateTime.class));
+    }
+}
@@ -0,0 +1,145 @@
+package com.wadeyuan.store.reactive.repository;
+
+import com.wadeyuan.store.domain.CartItem;
+import com.wadeyuan.store.domain.ShoppingCart;
+import com.wadeyuan.store.repository.CartLineView;
+import io.r2dbc.spi.Readable;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/*
+    Carts and their lines over R2DBC. A change of a line is one statement on cart_item instead of loading and merging the cart,
+    callers run it after touch() in the same transaction (see ReactiveShoppingCartService). Inserting and deleting a cart take
+    several statements, each runs in a transaction of its own, or in the caller's if there is one.
+    Totals aren't kept up to date on writes, carts are marked stale and priced when they are calculated.
+ */
+@Repository
+public class ReactiveShoppingCartRepository {
+    // Same rows as ShoppingCartRepository.findLinesById, an empty cart comes back as one row without a line
+    private static final String SELECT_LINES = "select c.id as cart_id, c.version, c.total_amount, c.discount_amount, c.stale, " +
+            "i.id as item_id, p.id as product_id, p.name as product_name, p.price as unit_price, i.quantity " +
+            "from shopping_cart c left join cart_item i on i.shopping_cart_id = c.id left join product p on p.id = i.product_id " +
+            "where c.id = :id order by i.id";
+    private static final String INSERT_ITEM = "insert into cart_item (id, shopping_cart_id, product_id, quantity, line_amount, discount_amount) " +
+            "values (:id, :shoppingCartId, :productId, :quantity, 0, 0)";
+
+    private final DatabaseClient databaseClient;
+    private final TransactionalOperator transactionalOperator;
+    private final PooledIds cartIds;
+    private final PooledIds itemIds;
+
+    public ReactiveShoppingCartRepository(DatabaseClient databaseClient, TransactionalOperator transactionalOperator) {
+        this.databaseClient = databaseClient;
+        this.transactionalOperator = transactionalOperator;
+        this.cartIds = new PooledIds(databaseClient, "shopping_cart_seq", PooledIds.DEFAULT_ALLOCATION_SIZE);
+        this.itemIds = new PooledIds(databaseClient, "cart_item_seq", PooledIds.DEFAULT_ALLOCATION_SIZE);
+    }
+
+    // Lines of an unknown cart are an empty list
+    public Mono<List<CartLineView>> findLinesById(long id) {
+        return databaseClient.sql(SELECT_LINES)
+                .bind("id", id)
+                .map(ReactiveShoppingCartRepository::toLine)
+                .all()
+                .collectList();
+    }
+
+    // Items only need their product's id, returns the id of the new cart
+    public Mono<Long> insert(ShoppingCart shoppingCart) {
+        List<CartItem> items = shoppingCart.getItems() == null ? List.of() : shoppingCart.getItems();
+        return cartIds.nextId()
+                .flatMap(id -> databaseClient.sql("insert into shopping_cart (id, version, total_amount, discount_amount, stale, last_modified) " +
+                                "values (:id, 0, 0, 0, :stale, :lastModified)")
+                        .bind("id", id)
+                        .bind("stale", !items.isEmpty())
+                        .bind("lastModified", LocalDateTime.now())
+                        .fetch()
+                        .rowsUpdated()
+                        .thenMany(Flux.fromIterable(items))
+                        .concatMap(item -> insertItem(id, item.getProduct().getId(), item.getQuantity()))
+                        .then(Mono.just(id)))
+                .as(transactionalOperator::transactional);
+    }
+
+    // Bumps the version and marks the totals stale. The updated row stays locked until the transaction ends, so concurrent
+    // changes of the same cart wait for each other instead of losing an optimistic lock race. False for an unknown cart
+    public Mono<Boolean> touch(long id) {
+        return databaseClient.sql("update shopping_cart set version = version + 1, stale = true, last_modified = :lastModified where id = :id")
+                .bind("id", id)
+                .bind("lastModified", LocalDateTime.now())
+                .fetch()
+                .rowsUpdated()
+                .map(updated -> updated > 0);
+    }
+
+    public Mono<Void> addToCart(long shoppingCartId, long productId, int quantity) {
+        return databaseClient.sql("update cart_item set quantity = quantity + :quantity where shopping_cart_id = :shoppingCartId and product_id = :productId")
+                .bind("shoppingCartId", shoppingCartId)
+                .bind("productId", productId)
+                .bind("quantity", quantity)
+                .fetch()
+                .rowsUpdated()
+                .flatMap(updated -> updated > 0 ? Mono.empty() : insertItem(shoppingCartId, productId, quantity))
+                .then();
+    }
+
+    // A line whose quantity drops to zero or below is removed
+    public Mono<Void> removeFromCart(long shoppingCartId, long productId, int quantity) {
+        return databaseClient.sql("update cart_item set quantity = quantity - :quantity where shopping_cart_id = :shoppingCartId and product_id = :productId")
+                .bind("shoppingCartId", shoppingCartId)
+                .bind("productId", productId)
+                .bind("quantity", quantity)
+                .fetch()
+                .rowsUpdated()
+                .then(databaseClient.sql("delete from cart_item where shopping_cart_id = :shoppingCartId and product_id = :productId and quantity <= 0")
+                        .bind("shoppingCartId", shoppingCartId)
+                        .bind("productId", productId)
+                        .fetch()
+                        .rowsUpdated())
+                .then();
+    }
+
+    public Mono<Void> clearCart(long shoppingCartId) {
+        return databaseClient.sql("delete from cart_item where shopping_cart_id = :shoppingCartId")
+                .bind("shoppingCartId", shoppingCartId)
+                .fetch()
+                .rowsUpdated()
+                .then();
+    }
+
+    // Items by their cart key first, like CartReaper. False for an unknown cart
+    public Mono<Boolean> deleteById(long id) {
+        return clearCart(id)
+                .then(databaseClient.sql("delete from shopping_cart where id = :id")
+                        .bind("id", id)
+                        .fetch()
+                        .rowsUpdated())
+                .map(deleted -> deleted > 0)
+                .as(transactionalOperator::transactional);
+    }
+
+    private Mono<Long> insertItem(long shoppingCartId, long productId, int quantity) {
+        return itemIds.nextId()
+                .flatMap(id -> databaseClient.sql(INSERT_ITEM)
+                        .bind("id", id)
+                        .bind("shoppingCartId", shoppingCartId)
+                        .bind("productId", productId)
+                        .bind("quantity", quantity)
+                        .fetch()
+                        .rowsUpdated());
+    }
+
+    private static CartLineView toLine(Readable row) {
+        return new CartLineView(row.get("cart_id", Long.class), row.get("version", Long.class),
+                row.get("total_amount", Long.class), row.get("discount_amount", Long.class), row.get("stale", Boolean.class),
+                row.get("item_id", Long.class), row.get("product_id", Long.class), row.get("product_name", String.class),
+                row.get("unit_price", BigDecimal.class), row.get("quantity", Integer.class));
+    }
+}
@@ -0,0 +1,92 @@
+package com.wadeyuan.store.reactive.service;
+
+import com.wadeyuan.store.domain.Product;
+import com.wadeyuan.store.domain.ShoppingCart;
+import com.wadeyuan.store.dto.CartDTO;
+import com.wadeyuan.store.dto.QuoteItemDTO;
+import com.wadeyuan.store.dto.ShoppingCartDTO;
+import com.wadeyuan.store.pricing.DiscountRule;
+import com.wadeyuan.store.pricing.DiscountRuleLookup;
+import com.wadeyuan.store.pricing.PricingEngine;
+import com.wadeyuan.store.reactive.repository.ReactiveDiscountRepository;
+import com.wadeyuan.store.reactive.repository.ReactiveProductRepository;
+import com.wadeyuan.store.reactive.repository.ReactiveShoppingCartRepository;
+import com.wadeyuan.store.repository.CartLineView;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/*
+    Cart changes and pricing for the reactive stack.
+    A calculation reads the cart's lines and the discounts of its products with two queries that only need the cart id, so both
+    run at the same time on their own pooled connections. The cart is then priced in memory by the PricingEngine of the servlet
+    stack, with the fetched rules as its lookup, which takes microseconds and stays on the event loop.
+ */
+@Service
+public class ReactiveShoppingCartService {
+    private final ReactiveShoppingCartRepository shoppingCartRepository;
+    private final ReactiveProductRepository productRepository;
+    private final ReactiveDiscountRepository discountRepository;
+    private final PricingEngine pricingEngine;
+    private final TransactionalOperator transactionalOperator;
+
+    public ReactiveShoppingCartService(ReactiveShoppingCartRepository shoppingCartRepository, ReactiveProductRepository productRepository,
+                                       ReactiveDiscountRepository discountRepository, PricingEngine pricingEngine, TransactionalOperator transactionalOperator) {
+        this.shoppingCartRepository = shoppingCartRepository;
+        this.productRepository = productRepository;
+        this.discountRepository = discountRepository;
+        this.pricingEngine = pricingEngine;
+        this.transactionalOperator = transactionalOperator;
+    }
+
+    // Applies the change and reads the cart back in one transaction, empty for an unknown cart. The change has to be lazy,
+    // like every DatabaseClient statement, so it only runs once the cart row is locked
+    public Mono<CartDTO> update(long shoppingCartId, Mono<Void> change) {
+        return shoppingCartRepository.touch(shoppingCartId)
+                .filter(found -> found)
+                .flatMap(found -> change.then(shoppingCartRepository.findLinesById(shoppingCartId)))
+                .map(CartDTO::of)
+                .as(transactionalOperator::transactional);
+    }
+
+    // Empty for an unknown cart
+    public Mono<ShoppingCartDTO> calculate(long shoppingCartId) {
+        return Mono.zip(shoppingCartRepository.findLinesById(shoppingCartId), discountRepository.findEnabledRulesByShoppingCartId(shoppingCartId).collectList())
+                .filter(linesAndRules -> !linesAndRules.getT1().isEmpty())
+                .map(linesAndRules -> {
+                    List<CartLineView> lines = linesAndRules.getT1();
+                    ShoppingCart cart = new ShoppingCart(shoppingCartId, new ArrayList<>());
+                    for (CartLineView line : lines) {
+                        if(line.hasItem()) cart.addToCart(new Product(line.productId(), line.productName(), line.unitPrice(), null), line.quantity());
+                    }
+                    return price(cart, linesAndRules.getT2());
+                });
+    }
+
+    // Empty when a quoted product doesn't exist. Products and their discounts are fetched at the same time
+    public Mono<ShoppingCartDTO> quote(List<QuoteItemDTO> items) {
+        Set<Long> productIds = items.stream().map(QuoteItemDTO::getProductId).collect(Collectors.toSet());
+        return Mono.zip(productRepository.findAllById(productIds).collectMap(Product::getId), discountRepository.findEnabledRulesByTargetProductIds(productIds).collectList())
+                .filter(productsAndRules -> productsAndRules.getT1().size() == productIds.size())
+                .map(productsAndRules -> {
+                    // A transient cart, never persisted, so the same product quoted twice ends up in one line just like in a real cart
+                    ShoppingCart cart = new ShoppingCart(0, new ArrayList<>());
+                    for (QuoteItemDTO item : items) {
+                        cart.addToCart(productsAndRules.getT1().get(item.getProductId()), item.getQuantity());
+                    }
+                    return price(cart, productsAndRules.getT2());
+                });
+    }
+
+    private ShoppingCartDTO price(ShoppingCart cart, List<DiscountRule> rules) {
+        Map<Long, List<DiscountRule>> rulesByTargetProductId = rules.stream().collect(Collectors.groupingBy(DiscountRule::targetProductId));
+        DiscountRuleLookup discountRules = productId -> rulesByTargetProductId.getOrDefault(productId, List.of());
+        return ShoppingCartDTO.of(cart, pricingEngine.price(cart, discountRules));
+    }
+}
@@ -0,0 +1,234 @@
+package com.wadeyuan.store.reactive;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+/*
+    The cart endpoints of the reactive variant, mirroring the MockMvc tests of ShoppingCartController.
+    Runs in its own application context (and therefore its own in-memory database), so ids are never assumed.
+ */
+@SpringBootTest(classes = ReactiveStoreApplication.class, properties = "spring.config.name=reactive")
+@AutoConfigureWebTestClient
+class ReactiveShoppingCartTests {
+
+	@Autowired
+	private WebTestClient webTestClient;
+
+	@Autowired
+	private DatabaseClient databaseClient;
+
+	private long productAId;
+
+	private long productBId;
+
+	@BeforeEach
+	void setUp() {
+		productAId = createProduct("{\"name\": \"Product A\", \"price\": 11.99}");
+		productBId = createProduct("{\"name\": \"Product B\", \"price\": 29.99}");
+	}
+
+	@Test
+	void testCreateShoppingCart() {
+		// Act
+		webTestClient.post().uri("/shopping-carts")
+				.contentType(MediaType.APPLICATION_JSON)
+				.bodyValue("{\"items\": [{\"product\": {\"id\": " + productAId + "}, \"quantity\": 2}, {\"product\": {\"id\": " + productAId + "}, \"quantity\": 1}]}")
+				.exchange()
+				// Assert, lines of the same product are merged and answered with the product's name and price
+				.expectStatus().isCreated()
+				.expectHeader().value("Location", location -> Assertions.assertTrue(location.contains("/shopping-carts/")))
+				.expectBody()
+				.jsonPath("$.items.length()").isEqualTo(1)
+				.jsonPath("$.items[0].quantity").isEqualTo(3)
+				.jsonPath("$.items[0].name").isEqualTo("Product A");
+	}
+
+	@Test
+	void testIdsAreDrawnInPooledBlocks() {
+		// Assert, the sequence steps by 50 but ids are handed out one by one from the block of each value, as on the servlet stack
+		Assertions.assertEquals(productAId + 1, productBId);
+	}
+
+	@Test
+	void testCreateShoppingCartWithInvalidLine() {
+		// Act
+		webTestClient.post().uri("/shopping-carts")
+				.contentType(MediaType.APPLICATION_JSON)
+				.bodyValue("{\"items\": [{\"product\": {\"id\": " + productAId + "}, \"quantity\": 0}]}")
+				.exchange()
+				// Assert
+				.expectStatus().isBadRequest();
+	}
+
+	@Test
+	void testFailedCreateLeavesNoCart() {
+		// Arrange, the line of an unknown product can't be inserted after the cart row is
+		long carts = count("select count(*) from shopping_cart");
+		long unknownProductId = createProduct("{\"name\": \"Product C\", \"price\": 1.00}");
+		webTestClient.delete().uri("/products/{productId}", unknownProductId).exchange().expectStatus().isOk();
+
+		// Act
+		webTestClient.post().uri("/shopping-carts")
+				.contentType(MediaType.APPLICATION_JSON)
+				.bodyValue("{\"items\": [{\"product\": {\"id\": " + productAId + "}, \"quantity\": 1}, {\"product\": {\"id\": " + unknownProductId + "}, \"quantity\": 1}]}")
+				.exchange()
+				.expectStatus().is5xxServerError();
+
+		// Assert, the cart row was rolled back with its lines
+		Assertions.assertEquals(carts, count("select count(*) from shopping_cart"));
+	}
+
+	@Test
+	void testAddAndRemoveProduct() {
+		// Arrange
+		long shoppingCartId = createShoppingCart();
+
+		// Act
+		webTestClient.put().uri("/shopping-carts/{shoppingCartId}/add/{productId}?quantity=2", shoppingCartId, productAId)
+				.exchange()
+				// Assert
+				.expectStatus().isOk()
+				.expectBody()
+				.jsonPath("$.items.length()").isEqualTo(1)
+				.jsonPath("$.items[0].quantity").isEqualTo(2);
+
+		// Act
+		webTestClient.put().uri("/shopping-carts/{shoppingCartId}/remove/{productId}?quantity=1", shoppingCartId, productAId)
+				.exchange()
+				// Assert
+				.expectStatus().isOk()
+				.expectBody()
+				.jsonPath("$.items[0].quantity").isEqualTo(1);
+
+		// Act
+		webTestClient.put().uri("/shopping-carts/{shoppingCartId}/remove/{productId}?quantity=1", shoppingCartId, productAId)
+				.exchange()
+				// Assert
+				.expectStatus().isOk()
+				.expectBody()
+				.jsonPath("$.items").isEmpty();
+	}
+
+	@Test
+	void testCalculateShoppingCartAmount() {
+		// Arrange, buy 1 and get the other one at 50% off
+		long shoppingCartId = createShoppingCart();
+		webTestClient.post().uri("/discounts/simpleDiscount/product/{productId}?requiredQuantity=1&percentageOff=50.0", productAId)
+				.exchange()
+				.expectStatus().isCreated();
+		webTestClient.put().uri("/shopping-carts/{shoppingCartId}/add/{productId}?quantity=2", shoppingCartId, productAId)
+				.exchange()
+				.expectStatus().isOk();
+		webTestClient.put().uri("/shopping-carts/{shoppingCartId}/add/{productId}?quantity=1", shoppingCartId, productBId)
+				.exchange()
+				.expectStatus().isOk();
+
+		// Act
+		webTestClient.get().uri("/shopping-carts/{shoppingCartId}/calculate", shoppingCartId)
+				.exchange()
+				// Assert, 2 * 11.99 + 29.99 = 53.97 with 11.99 / 2 = 5.995 off
+				.expectStatus().isOk()
+				.expectBody()
+				.jsonPath("$.totalAmount").isEqualTo(53.97)
+				.jsonPath("$.discountAmount").isEqualTo(5.995)
+				.jsonPath("$.finalAmount").isEqualTo(47.975);
+	}
+
+	@Test
+	void testClearShoppingCart() {
+		// Arrange
+		long shoppingCartId = createShoppingCart();
+		webTestClient.put().uri("/shopping-carts/{shoppingCartId}/add/{productId}?quantity=2", shoppingCartId, productAId)
+				.exchange()
+				.expectStatus().isOk();
+
+		// Act
+		webTestClient.put().uri("/shopping-carts/{shoppingCartId}/clear", shoppingCartId)
+				.exchange()
+				// Assert
+				.expectStatus().isOk()
+				.expectBody()
+				.jsonPath("$.items").isEmpty();
+	}
+
+	@Test
+	void testGetShoppingCart() {
+		// Arrange
+		long shoppingCartId = createShoppingCart();
+
+		// Act
+		webTestClient.get().uri("/shopping-carts/{shoppingCartId}", shoppingCartId)
+				.exchange()
+				// Assert
+				.expectStatus().isOk()
+				.expectBody()
+				.jsonPath("$.id").isEqualTo(shoppingCartId);
+	}
+
+	@Test
+	void testDeleteShoppingCart() {
+		// Arrange
+		long shoppingCartId = createShoppingCart();
+		webTestClient.put().uri("/shopping-carts/{shoppingCartId}/add/{productId}?quantity=2", shoppingCartId, productAId)
+				.exchange()
+				.expectStatus().isOk();
+
+		// Act
+		webTestClient.delete().uri("/shopping-carts/{shoppingCartId}", shoppingCartId)
+				.exchange()
+				.expectStatus().isOk();
+
+		// Assert, the cart and its lines are gone
+		webTestClient.get().uri("/shopping-carts/{shoppingCartId}", shoppingCartId)
+				.exchange()
+				.expectStatus().isNotFound();
+		webTestClient.delete().uri("/shopping-carts/{shoppingCartId}", shoppingCartId)
+				.exchange()
+				.expectStatus().isNotFound();
+		Assertions.assertEquals(0, count("select count(*) from cart_item where shopping_cart_id = " + shoppingCartId));
+	}
+
+	private long createProduct(String requestBody) {
+		return idOf(webTestClient.post().uri("/products")
+				.contentType(MediaType.APPLICATION_JSON)
+				.bodyValue(requestBody)
+				.exchange()
+				.expectStatus().isCreated()
+				.expectBody()
+				.returnResult()
+				.getResponseHeaders()
+				.getLocation()
+				.getPath());
+	}
+
+	private long createShoppingCart() {
+		return idOf(webTestClient.post().uri("/shopping-carts")
+				.contentType(MediaType.APPLICATION_JSON)
+				.bodyValue("{\"items\": []}")
+				.exchange()
+				.expectStatus().isCreated()
+				.expectBody()
+				.returnResult()
+				.getResponseHeaders()
+				.getLocation()
+				.getPath());
+	}
+
+	private static long idOf(String path) {
+		return Long.parseLong(path.substring(path.lastIndexOf('/') + 1));
+	}
+
+	private long count(String sql) {
+		return databaseClient.sql(sql)
+				.map(row -> row.get(0, Long.class))
+				.one()
+				.block();
+	}
+}
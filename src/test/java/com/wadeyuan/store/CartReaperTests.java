@@ -0,0 +1,70 @@
+package com.wadeyuan.store;
+
+import com.wadeyuan.store.domain.Product;
+import com.wadeyuan.store.domain.ShoppingCart;
+import com.wadeyuan.store.repository.ProductRepository;
+import com.wadeyuan.store.repository.ShoppingCartRepository;
+import com.wadeyuan.store.service.CartReaper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+
+/*
+    Expired carts are deleted with their items, carts changed within the TTL are kept.
+    Runs in its own application context (and therefore its own in-memory database), so ids are never assumed.
+ */
+@SpringBootTest(properties = {"store.cart.reaper.ttl=1h", "store.cart.reaper.interval=PT1H", "store.cart.reaper.batch-size=2"})
+class CartReaperTests {
+
+	@Autowired
+	private ProductRepository productRepository;
+
+	@Autowired
+	private ShoppingCartRepository shoppingCartRepository;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private CartReaper cartReaper;
+
+	@Test
+	void testExpiredCartsAreDeletedWithTheirItems() {
+		// Arrange, more expired carts than fit in one chunk
+		Product product = productRepository.save(new Product(0, "Product A", new BigDecimal("9.99"), LocalDateTime.now()));
+		long expiredA = saveCart(product);
+		long expiredB = saveCart(product);
+		long expiredC = saveCart(product);
+		long activeId = saveCart(product);
+		Timestamp expired = Timestamp.valueOf(LocalDateTime.now().minusHours(2));
+		for (long shoppingCartId : new long[]{expiredA, expiredB, expiredC}) {
+			jdbcTemplate.update("update shopping_cart set last_modified = ? where id = ?", expired, shoppingCartId);
+		}
+		long items = jdbcTemplate.queryForObject("select count(*) from cart_item", Long.class);
+
+		// Act
+		int reaped = cartReaper.reap();
+
+		// Assert
+		Assertions.assertEquals(3, reaped);
+		Assertions.assertFalse(shoppingCartRepository.existsById(expiredA));
+		Assertions.assertFalse(shoppingCartRepository.existsById(expiredB));
+		Assertions.assertFalse(shoppingCartRepository.existsById(expiredC));
+		Assertions.assertEquals(1, shoppingCartRepository.findWithItemsById(activeId).orElseThrow().getItems().size());
+		Assertions.assertEquals(items - 3, jdbcTemplate.queryForObject("select count(*) from cart_item", Long.class));
+		Assertions.assertEquals(0, cartReaper.reap());
+	}
+
+	private long saveCart(Product product) {
+		ShoppingCart shoppingCart = new ShoppingCart(0, new ArrayList<>());
+		shoppingCart.addToCart(product, 1);
+		return shoppingCartRepository.save(shoppingCart).getId();
+	}
+}
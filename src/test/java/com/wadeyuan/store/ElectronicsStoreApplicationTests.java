@@ -7,6 +7,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
@@ -90,6 +91,10 @@ class ElectronicsStoreApplicationTests {
 				.andExpect(MockMvcResultMatchers.status().isOk())
 				.andExpect(MockMvcResultMatchers.jsonPath("$.name").value("Updated Product A"))
 				.andExpect(MockMvcResultMatchers.jsonPath("$.price").value(11.99));
+
+		// Assert, the product cached by the second-level cache was replaced
+		mockMvc.perform(MockMvcRequestBuilders.get("/products/{id}", productId))
+				.andExpect(MockMvcResultMatchers.jsonPath("$.price").value(11.99));
 	}
 
 	@Test
@@ -302,6 +307,334 @@ class ElectronicsStoreApplicationTests {
 				.andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(2)));
 	}
 
+	@Test
+	@Order(17)
+	void testBatchUpdateShoppingCart() throws Exception {
+		// Arrange
+		String location = mockMvc.perform(MockMvcRequestBuilders.post("/shopping-carts")
+						.contentType(MediaType.APPLICATION_JSON)
+						.content("{\"items\": []}"))
+				.andReturn().getResponse().getHeader("Location");
+		String requestBody = """
+				[
+					{"operation": "ADD", "productId": 1, "quantity": 3},
+					{"operation": "ADD", "productId": 2, "quantity": 1},
+					{"operation": "REMOVE", "productId": 2, "quantity": 1},
+					{"operation": "SET", "productId": 1, "quantity": 2}
+				]""";
+		// Expected total amount: 2 * 11.99 = 23.98, no discounts are left at this point
+
+		// Act
+		mockMvc.perform(MockMvcRequestBuilders.put(location + "/batch")
+						.param("calculate", "true")
+						.contentType(MediaType.APPLICATION_JSON)
+						.content(requestBody))
+				// Assert
+				.andExpect(MockMvcResultMatchers.status().isOk())
+				.andExpect(MockMvcResultMatchers.jsonPath("$.items", Matchers.hasSize(1)))
+				.andExpect(MockMvcResultMatchers.jsonPath("$.items[0].quantity").value(2))
+				.andExpect(MockMvcResultMatchers.jsonPath("$.totalAmount").value(23.98));
+
+		// Act, an unknown product rejects the whole batch
+		mockMvc.perform(MockMvcRequestBuilders.put(location + "/batch")
+						.contentType(MediaType.APPLICATION_JSON)
+						.content("[{\"operation\": \"ADD\", \"productId\": -999, \"quantity\": 1}]"))
+				// Assert
+				.andExpect(MockMvcResultMatchers.status().isBadRequest());
+
+		// Act, empty the cart again so the product can be deleted afterwards
+		mockMvc.perform(MockMvcRequestBuilders.put(location + "/batch")
+						.contentType(MediaType.APPLICATION_JSON)
+						.content("[{\"operation\": \"SET\", \"productId\": 1, \"quantity\": 0}]"))
+				// Assert
+				.andExpect(MockMvcResultMatchers.status().isOk())
+				.andExpect(MockMvcResultMatchers.jsonPath("$.items").isEmpty())
+				.andExpect(MockMvcResultMatchers.jsonPath("$.totalAmount").doesNotExist());
+	}
+
+	@Test
+	@Order(18)
+	void testListProductPages() throws Exception {
+		// Act, a full page links to the next one
+		mockMvc.perform(MockMvcRequestBuilders.get("/products")
+						.param("limit", "1"))
+				// Assert
+				.andExpect(MockMvcResultMatchers.status().isOk())
+				.andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(1)))
+				.andExpect(MockMvcResultMatchers.jsonPath("$[0].id").value(1))
+				.andExpect(MockMvcResultMatchers.header().string("Link", Matchers.containsString("afterId=1")));
+
+		// Act
+		mockMvc.perform(MockMvcRequestBuilders.get("/products")
+						.param("afterId", "1")
+						.param("limit", "5"))
+				// Assert
+				.andExpect(MockMvcResultMatchers.status().isOk())
+				.andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(1)))
+				.andExpect(MockMvcResultMatchers.jsonPath("$[0].id").value(2))
+				.andExpect(MockMvcResultMatchers.header().doesNotExist("Link"));
+
+		// Act
+		mockMvc.perform(MockMvcRequestBuilders.get("/products")
+						.param("sort", "createdTimestamp")
+						.param("limit", "2"))
+				// Assert
+				.andExpect(MockMvcResultMatchers.status().isOk())
+				.andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(2)))
+				.andExpect(MockMvcResultMatchers.header().string("Link", Matchers.containsString("afterTimestamp=")));
+
+		// Act
+		mockMvc.perform(MockMvcRequestBuilders.get("/products")
+						.param("sort", "name"))
+				// Assert
+				.andExpect(MockMvcResultMatchers.status().isBadRequest());
+	}
+
+	@Test
+	@Order(19)
+	void testStreamProducts() throws Exception {
+		// Act
+		MvcResult mvcResult = mockMvc.perform(MockMvcRequestBuilders.get("/products/stream"))
+				.andExpect(MockMvcResultMatchers.request().asyncStarted())
+				.andReturn();
+
+		// Assert
+		String body = mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(mvcResult))
+				.andExpect(MockMvcResultMatchers.status().isOk())
+				.andExpect(MockMvcResultMatchers.content().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON))
+				.andReturn().getResponse().getContentAsString();
+		Assertions.assertEquals(2, body.lines().count());
+		Assertions.assertTrue(body.contains("\"name\":\"Product B\""));
+	}
+
+	@Test
+	@Order(20)
+	void testConditionalGet() throws Exception {
+		// Arrange
+		long productId = 2;
+		String productETag = mockMvc.perform(MockMvcRequestBuilders.get("/products/{id}", productId))
+				.andExpect(MockMvcResultMatchers.status().isOk())
+				.andReturn().getResponse().getHeader("ETag");
+		String location = mockMvc.perform(MockMvcRequestBuilders.post("/shopping-carts")
+						.contentType(MediaType.APPLICATION_JSON)
+						.content("{\"items\": []}"))
+				.andReturn().getResponse().getHeader("Location");
+		String calculationETag = mockMvc.perform(MockMvcRequestBuilders.get(location + "/calculate"))
+				.andExpect(MockMvcResultMatchers.status().isOk())
+				.andReturn().getResponse().getHeader("ETag");
+
+		// Act
+		mockMvc.perform(MockMvcRequestBuilders.get("/products/{id}", productId)
+						.header("If-None-Match", productETag))
+				// Assert
+				.andExpect(MockMvcResultMatchers.status().isNotModified())
+				.andExpect(MockMvcResultMatchers.content().string(""));
+
+		// Act
+		mockMvc.perform(MockMvcRequestBuilders.get(location + "/calculate")
+						.header("If-None-Match", calculationETag))
+				// Assert
+				.andExpect(MockMvcResultMatchers.status().isNotModified());
+
+		// Act, changing the cart changes the tag of its calculation
+		mockMvc.perform(MockMvcRequestBuilders.put(location + "/add/{productId}", productId)
+				.param("quantity", "1"));
+		mockMvc.perform(MockMvcRequestBuilders.get(location + "/calculate")
+						.header("If-None-Match", calculationETag))
+				// Assert
+				.andExpect(MockMvcResultMatchers.status().isOk())
+				.andExpect(MockMvcResultMatchers.header().string("ETag", Matchers.not(calculationETag)));
+	}
+
+	@Test
+	@Order(21)
+	void testImportProducts() throws Exception {
+		// Arrange
+		String csv = "name,price\n\"Product C, refurbished\",19.99\n ,5.00\nProduct D,abc\nProduct E,7.50\n";
+		String ndjson = "{\"name\": \"Product F\", \"price\": 1.25}\n{\"name\": \n";
+
+		// Act
+		mockMvc.perform(MockMvcRequestBuilders.post("/products/import")
+						.contentType("text/csv")
+						.content(csv))
+				// Assert
+				.andExpect(MockMvcResultMatchers.status().isOk())
+				.andExpect(MockMvcResultMatchers.jsonPath("$.imported").value(2))
+				.andExpect(MockMvcResultMatchers.jsonPath("$.failed").value(2))
+				.andExpect(MockMvcResultMatchers.jsonPath("$.errors[0].row").value(3))
+				.andExpect(MockMvcResultMatchers.jsonPath("$.errors[0].message").value("Name is mandatory"))
+				.andExpect(MockMvcResultMatchers.jsonPath("$.errors[1].row").value(4));
+
+		// Act
+		mockMvc.perform(MockMvcRequestBuilders.post("/products/import")
+						.contentType(MediaType.APPLICATION_NDJSON)
+						.content(ndjson))
+				// Assert
+				.andExpect(MockMvcResultMatchers.status().isOk())
+				.andExpect(MockMvcResultMatchers.jsonPath("$.imported").value(1))
+				.andExpect(MockMvcResultMatchers.jsonPath("$.errors[0].row").value(2));
+
+		// Act, ids handed out by Hibernate afterwards must not collide with the imported ones
+		mockMvc.perform(MockMvcRequestBuilders.post("/products")
+						.contentType(MediaType.APPLICATION_JSON)
+						.content("{\"name\": \"Product G\", \"price\": 3.00}"))
+				// Assert
+				.andExpect(MockMvcResultMatchers.status().isCreated());
+		String body = mockMvc.perform(MockMvcRequestBuilders.get("/products").param("limit", "1000"))
+				.andExpect(MockMvcResultMatchers.status().isOk())
+				.andExpect(MockMvcResultMatchers.jsonPath("$[?(@.name == 'Product C, refurbished')].price").value(19.99))
+				.andReturn().getResponse().getContentAsString();
+		Assertions.assertTrue(body.contains("\"name\":\"Product G\""));
+
+		// Act
+		mockMvc.perform(MockMvcRequestBuilders.post("/products/import")
+						.contentType("text/csv")
+						.content("title,cost\nProduct H,1.00\n"))
+				// Assert
+				.andExpect(MockMvcResultMatchers.status().isBadRequest());
+	}
+
+	@Test
+	@Order(22)
+	void testCalculateFollowsPriceAndDiscountChanges() throws Exception {
+		// Arrange
+		String productLocation = mockMvc.perform(MockMvcRequestBuilders.post("/products")
+						.contentType(MediaType.APPLICATION_JSON)
+						.content("{\"name\": \"Product P\", \"price\": 10.00}"))
+				.andReturn().getResponse().getHeader("Location");
+		String productId = productLocation.substring(productLocation.lastIndexOf('/') + 1);
+		String cartLocation = mockMvc.perform(MockMvcRequestBuilders.post("/shopping-carts")
+						.contentType(MediaType.APPLICATION_JSON)
+						.content("{\"items\": []}"))
+				.andReturn().getResponse().getHeader("Location");
+		mockMvc.perform(MockMvcRequestBuilders.put(cartLocation + "/add/" + productId)
+				.param("quantity", "3"));
+		mockMvc.perform(MockMvcRequestBuilders.get(cartLocation + "/calculate"))
+				.andExpect(MockMvcResultMatchers.jsonPath("$.totalAmount").value(30.0));
+
+		// Act, the stored totals of the cart are outdated by the new price
+		mockMvc.perform(MockMvcRequestBuilders.put("/products/{productId}", productId)
+				.contentType(MediaType.APPLICATION_JSON)
+				.content("{\"name\": \"Product P\", \"price\": 20.00}"));
+		mockMvc.perform(MockMvcRequestBuilders.get(cartLocation + "/calculate"))
+				// Assert
+				.andExpect(MockMvcResultMatchers.jsonPath("$.totalAmount").value(60.0))
+				.andExpect(MockMvcResultMatchers.jsonPath("$.discountAmount").value(0.0));
+
+		// Act, buy 1 and get the other 2 at 50% off
+		String discountLocation = mockMvc.perform(MockMvcRequestBuilders.post("/discounts/simpleDiscount/product/{productId}", productId)
+						.param("requiredQuantity", "1")
+						.param("percentageOff", "50"))
+				.andReturn().getResponse().getHeader("Location");
+		mockMvc.perform(MockMvcRequestBuilders.get(cartLocation + "/calculate"))
+				// Assert
+				.andExpect(MockMvcResultMatchers.jsonPath("$.discountAmount").value(20.0))
+				.andExpect(MockMvcResultMatchers.jsonPath("$.finalAmount").value(40.0));
+
+		// Act
+		mockMvc.perform(MockMvcRequestBuilders.delete(discountLocation));
+		mockMvc.perform(MockMvcRequestBuilders.get(cartLocation + "/calculate"))
+				// Assert
+				.andExpect(MockMvcResultMatchers.jsonPath("$.discountAmount").value(0.0))
+				.andExpect(MockMvcResultMatchers.jsonPath("$.finalAmount").value(60.0));
+	}
+
+	@Test
+	@Order(23)
+	void testPriceShoppingCarts() throws Exception {
+		// Arrange
+		String productLocation = mockMvc.perform(MockMvcRequestBuilders.post("/products")
+						.contentType(MediaType.APPLICATION_JSON)
+						.content("{\"name\": \"Product Q\", \"price\": 5.00}"))
+				.andReturn().getResponse().getHeader("Location");
+		String productId = productLocation.substring(productLocation.lastIndexOf('/') + 1);
+		String[] cartIds = new String[2];
+		for (int i = 0; i < cartIds.length; i++) {
+			String cartLocation = mockMvc.perform(MockMvcRequestBuilders.post("/shopping-carts")
+							.contentType(MediaType.APPLICATION_JSON)
+							.content("{\"items\": []}"))
+					.andReturn().getResponse().getHeader("Location");
+			mockMvc.perform(MockMvcRequestBuilders.put(cartLocation + "/add/" + productId)
+					.param("quantity", String.valueOf(i + 1)));
+			cartIds[i] = cartLocation.substring(cartLocation.lastIndexOf('/') + 1);
+		}
+
+		// Act, the unknown cart is left out and the duplicate is priced once
+		MvcResult mvcResult = mockMvc.perform(MockMvcRequestBuilders.post("/shopping-carts/pricing")
+						.contentType(MediaType.APPLICATION_JSON)
+						.content("[" + cartIds[0] + ", " + cartIds[1] + ", " + cartIds[0] + ", -999]"))
+				.andExpect(MockMvcResultMatchers.request().asyncStarted())
+				.andReturn();
+
+		// Assert
+		String body = mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(mvcResult))
+				.andExpect(MockMvcResultMatchers.status().isOk())
+				.andExpect(MockMvcResultMatchers.content().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON))
+				.andReturn().getResponse().getContentAsString();
+		Assertions.assertEquals(2, body.lines().count());
+		Assertions.assertTrue(body.contains("\"id\":" + cartIds[0] + ","));
+		Assertions.assertTrue(body.contains("\"totalAmount\":5.00"));
+		Assertions.assertTrue(body.contains("\"totalAmount\":10.00"));
+	}
+
+	@Test
+	@Order(24)
+	void testCreateShoppingCartWithUnknownProduct() throws Exception {
+		// Act
+		mockMvc.perform(MockMvcRequestBuilders.post("/shopping-carts")
+						.contentType(MediaType.APPLICATION_JSON)
+						.content("{\"items\": [{\"product\": {\"id\": 1}, \"quantity\": 1}, {\"product\": {\"id\": -999}, \"quantity\": 1}]}"))
+				// Assert, rejected as a bad request rather than failing on the foreign key
+				.andExpect(MockMvcResultMatchers.status().isBadRequest());
+	}
+
+	@Test
+	@Order(25)
+	void testCreateDiscountWithoutTargetProduct() throws Exception {
+		// Arrange
+		String requestBody = """
+				{
+					"requiredProduct": {
+						"id": 1
+					},
+					"requiredQuantity": 1,
+					"discountType": "AMOUNT",
+					"discountValue": 5.0
+				}""";
+
+		// Act
+		mockMvc.perform(MockMvcRequestBuilders.post("/discounts")
+						.contentType(MediaType.APPLICATION_JSON)
+						.content(requestBody))
+				// Assert, rejected before anything is stored
+				.andExpect(MockMvcResultMatchers.status().isBadRequest());
+	}
+
+	@Test
+	@Order(26)
+	void testCreateDiscountWithUnknownTargetProduct() throws Exception {
+		// Arrange
+		String requestBody = """
+				{
+					"requiredProduct": {
+						"id": 1
+					},
+					"requiredQuantity": 1,
+					"targetProduct": {
+						"id": -999
+					},
+					"discountType": "AMOUNT",
+					"discountValue": 5.0
+				}""";
+
+		// Act
+		mockMvc.perform(MockMvcRequestBuilders.post("/discounts")
+						.contentType(MediaType.APPLICATION_JSON)
+						.content(requestBody))
+				// Assert
+				.andExpect(MockMvcResultMatchers.status().isBadRequest());
+	}
+
 	@Test
 	@Order(Integer.MAX_VALUE)
 	void testDeleteProduct() throws Exception {
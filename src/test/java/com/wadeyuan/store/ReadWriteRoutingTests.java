@@ -0,0 +1,133 @@
+package com.wadeyuan.store;
+
+import com.wadeyuan.store.domain.Product;
+import com.wadeyuan.store.domain.ShoppingCart;
+import com.wadeyuan.store.repository.ProductRepository;
+import com.wadeyuan.store.repository.ShoppingCartRepository;
+import jakarta.persistence.EntityManagerFactory;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+
+/*
+    Primary and replica are two in-memory H2 databases that don't replicate, so a read shows which one served it.
+    Runs in its own application context (and therefore its own in-memory databases), so ids are never assumed.
+ */
+@SpringBootTest(properties = {
+		"store.datasource.replica.enabled=true",
+		"store.datasource.replica.url=jdbc:h2:mem:read-write-routing-replica",
+		"store.datasource.replica.migrate=true",
+		"store.datasource.replica.read-your-writes-window=1m"})
+class ReadWriteRoutingTests {
+
+	@Autowired
+	private WebApplicationContext webApplicationContext;
+
+	@Autowired
+	private ProductRepository productRepository;
+
+	@Autowired
+	private ShoppingCartRepository shoppingCartRepository;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Autowired
+	@Qualifier("primaryDataSource")
+	private DataSource primaryDataSource;
+
+	@Autowired
+	@Qualifier("replicaDataSource")
+	private DataSource replicaDataSource;
+
+	private MockMvc mockMvc;
+
+	private long productId;
+
+	@BeforeEach
+	void setUp() {
+		mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+		productId = productRepository.save(new Product(0, "Product A", new BigDecimal("9.99"), LocalDateTime.now())).getId();
+	}
+
+	@Test
+	void testProductListingIsServedByReplica() throws Exception {
+		// The product was written to the primary only
+		mockMvc.perform(MockMvcRequestBuilders.get("/products"))
+				.andExpect(MockMvcResultMatchers.status().isOk())
+				.andExpect(MockMvcResultMatchers.jsonPath("$.length()").value(0));
+	}
+
+	@Test
+	void testCartIsReadFromPrimaryRightAfterItsWrite() throws Exception {
+		// Arrange, a cart this node didn't write through the cart endpoints is unknown to the replica
+		long unknownCartId = shoppingCartRepository.save(new ShoppingCart(0, new ArrayList<>())).getId();
+
+		// Act
+		MvcResult created = mockMvc.perform(MockMvcRequestBuilders.post("/shopping-carts")
+						.contentType(MediaType.APPLICATION_JSON)
+						.content("{\"items\": []}"))
+				.andExpect(MockMvcResultMatchers.status().isCreated())
+				.andReturn();
+		String location = created.getResponse().getHeader("Location");
+		mockMvc.perform(MockMvcRequestBuilders.put(location + "/add/" + productId).param("quantity", "2"))
+				.andExpect(MockMvcResultMatchers.status().isOk());
+
+		// Assert
+		mockMvc.perform(MockMvcRequestBuilders.get(location))
+				.andExpect(MockMvcResultMatchers.status().isOk())
+				.andExpect(MockMvcResultMatchers.jsonPath("$.items[0].quantity").value(2));
+		mockMvc.perform(MockMvcRequestBuilders.get("/shopping-carts/{shoppingCartId}", unknownCartId))
+				.andExpect(MockMvcResultMatchers.status().isNotFound());
+	}
+
+	@Test
+	void testWriteAfterReadInOneRequestGoesToPrimary() throws Exception {
+		// Arrange, the replica has caught up with the product
+		JdbcTemplate primary = new JdbcTemplate(primaryDataSource);
+		JdbcTemplate replica = new JdbcTemplate(replicaDataSource);
+		replica.update("insert into product (id, name, price, created_timestamp) values (?, ?, ?, ?)", productId, "Product A", new BigDecimal("9.99"), LocalDateTime.now());
+
+		// Act, the existence check is read-only and served by the replica, the delete that follows must not be
+		mockMvc.perform(MockMvcRequestBuilders.delete("/products/{productId}", productId))
+				.andExpect(MockMvcResultMatchers.status().isOk());
+
+		// Assert
+		Assertions.assertEquals(0, primary.queryForObject("select count(*) from product where id = ?", Integer.class, productId));
+		Assertions.assertEquals(1, replica.queryForObject("select count(*) from product where id = ?", Integer.class, productId));
+		// The listing test expects an empty replica
+		replica.update("delete from product where id = ?", productId);
+	}
+
+	@Test
+	void testProductUpdateReadsPrimary() throws Exception {
+		// Arrange, the product is unknown to the replica and not in the second-level cache either
+		entityManagerFactory.getCache().evictAll();
+
+		// Act
+		mockMvc.perform(MockMvcRequestBuilders.put("/products/{productId}", productId)
+						.contentType(MediaType.APPLICATION_JSON)
+						.content("{\"name\": \"Product A\", \"price\": 12.99}"))
+				.andExpect(MockMvcResultMatchers.status().isOk());
+
+		// Assert
+		JdbcTemplate primary = new JdbcTemplate(primaryDataSource);
+		Assertions.assertEquals(0, new BigDecimal("12.99").compareTo(primary.queryForObject("select price from product where id = ?", BigDecimal.class, productId)));
+	}
+}
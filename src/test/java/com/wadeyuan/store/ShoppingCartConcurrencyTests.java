@@ -0,0 +1,134 @@
+package com.wadeyuan.store;
+
+import com.wadeyuan.store.domain.CartItem;
+import com.wadeyuan.store.domain.Product;
+import com.wadeyuan.store.domain.ShoppingCart;
+import com.wadeyuan.store.repository.ProductRepository;
+import com.wadeyuan.store.repository.ShoppingCartRepository;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Hammers a single cart from many threads at once, every acknowledged change must be in the final cart exactly once.
+    Runs in its own application context (and therefore its own in-memory database), so ids are never assumed.
+ */
+@SpringBootTest
+class ShoppingCartConcurrencyTests {
+	private static final int THREADS = 64;
+	private static final int REQUESTS_PER_THREAD = 20;
+
+	@Autowired
+	private WebApplicationContext webApplicationContext;
+
+	@Autowired
+	private ProductRepository productRepository;
+
+	@Autowired
+	private ShoppingCartRepository shoppingCartRepository;
+
+	private MockMvc mockMvc;
+
+	private long shoppingCartId;
+
+	private long productAId;
+
+	private long productBId;
+
+	@BeforeEach
+	void setUp() {
+		mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+
+		Product productA = productRepository.save(new Product(0, "Product A", new BigDecimal("9.99"), LocalDateTime.now()));
+		productAId = productA.getId();
+		productBId = productRepository.save(new Product(0, "Product B", new BigDecimal("29.99"), LocalDateTime.now())).getId();
+
+		// Product A starts with enough stock in the cart that the removals below never empty its line
+		ShoppingCart shoppingCart = new ShoppingCart(0, new ArrayList<>());
+		shoppingCart.addToCart(productA, THREADS * REQUESTS_PER_THREAD);
+		shoppingCartId = shoppingCartRepository.save(shoppingCart).getId();
+	}
+
+	@Test
+	void testConcurrentUpdatesOfOneCartAreNotLost() throws Exception {
+		// Arrange
+		AtomicInteger addedA = new AtomicInteger();
+		AtomicInteger removedA = new AtomicInteger();
+		AtomicInteger addedB = new AtomicInteger();
+		AtomicInteger conflicts = new AtomicInteger();
+		CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		List<Future<?>> futures = new ArrayList<>();
+
+		// Act
+		for (int thread = 0; thread < THREADS; thread++) {
+			int offset = thread;
+			futures.add(executor.submit(() -> {
+				start.await();
+				for (int i = 0; i < REQUESTS_PER_THREAD; i++) {
+					// Mixes new lines, quantity updates of an existing line and removals, one of them per request
+					int status;
+					AtomicInteger counter;
+					switch ((offset + i) % 3) {
+						case 0 -> {
+							status = put("/shopping-carts/{shoppingCartId}/add/{productId}", productAId);
+							counter = addedA;
+						}
+						case 1 -> {
+							status = put("/shopping-carts/{shoppingCartId}/remove/{productId}", productAId);
+							counter = removedA;
+						}
+						default -> {
+							status = put("/shopping-carts/{shoppingCartId}/add/{productId}", productBId);
+							counter = addedB;
+						}
+					}
+					if(status == 200) {
+						counter.incrementAndGet();
+					} else {
+						Assertions.assertEquals(409, status);
+						conflicts.incrementAndGet();
+					}
+				}
+				return null;
+			}));
+		}
+		start.countDown();
+		for (Future<?> future : futures) {
+			future.get(2, TimeUnit.MINUTES);
+		}
+		executor.shutdown();
+
+		// Assert
+		ShoppingCart shoppingCart = shoppingCartRepository.findWithItemsById(shoppingCartId).orElseThrow();
+		Assertions.assertEquals(2, shoppingCart.getItems().size());
+		CartItem itemA = shoppingCart.getCartItemByProductId(productAId);
+		CartItem itemB = shoppingCart.getCartItemByProductId(productBId);
+		Assertions.assertEquals(THREADS * REQUESTS_PER_THREAD + addedA.get() - removedA.get(), itemA.getQuantity());
+		Assertions.assertEquals(addedB.get(), itemB.getQuantity());
+		Assertions.assertEquals(THREADS * REQUESTS_PER_THREAD, addedA.get() + removedA.get() + addedB.get() + conflicts.get());
+		Assertions.assertTrue(addedB.get() > 0);
+	}
+
+	private int put(String url, long productId) throws Exception {
+		return mockMvc.perform(MockMvcRequestBuilders.put(url, shoppingCartId, productId).param("quantity", "1"))
+				.andReturn().getResponse().getStatus();
+	}
+}
@@ -0,0 +1,214 @@
+package com.wadeyuan.store;
+
+import com.wadeyuan.store.domain.Product;
+import com.wadeyuan.store.domain.ShoppingCart;
+import com.wadeyuan.store.pricing.DiscountRuleIndex;
+import com.wadeyuan.store.pricing.PricingEngine;
+import com.wadeyuan.store.repository.ProductRepository;
+import com.wadeyuan.store.repository.ShoppingCartRepository;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+
+/*
+    Statement budgets for the cart endpoints, counted through Hibernate statistics.
+    Runs in its own application context (and therefore its own in-memory database), so ids are never assumed.
+    The background jobs are off, their statements would be counted too.
+ */
+@SpringBootTest(properties = {
+		"spring.jpa.properties.hibernate.generate_statistics=true",
+		"store.discounts.refresh.enabled=false",
+		"store.cart.reaper.enabled=false"})
+class ShoppingCartQueryCountTests {
+	// Increment of cart_item_seq, see V1 of the migrations
+	private static final int CART_ITEM_ID_ALLOCATION_SIZE = 50;
+
+	@Autowired
+	private WebApplicationContext webApplicationContext;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Autowired
+	private ProductRepository productRepository;
+
+	@Autowired
+	private ShoppingCartRepository shoppingCartRepository;
+
+	@Autowired
+	private PricingEngine pricingEngine;
+
+	@Autowired
+	private DiscountRuleIndex discountRuleIndex;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	private MockMvc mockMvc;
+
+	private Statistics statistics;
+
+	private long shoppingCartId;
+
+	private long productAId;
+
+	private long productBId;
+
+	private long productCId;
+
+	@BeforeEach
+	void setUp() {
+		mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+		statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+		Product productA = productRepository.save(new Product(0, "Product A", new BigDecimal("9.99"), LocalDateTime.now()));
+		Product productB = productRepository.save(new Product(0, "Product B", new BigDecimal("29.99"), LocalDateTime.now()));
+		productCId = productRepository.save(new Product(0, "Product C", new BigDecimal("4.99"), LocalDateTime.now())).getId();
+		productAId = productA.getId();
+		productBId = productB.getId();
+
+		ShoppingCart shoppingCart = new ShoppingCart(0, new ArrayList<>());
+		shoppingCart.addToCart(productA, 2);
+		shoppingCart.addToCart(productB, 1);
+		// Store the cart with its totals, as the cart endpoints do, otherwise the first calculation would price it first
+		pricingEngine.reprice(shoppingCart, discountRuleIndex);
+		shoppingCartId = shoppingCartRepository.save(shoppingCart).getId();
+	}
+
+	@Test
+	void testGetShoppingCartIssuesSingleSelect() throws Exception {
+		// Cart, item and product columns come back from one joined select
+		Assertions.assertEquals(1, countStatements(MockMvcRequestBuilders.get("/shopping-carts/{shoppingCartId}", shoppingCartId)));
+	}
+
+	@Test
+	void testGetNonExistingShoppingCartIssuesSingleSelect() throws Exception {
+		statistics.clear();
+		mockMvc.perform(MockMvcRequestBuilders.get("/shopping-carts/{shoppingCartId}", -999))
+				.andExpect(MockMvcResultMatchers.status().isNotFound());
+		Assertions.assertEquals(1, statistics.getPrepareStatementCount());
+	}
+
+	@Test
+	void testCalculateShoppingCartIssuesSingleSelect() throws Exception {
+		// Totals are stored with the cart, so only the cart itself is selected
+		Assertions.assertEquals(1, countStatements(MockMvcRequestBuilders.get("/shopping-carts/{shoppingCartId}/calculate", shoppingCartId)));
+	}
+
+	@Test
+	void testCalculateOfStaleCartWritesNothing() throws Exception {
+		// Arrange, the price change flags the cart stale
+		mockMvc.perform(MockMvcRequestBuilders.put("/products/{productId}", productAId)
+						.contentType(MediaType.APPLICATION_JSON)
+						.content("{\"name\": \"Product A\", \"price\": 11.99}"))
+				.andExpect(MockMvcResultMatchers.status().isOk());
+		long version = shoppingCartRepository.findVersionById(shoppingCartId).orElseThrow();
+		statistics.clear();
+
+		// Act
+		mockMvc.perform(MockMvcRequestBuilders.get("/shopping-carts/{shoppingCartId}/calculate", shoppingCartId))
+				.andExpect(MockMvcResultMatchers.status().isOk());
+
+		// Assert, priced for the response only
+		Assertions.assertEquals(0, statistics.getEntityInsertCount() + statistics.getEntityUpdateCount() + statistics.getEntityDeleteCount());
+		Assertions.assertEquals(version, shoppingCartRepository.findVersionById(shoppingCartId).orElseThrow());
+	}
+
+	@Test
+	void testCachedProductIssuesNoSelect() throws Exception {
+		// Arrange
+		productRepository.findById(productAId);
+
+		// Act & Assert, served from the second-level cache
+		Assertions.assertEquals(0, countStatements(MockMvcRequestBuilders.get("/products/{productId}", productAId)));
+		Assertions.assertEquals(1, statistics.getDomainDataRegionStatistics(Product.CACHE_REGION).getHitCount());
+	}
+
+	@Test
+	void testQuoteIssuesSingleSelectAndNoWrites() throws Exception {
+		// Arrange
+		long carts = shoppingCartRepository.count();
+		statistics.clear();
+
+		// Act
+		mockMvc.perform(MockMvcRequestBuilders.post("/shopping-carts/quote")
+						.contentType(MediaType.APPLICATION_JSON)
+						.content("[{\"productId\": " + productAId + ", \"quantity\": 2}, {\"productId\": " + productBId + ", \"quantity\": 1}]"))
+				.andExpect(MockMvcResultMatchers.status().isOk());
+
+		// Only the products are selected, nothing is written
+		Assertions.assertEquals(1, statistics.getPrepareStatementCount());
+		Assertions.assertEquals(0, statistics.getEntityInsertCount() + statistics.getEntityUpdateCount() + statistics.getEntityDeleteCount());
+		Assertions.assertEquals(carts, shoppingCartRepository.count());
+	}
+
+	@Test
+	void testAddExistingProductToCart() throws Exception {
+		// Product from the second-level cache, select cart, update item quantity, update cart totals, bump cart version
+		Assertions.assertEquals(4, countStatements(MockMvcRequestBuilders.put("/shopping-carts/{shoppingCartId}/add/{productId}", shoppingCartId, productAId)
+				.param("quantity", "1")));
+	}
+
+	@Test
+	void testAddNewProductToCart() throws Exception {
+		// Arrange, ids are drawn from the item sequence a block at a time, so whether this add calls it depends on the adds before
+		long sequenceBase = cartItemSequenceBase();
+
+		// Act
+		long statements = countStatements(MockMvcRequestBuilders.put("/shopping-carts/{shoppingCartId}/add/{productId}", shoppingCartId, productCId)
+				.param("quantity", "1"));
+
+		// Assert, select cart, insert item with its cart key, update cart totals, bump cart version, plus the sequence calls
+		long sequenceCalls = (cartItemSequenceBase() - sequenceBase) / CART_ITEM_ID_ALLOCATION_SIZE;
+		Assertions.assertEquals(4 + sequenceCalls, statements);
+	}
+
+	@Test
+	void testRemoveProductFromCart() throws Exception {
+		// Select cart, then either update the quantity or delete the item, update cart totals, bump cart version
+		Assertions.assertEquals(4, countStatements(MockMvcRequestBuilders.put("/shopping-carts/{shoppingCartId}/remove/{productId}", shoppingCartId, productAId)
+				.param("quantity", "1")));
+		Assertions.assertEquals(4, countStatements(MockMvcRequestBuilders.put("/shopping-carts/{shoppingCartId}/remove/{productId}", shoppingCartId, productAId)
+				.param("quantity", "1")));
+	}
+
+	@Test
+	void testClearShoppingCart() throws Exception {
+		// Select cart, delete both items in one batch, update cart totals, bump cart version
+		Assertions.assertEquals(4, countStatements(MockMvcRequestBuilders.put("/shopping-carts/{shoppingCartId}/clear", shoppingCartId)));
+	}
+
+	@Test
+	void testDeleteShoppingCart() throws Exception {
+		// Select cart, delete both items in one batch, delete cart
+		Assertions.assertEquals(3, countStatements(MockMvcRequestBuilders.delete("/shopping-carts/{shoppingCartId}", shoppingCartId)));
+	}
+
+	private long countStatements(RequestBuilder request) throws Exception {
+		statistics.clear();
+		mockMvc.perform(request)
+				.andExpect(MockMvcResultMatchers.status().isOk());
+		return statistics.getPrepareStatementCount();
+	}
+
+	private long cartItemSequenceBase() {
+		return jdbcTemplate.queryForObject("select base_value from information_schema.sequences where sequence_name = 'CART_ITEM_SEQ'", Long.class);
+	}
+}
@@ -0,0 +1,166 @@
+package com.wadeyuan.store;
+
+import com.wadeyuan.store.domain.Product;
+import com.wadeyuan.store.domain.ShoppingCart;
+import com.wadeyuan.store.pricing.DiscountRuleIndex;
+import com.wadeyuan.store.pricing.PricingEngine;
+import com.wadeyuan.store.repository.ProductRepository;
+import com.wadeyuan.store.repository.ShoppingCartRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+
+/*
+    What the cart endpoints answer and store, for a cart holding 2 of product A and 1 of product B. Product C isn't in the cart.
+    Runs in its own application context (and therefore its own in-memory database), so ids are never assumed.
+ */
+@SpringBootTest
+class ShoppingCartTests {
+
+	@Autowired
+	private WebApplicationContext webApplicationContext;
+
+	@Autowired
+	private ProductRepository productRepository;
+
+	@Autowired
+	private ShoppingCartRepository shoppingCartRepository;
+
+	@Autowired
+	private PricingEngine pricingEngine;
+
+	@Autowired
+	private DiscountRuleIndex discountRuleIndex;
+
+	private MockMvc mockMvc;
+
+	private long shoppingCartId;
+
+	private long productAId;
+
+	private long productBId;
+
+	private long productCId;
+
+	@BeforeEach
+	void setUp() {
+		mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+
+		Product productA = productRepository.save(new Product(0, "Product A", new BigDecimal("9.99"), LocalDateTime.now()));
+		Product productB = productRepository.save(new Product(0, "Product B", new BigDecimal("29.99"), LocalDateTime.now()));
+		productCId = productRepository.save(new Product(0, "Product C", new BigDecimal("4.99"), LocalDateTime.now())).getId();
+		productAId = productA.getId();
+		productBId = productB.getId();
+
+		ShoppingCart shoppingCart = new ShoppingCart(0, new ArrayList<>());
+		shoppingCart.addToCart(productA, 2);
+		shoppingCart.addToCart(productB, 1);
+		// Store the cart with its totals, as the cart endpoints do
+		pricingEngine.reprice(shoppingCart, discountRuleIndex);
+		shoppingCartId = shoppingCartRepository.save(shoppingCart).getId();
+	}
+
+	@Test
+	void testGetShoppingCartReturnsLeanLines() throws Exception {
+		mockMvc.perform(MockMvcRequestBuilders.get("/shopping-carts/{shoppingCartId}", shoppingCartId))
+				.andExpect(MockMvcResultMatchers.status().isOk())
+				.andExpect(MockMvcResultMatchers.jsonPath("$.items.length()").value(2))
+				.andExpect(MockMvcResultMatchers.jsonPath("$.items[0].productId").value(productAId))
+				.andExpect(MockMvcResultMatchers.jsonPath("$.items[0].name").value("Product A"))
+				.andExpect(MockMvcResultMatchers.jsonPath("$.items[0].unitPrice").value(9.99))
+				.andExpect(MockMvcResultMatchers.jsonPath("$.items[0].lineAmount").value(19.98))
+				.andExpect(MockMvcResultMatchers.jsonPath("$.items[0].product").doesNotExist());
+	}
+
+	@Test
+	void testQuoteMergesRepeatedProduct() throws Exception {
+		// Act, the same product twice is quoted as one line
+		mockMvc.perform(MockMvcRequestBuilders.post("/shopping-carts/quote")
+						.contentType(MediaType.APPLICATION_JSON)
+						.content("[{\"productId\": " + productAId + ", \"quantity\": 2}, {\"productId\": " + productBId + ", \"quantity\": 1}, {\"productId\": " + productAId + ", \"quantity\": 1}]"))
+				// Assert
+				.andExpect(MockMvcResultMatchers.status().isOk())
+				.andExpect(MockMvcResultMatchers.jsonPath("$.items.length()").value(2))
+				.andExpect(MockMvcResultMatchers.jsonPath("$.totalAmount").value(59.96));
+	}
+
+	@Test
+	void testQuoteOfUnknownProductIsRejected() throws Exception {
+		mockMvc.perform(MockMvcRequestBuilders.post("/shopping-carts/quote")
+						.contentType(MediaType.APPLICATION_JSON)
+						.content("[{\"productId\": -999, \"quantity\": 1}]"))
+				.andExpect(MockMvcResultMatchers.status().isBadRequest());
+	}
+
+	@Test
+	void testProductRemovedAndAddedAgainInOneBatchKeepsOneLine() throws Exception {
+		// The line comes back as the same row, a second row for the product would break the unique (cart, product) constraint
+		mockMvc.perform(MockMvcRequestBuilders.put("/shopping-carts/{shoppingCartId}/batch", shoppingCartId)
+						.contentType(MediaType.APPLICATION_JSON)
+						.content("[{\"operation\": \"REMOVE\", \"productId\": " + productAId + ", \"quantity\": 2}, {\"operation\": \"ADD\", \"productId\": " + productAId + ", \"quantity\": 3}]")
+						.param("calculate", "true"))
+				.andExpect(MockMvcResultMatchers.status().isOk())
+				.andExpect(MockMvcResultMatchers.jsonPath("$.items.length()").value(2))
+				.andExpect(MockMvcResultMatchers.jsonPath("$.totalAmount").value(59.96));
+	}
+
+	@Test
+	void testCartPostedWithRepeatedProductKeepsOneLine() throws Exception {
+		// The lines of the same product are merged, two rows would break the unique (cart, product) constraint
+		mockMvc.perform(MockMvcRequestBuilders.post("/shopping-carts")
+						.contentType(MediaType.APPLICATION_JSON)
+						.content("{\"items\": [{\"product\": {\"id\": " + productAId + "}, \"quantity\": 2}, {\"product\": {\"id\": " + productAId + "}, \"quantity\": 1}]}"))
+				.andExpect(MockMvcResultMatchers.status().isCreated())
+				.andExpect(MockMvcResultMatchers.jsonPath("$.items.length()").value(1))
+				.andExpect(MockMvcResultMatchers.jsonPath("$.items[0].quantity").value(3));
+	}
+
+	@Test
+	void testAddingOrRemovingNothingIsRejected() throws Exception {
+		mockMvc.perform(MockMvcRequestBuilders.put("/shopping-carts/{shoppingCartId}/add/{productId}", shoppingCartId, productCId)
+						.param("quantity", "0"))
+				.andExpect(MockMvcResultMatchers.status().isBadRequest());
+		mockMvc.perform(MockMvcRequestBuilders.put("/shopping-carts/{shoppingCartId}/remove/{productId}", shoppingCartId, productAId)
+						.param("quantity", "-1"))
+				.andExpect(MockMvcResultMatchers.status().isBadRequest());
+		for (String operation : new String[]{"ADD", "REMOVE"}) {
+			mockMvc.perform(MockMvcRequestBuilders.put("/shopping-carts/{shoppingCartId}/batch", shoppingCartId)
+							.contentType(MediaType.APPLICATION_JSON)
+							.content("[{\"operation\": \"" + operation + "\", \"productId\": " + productCId + ", \"quantity\": 0}]"))
+					.andExpect(MockMvcResultMatchers.status().isBadRequest());
+		}
+		mockMvc.perform(MockMvcRequestBuilders.put("/shopping-carts/{shoppingCartId}/batch", shoppingCartId)
+						.contentType(MediaType.APPLICATION_JSON)
+						.content("[{\"operation\": \"SET\", \"productId\": " + productCId + ", \"quantity\": -1}]"))
+				.andExpect(MockMvcResultMatchers.status().isBadRequest());
+	}
+
+	@Test
+	void testSetToZeroRemovesTheLine() throws Exception {
+		// Arrange, product C isn't in the cart
+		String requestBody = "[{\"operation\": \"SET\", \"productId\": " + productAId + ", \"quantity\": 0}, " +
+				"{\"operation\": \"SET\", \"productId\": " + productCId + ", \"quantity\": 0}]";
+
+		// Act
+		mockMvc.perform(MockMvcRequestBuilders.put("/shopping-carts/{shoppingCartId}/batch", shoppingCartId)
+						.contentType(MediaType.APPLICATION_JSON)
+						.content(requestBody)
+						.param("calculate", "true"))
+				// Assert, only product B is left and no line without quantity was added
+				.andExpect(MockMvcResultMatchers.status().isOk())
+				.andExpect(MockMvcResultMatchers.jsonPath("$.items.length()").value(1))
+				.andExpect(MockMvcResultMatchers.jsonPath("$.items[0].productId").value(productBId))
+				.andExpect(MockMvcResultMatchers.jsonPath("$.totalAmount").value(29.99));
+	}
+}
@@ -0,0 +1,327 @@
+package com.wadeyuan.store;
+
+import com.wadeyuan.store.datasource.ReadYourWrites;
+import com.wadeyuan.store.domain.Product;
+import com.wadeyuan.store.domain.ShoppingCart;
+import com.wadeyuan.store.pricing.DiscountRuleIndex;
+import com.wadeyuan.store.pricing.PricingEngine;
+import com.wadeyuan.store.repository.ProductRepository;
+import com.wadeyuan.store.repository.ShoppingCartRepository;
+import com.wadeyuan.store.service.CartReaper;
+import com.wadeyuan.store.service.CartStore;
+import com.wadeyuan.store.service.ShoppingCartService;
+import com.wadeyuan.store.service.WriteBehindCartStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/*
+    Cart endpoints with the write-behind cart store: changes are visible at once and reach the database with the next flush.
+    Backpressure, shutdown, conflicts and the cart reaper are tested on stores of their own that never flush on schedule, with their own meters.
+    Runs in its own application context (and therefore its own in-memory database), so ids are never assumed.
+ */
+@SpringBootTest(properties = {"store.cart.write-behind.enabled=true", "store.cart.write-behind.flush-interval=20ms"})
+class WriteBehindCartStoreTests {
+	private static final int THREADS = 16;
+	private static final int REQUESTS_PER_THREAD = 25;
+
+	@Autowired
+	private WebApplicationContext webApplicationContext;
+
+	@Autowired
+	private ProductRepository productRepository;
+
+	@Autowired
+	private ShoppingCartRepository shoppingCartRepository;
+
+	@Autowired
+	private CartStore cartStore;
+
+	@Autowired
+	private ShoppingCartService shoppingCartService;
+
+	@Autowired
+	private EntityManager entityManager;
+
+	@Autowired
+	private PricingEngine pricingEngine;
+
+	@Autowired
+	private DiscountRuleIndex discountRuleIndex;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private ReadYourWrites readYourWrites;
+
+	@Autowired
+	private NamedParameterJdbcTemplate jdbcTemplate;
+
+	private SimpleMeterRegistry meterRegistry;
+
+	private MockMvc mockMvc;
+
+	private long shoppingCartId;
+
+	private long productId;
+
+	@BeforeEach
+	void setUp() {
+		mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+		productId = productRepository.save(new Product(0, "Product A", new BigDecimal("9.99"), LocalDateTime.now())).getId();
+		shoppingCartId = shoppingCartRepository.save(new ShoppingCart(0, new ArrayList<>())).getId();
+		meterRegistry = new SimpleMeterRegistry();
+	}
+
+	@Test
+	void testChangesAreVisibleAtOnceAndPersistedLater() throws Exception {
+		Assertions.assertInstanceOf(WriteBehindCartStore.class, cartStore);
+
+		// Act
+		mockMvc.perform(MockMvcRequestBuilders.put("/shopping-carts/{shoppingCartId}/add/{productId}", shoppingCartId, productId).param("quantity", "3"))
+				.andExpect(MockMvcResultMatchers.status().isOk());
+
+		// Assert, the cart is read from memory before it is flushed
+		mockMvc.perform(MockMvcRequestBuilders.get("/shopping-carts/{shoppingCartId}/calculate", shoppingCartId))
+				.andExpect(MockMvcResultMatchers.status().isOk())
+				.andExpect(MockMvcResultMatchers.jsonPath("$.items[0].quantity").value(3))
+				.andExpect(MockMvcResultMatchers.jsonPath("$.totalAmount").value(29.97));
+		Assertions.assertEquals(3, awaitPersistedQuantity(3));
+	}
+
+	@Test
+	void testConcurrentAddsAreNotLost() throws Exception {
+		// Arrange
+		CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		List<Future<?>> futures = new ArrayList<>();
+
+		// Act
+		for (int thread = 0; thread < THREADS; thread++) {
+			futures.add(executor.submit(() -> {
+				start.await();
+				for (int i = 0; i < REQUESTS_PER_THREAD; i++) {
+					// Writers of a resident cart wait for its lock instead of racing for the version, so nothing is rejected
+					Assertions.assertEquals(200, mockMvc.perform(MockMvcRequestBuilders.put("/shopping-carts/{shoppingCartId}/add/{productId}", shoppingCartId, productId)
+							.param("quantity", "1")).andReturn().getResponse().getStatus());
+				}
+				return null;
+			}));
+		}
+		start.countDown();
+		for (Future<?> future : futures) {
+			future.get(2, TimeUnit.MINUTES);
+		}
+		executor.shutdown();
+
+		// Assert
+		Assertions.assertEquals(THREADS * REQUESTS_PER_THREAD, awaitPersistedQuantity(THREADS * REQUESTS_PER_THREAD));
+	}
+
+	@Test
+	void testResidentCartShowsChangedProduct() throws Exception {
+		// Arrange, the cart is held in memory with the product as it was added
+		mockMvc.perform(MockMvcRequestBuilders.put("/shopping-carts/{shoppingCartId}/add/{productId}", shoppingCartId, productId).param("quantity", "2"))
+				.andExpect(MockMvcResultMatchers.status().isOk());
+
+		// Act
+		mockMvc.perform(MockMvcRequestBuilders.put("/products/{productId}", productId)
+						.contentType(MediaType.APPLICATION_JSON)
+						.content("{\"name\": \"Product A2\", \"price\": 12.99}"))
+				.andExpect(MockMvcResultMatchers.status().isOk());
+
+		// Assert, lines and totals agree on the new price
+		mockMvc.perform(MockMvcRequestBuilders.get("/shopping-carts/{shoppingCartId}/calculate", shoppingCartId))
+				.andExpect(MockMvcResultMatchers.status().isOk())
+				.andExpect(MockMvcResultMatchers.jsonPath("$.items[0].name").value("Product A2"))
+				.andExpect(MockMvcResultMatchers.jsonPath("$.items[0].unitPrice").value(12.99))
+				.andExpect(MockMvcResultMatchers.jsonPath("$.items[0].lineAmount").value(25.98))
+				.andExpect(MockMvcResultMatchers.jsonPath("$.totalAmount").value(25.98));
+	}
+
+	@Test
+	void testFullQueuePersistsInTheRequest() throws Exception {
+		// Arrange, room for one queued cart
+		WriteBehindCartStore store = store(1);
+		long otherShoppingCartId = shoppingCartRepository.save(new ShoppingCart(0, new ArrayList<>())).getId();
+		Product product = productRepository.findById(productId).orElseThrow();
+
+		// Act
+		store.update(shoppingCartId, shoppingCart -> shoppingCart.addToCart(product, 1), ShoppingCart::getId);
+		store.update(otherShoppingCartId, shoppingCart -> shoppingCart.addToCart(product, 2), ShoppingCart::getId);
+
+		// Assert, the second change was written before it was acknowledged, the first one still waits for a flush
+		Assertions.assertEquals(1, meterRegistry.get("store.cart.write-behind.backpressure").counter().count());
+		Assertions.assertEquals(2, persistedQuantity(otherShoppingCartId));
+		Assertions.assertEquals(0, persistedQuantity(shoppingCartId));
+		store.shutdown();
+	}
+
+	@Test
+	void testFailedMutationLeavesTheCartAsItWas() throws Exception {
+		// Arrange
+		WriteBehindCartStore store = store(100);
+		Product product = productRepository.findById(productId).orElseThrow();
+		store.update(shoppingCartId, shoppingCart -> shoppingCart.addToCart(product, 2), ShoppingCart::getId);
+
+		// Act, the mutation throws after changing the cart
+		Assertions.assertThrows(IllegalStateException.class, () -> store.update(shoppingCartId, shoppingCart -> {
+			shoppingCart.addToCart(product, 5);
+			throw new IllegalStateException("Failed halfway");
+		}, ShoppingCart::getId));
+
+		// Assert, neither the quantity nor the totals show the half-applied change, in memory or once persisted
+		Assertions.assertEquals(2, store.viewResident(shoppingCartId, shoppingCart -> shoppingCart.getCartItemByProductId(productId).getQuantity()).orElseThrow());
+		Assertions.assertEquals(19_980_000L, store.viewResident(shoppingCartId, ShoppingCart::getTotalAmount).orElseThrow());
+		store.shutdown();
+		Assertions.assertEquals(2, persistedQuantity(shoppingCartId));
+	}
+
+	@Test
+	void testShutdownPersistsQueuedChanges() throws Exception {
+		// Arrange
+		WriteBehindCartStore store = store(100);
+		Product product = productRepository.findById(productId).orElseThrow();
+		store.update(shoppingCartId, shoppingCart -> shoppingCart.addToCart(product, 4), ShoppingCart::getId);
+		Assertions.assertEquals(0, persistedQuantity(shoppingCartId));
+
+		// Act
+		store.shutdown();
+
+		// Assert
+		Assertions.assertEquals(4, persistedQuantity(shoppingCartId));
+	}
+
+	@Test
+	void testConflictingVersionIsTakenOver() throws Exception {
+		// Arrange, a price change flags the cart stale behind the store's back, bumping its version
+		WriteBehindCartStore store = store(100);
+		Product product = productRepository.findById(productId).orElseThrow();
+		store.update(shoppingCartId, shoppingCart -> shoppingCart.addToCart(product, 3), ShoppingCart::getId);
+		store.shutdown();
+		store = store(100);
+		store.update(shoppingCartId, shoppingCart -> shoppingCart.addToCart(product, 1), ShoppingCart::getId);
+		shoppingCartRepository.markStaleByProductId(productId);
+
+		// Act
+		store.shutdown();
+
+		// Assert, the change held in memory is written over the newer version and priced afresh
+		ShoppingCart shoppingCart = shoppingCartRepository.findWithItemsById(shoppingCartId).orElseThrow();
+		Assertions.assertEquals(4, shoppingCart.getCartItemByProductId(productId).getQuantity());
+		Assertions.assertFalse(shoppingCart.isStale());
+		Assertions.assertEquals(0, meterRegistry.get("store.cart.write-behind.discarded").counter().count());
+	}
+
+	@Test
+	void testChangeOfCartDeletedMeanwhileIsDiscarded() throws Exception {
+		// Arrange, the cart is deleted behind the store's back
+		WriteBehindCartStore store = store(100);
+		Product product = productRepository.findById(productId).orElseThrow();
+		store.update(shoppingCartId, shoppingCart -> shoppingCart.addToCart(product, 1), ShoppingCart::getId);
+		shoppingCartService.delete(shoppingCartId);
+
+		// Act
+		store.shutdown();
+
+		// Assert, the cart isn't brought back
+		Assertions.assertEquals(1, meterRegistry.get("store.cart.write-behind.discarded").counter().count());
+		Assertions.assertFalse(store.isResident(shoppingCartId));
+		Assertions.assertTrue(shoppingCartRepository.findById(shoppingCartId).isEmpty());
+	}
+
+	@Test
+	void testReaperKeepsResidentCart() throws Exception {
+		// Arrange, both carts expired in the database, but one was just changed in memory
+		WriteBehindCartStore store = store(100);
+		CartReaper cartReaper = new CartReaper(jdbcTemplate, store, transactionManager, meterRegistry, Duration.ofHours(1), 500, 20);
+		long expiredId = shoppingCartRepository.save(new ShoppingCart(0, new ArrayList<>())).getId();
+		Product product = productRepository.findById(productId).orElseThrow();
+		store.update(shoppingCartId, shoppingCart -> shoppingCart.addToCart(product, 2), ShoppingCart::getId);
+		Timestamp expired = Timestamp.valueOf(LocalDateTime.now().minusHours(2));
+		for (long id : new long[]{shoppingCartId, expiredId}) {
+			jdbcTemplate.getJdbcTemplate().update("update shopping_cart set last_modified = ? where id = ?", expired, id);
+		}
+
+		// Act
+		int reaped = cartReaper.reap();
+		store.shutdown();
+
+		// Assert, the change acknowledged from memory is written
+		Assertions.assertEquals(1, reaped);
+		Assertions.assertTrue(shoppingCartRepository.findById(expiredId).isEmpty());
+		Assertions.assertEquals(2, persistedQuantity(shoppingCartId));
+	}
+
+	@Test
+	void testCartIsNotLoadedWhileItsDeletionRuns() throws Exception {
+		// Arrange
+		WriteBehindCartStore store = store(100);
+		Product product = productRepository.findById(productId).orElseThrow();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+
+		// Act, a change of the cart arrives while it is deleted behind the store's back
+		Future<Optional<Long>> update = store.withoutResident(List.of(shoppingCartId), shoppingCartIds -> {
+			Assertions.assertEquals(List.of(shoppingCartId), shoppingCartIds);
+			Future<Optional<Long>> pending = executor.submit(() -> store.update(shoppingCartId, shoppingCart -> shoppingCart.addToCart(product, 1), ShoppingCart::getId));
+			Assertions.assertThrows(TimeoutException.class, () -> pending.get(200, TimeUnit.MILLISECONDS));
+			shoppingCartService.delete(shoppingCartId);
+			return pending;
+		});
+
+		// Assert, the change waited for the deletion and found the cart gone
+		Assertions.assertTrue(update.get(1, TimeUnit.MINUTES).isEmpty());
+		Assertions.assertFalse(store.isResident(shoppingCartId));
+		executor.shutdown();
+		store.shutdown();
+		Assertions.assertTrue(shoppingCartRepository.findById(shoppingCartId).isEmpty());
+	}
+
+	// Flushes only when the queue is full or on shutdown
+	private WriteBehindCartStore store(int maxDirty) {
+		return new WriteBehindCartStore(shoppingCartRepository, shoppingCartService, entityManager, pricingEngine, discountRuleIndex, transactionManager, readYourWrites,
+				meterRegistry, Duration.ofHours(1), 500, maxDirty, Duration.ofMillis(1), Duration.ofMinutes(5));
+	}
+
+	private int persistedQuantity(long id) {
+		ShoppingCart shoppingCart = shoppingCartRepository.findWithItemsById(id).orElseThrow();
+		return shoppingCart.getItems().isEmpty() ? 0 : shoppingCart.getCartItemByProductId(productId).getQuantity();
+	}
+
+	private int awaitPersistedQuantity(int expected) throws InterruptedException {
+		int quantity = 0;
+		for (int attempt = 0; attempt < 100; attempt++) {
+			quantity = persistedQuantity(shoppingCartId);
+			if(quantity == expected) break;
+			Thread.sleep(50);
+		}
+		return quantity;
+	}
+}
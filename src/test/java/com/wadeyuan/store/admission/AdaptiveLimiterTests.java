@@ -0,0 +1,101 @@
+package com.wadeyuan.store.admission;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class AdaptiveLimiterTests {
+	private static final long THRESHOLD = 1_000_000;
+
+	@Test
+	void testAcquireUpToTheLimitOfTheLane() {
+		// Arrange
+		AdaptiveLimiter limiter = new AdaptiveLimiter(10, 1, 100, THRESHOLD, 0.5);
+
+		// Act
+		for (int i = 0; i < 5; i++) {
+			Assertions.assertTrue(limiter.tryAcquire(0.5));
+		}
+
+		// Assert, the lane is full while higher lanes still get the rest of the limit
+		Assertions.assertFalse(limiter.tryAcquire(0.5));
+		for (int i = 0; i < 5; i++) {
+			Assertions.assertTrue(limiter.tryAcquire(1.0));
+		}
+		Assertions.assertFalse(limiter.tryAcquire(1.0));
+		Assertions.assertEquals(10, limiter.getInFlight());
+
+		// Act
+		limiter.release(0, false);
+
+		// Assert
+		Assertions.assertTrue(limiter.tryAcquire(1.0));
+	}
+
+	@Test
+	void testSlowRequestsCutTheLimitOncePerThreshold() {
+		// Arrange
+		AdaptiveLimiter limiter = new AdaptiveLimiter(100, 10, 100, THRESHOLD, 0.5);
+		for (int i = 0; i < 5; i++) {
+			limiter.tryAcquire(1.0);
+		}
+
+		// Act, a burst of slow requests finishing together
+		long now = System.nanoTime() + THRESHOLD;
+		limiter.release(2 * THRESHOLD, false, now);
+		limiter.release(2 * THRESHOLD, false, now + 1);
+
+		// Assert
+		Assertions.assertEquals(50, limiter.getLimit());
+
+		// Act, failures count like slow requests, the minimum holds
+		limiter.release(0, true, now + THRESHOLD);
+		limiter.release(0, true, now + 2 * THRESHOLD);
+		limiter.release(0, true, now + 3 * THRESHOLD);
+
+		// Assert
+		Assertions.assertEquals(10, limiter.getLimit());
+		Assertions.assertEquals(0, limiter.getInFlight());
+	}
+
+	@Test
+	void testLimitGrowsOnlyWhileInUse() {
+		// Arrange
+		AdaptiveLimiter limiter = new AdaptiveLimiter(4, 1, 5, THRESHOLD, 0.5);
+
+		// Act, one request at a time never uses half of the limit
+		for (int i = 0; i < 100; i++) {
+			limiter.tryAcquire(1.0);
+			limiter.release(0, false);
+		}
+
+		// Assert
+		Assertions.assertEquals(4, limiter.getLimit());
+
+		// Act, four at a time, the limit grows by about one per limit's worth of requests up to the maximum
+		for (int round = 0; round < 100; round++) {
+			for (int i = 0; i < 4; i++) {
+				limiter.tryAcquire(1.0);
+			}
+			for (int i = 0; i < 4; i++) {
+				limiter.release(0, false);
+			}
+		}
+
+		// Assert
+		Assertions.assertEquals(5, limiter.getLimit());
+	}
+
+	@Test
+	void testEndpointGroups() {
+		Assertions.assertEquals(EndpointGroup.CART, EndpointGroup.of("PUT", "/shopping-carts/1/add/2"));
+		Assertions.assertEquals(EndpointGroup.CART, EndpointGroup.of("GET", "/shopping-carts/1"));
+		Assertions.assertEquals(EndpointGroup.PRICING, EndpointGroup.of("POST", "/shopping-carts/quote"));
+		Assertions.assertEquals(EndpointGroup.BULK, EndpointGroup.of("POST", "/shopping-carts/pricing"));
+		Assertions.assertEquals(EndpointGroup.CATALOG, EndpointGroup.of("GET", "/products"));
+		Assertions.assertEquals(EndpointGroup.BULK, EndpointGroup.of("GET", "/products/stream"));
+		Assertions.assertEquals(EndpointGroup.BULK, EndpointGroup.of("POST", "/products/import"));
+		Assertions.assertEquals(EndpointGroup.ADMIN, EndpointGroup.of("DELETE", "/products/1"));
+		Assertions.assertEquals(EndpointGroup.ADMIN, EndpointGroup.of("POST", "/discounts"));
+		Assertions.assertNull(EndpointGroup.of("GET", "/actuator/prometheus"));
+	}
+}
@@ -0,0 +1,171 @@
+package com.wadeyuan.store.admission;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.ServletException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/*
+    The filter in front of a stand-in controller answering on the store's paths, no application context needed.
+    A shared limit of 4 leaves 2 slots to the standard lane and 1 to the bulk lane, cart requests may use all 4.
+ */
+class AdmissionControlFilterTests {
+	private static final int HELD_CART_REQUESTS = 2;
+
+	// A permit per cart request that got through the filter
+	private final Semaphore entered = new Semaphore(0);
+
+	private final CountDownLatch proceed = new CountDownLatch(1);
+
+	private SimpleMeterRegistry meterRegistry;
+
+	private MockMvc mockMvc;
+
+	private ExecutorService executor;
+
+	@BeforeEach
+	void setUp() {
+		MockEnvironment environment = new MockEnvironment()
+				.withProperty("store.admission.shared.initial-limit", "4")
+				.withProperty("store.admission.lanes.standard", "0.5")
+				.withProperty("store.admission.lanes.bulk", "0.25");
+		meterRegistry = new SimpleMeterRegistry();
+		mockMvc = MockMvcBuilders.standaloneSetup(new StoreEndpoints())
+				.addFilters(new AdmissionControlFilter(environment, meterRegistry))
+				.build();
+		executor = Executors.newFixedThreadPool(HELD_CART_REQUESTS);
+	}
+
+	@AfterEach
+	void tearDown() {
+		proceed.countDown();
+		executor.shutdownNow();
+	}
+
+	@Test
+	void testLowerLanesAreShedFirst() throws Exception {
+		// Arrange, one cart request in flight fills the bulk lane
+		List<Future<?>> held = new ArrayList<>();
+		held.add(holdCartRequest());
+		Assertions.assertTrue(entered.tryAcquire(1, TimeUnit.MINUTES));
+
+		// Act & Assert
+		mockMvc.perform(MockMvcRequestBuilders.post("/shopping-carts/pricing"))
+				.andExpect(MockMvcResultMatchers.status().isServiceUnavailable())
+				.andExpect(MockMvcResultMatchers.header().string("Retry-After", "1"));
+		mockMvc.perform(MockMvcRequestBuilders.get("/products"))
+				.andExpect(MockMvcResultMatchers.status().isOk());
+
+		// Arrange, two fill the standard lane
+		held.add(holdCartRequest());
+		Assertions.assertTrue(entered.tryAcquire(1, TimeUnit.MINUTES));
+
+		// Act & Assert, cart requests and endpoints outside every group still get in
+		mockMvc.perform(MockMvcRequestBuilders.get("/products"))
+				.andExpect(MockMvcResultMatchers.status().isServiceUnavailable())
+				.andExpect(MockMvcResultMatchers.header().string("Retry-After", "1"));
+		mockMvc.perform(MockMvcRequestBuilders.get("/shopping-carts/1"))
+				.andExpect(MockMvcResultMatchers.status().isOk());
+		mockMvc.perform(MockMvcRequestBuilders.get("/actuator/health"))
+				.andExpect(MockMvcResultMatchers.status().isOk());
+		Assertions.assertEquals(1, rejected("bulk", "bulk"));
+		Assertions.assertEquals(1, rejected("catalog", "standard"));
+		Assertions.assertEquals(0, rejected("cart", "critical"));
+
+		// Act, the held requests finish
+		proceed.countDown();
+		for (Future<?> future : held) {
+			future.get(1, TimeUnit.MINUTES);
+		}
+
+		// Assert
+		Assertions.assertEquals(0, inFlight("shared"));
+		mockMvc.perform(MockMvcRequestBuilders.get("/products"))
+				.andExpect(MockMvcResultMatchers.status().isOk());
+	}
+
+	@Test
+	void testSlotsAreReleasedWhenTheRequestThrows() throws Exception {
+		// Act, more failing requests than the shared limit has slots
+		for (int i = 0; i < 10; i++) {
+			Assertions.assertThrows(ServletException.class, () -> mockMvc.perform(MockMvcRequestBuilders.get("/shopping-carts/1/calculate")));
+		}
+
+		// Assert, nothing is held and the failures cut the limit
+		Assertions.assertEquals(0, inFlight("shared"));
+		Assertions.assertEquals(0, inFlight("cart"));
+		Assertions.assertTrue(meterRegistry.get("store.admission.limit").tag("limiter", "shared").gauge().value() < 4);
+		mockMvc.perform(MockMvcRequestBuilders.get("/shopping-carts/1"))
+				.andExpect(MockMvcResultMatchers.status().isOk());
+	}
+
+	private Future<?> holdCartRequest() {
+		return executor.submit(() -> mockMvc.perform(MockMvcRequestBuilders.put("/shopping-carts/1/add/1"))
+				.andExpect(MockMvcResultMatchers.status().isOk()));
+	}
+
+	private double inFlight(String limiter) {
+		return meterRegistry.get("store.admission.in-flight").tag("limiter", limiter).gauge().value();
+	}
+
+	private double rejected(String group, String lane) {
+		return meterRegistry.get("store.admission.rejected").tag("group", group).tag("lane", lane).counter().count();
+	}
+
+	@RestController
+	class StoreEndpoints {
+
+		@GetMapping("/shopping-carts/1")
+		String getShoppingCart() {
+			return "cart";
+		}
+
+		// Holds its slots until the test lets it proceed
+		@PutMapping("/shopping-carts/1/add/1")
+		String addToShoppingCart() throws InterruptedException {
+			entered.release();
+			proceed.await();
+			return "cart";
+		}
+
+		@GetMapping("/shopping-carts/1/calculate")
+		String viewCart() {
+			throw new IllegalStateException("Pricing failed");
+		}
+
+		@PostMapping("/shopping-carts/pricing")
+		String priceShoppingCarts() {
+			return "prices";
+		}
+
+		@GetMapping("/products")
+		String listProducts() {
+			return "products";
+		}
+
+		@GetMapping("/actuator/health")
+		String health() {
+			return "up";
+		}
+	}
+}
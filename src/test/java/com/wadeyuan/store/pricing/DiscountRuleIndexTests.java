@@ -0,0 +1,51 @@
+package com.wadeyuan.store.pricing;
+
+import com.wadeyuan.store.constants.DiscountType;
+import com.wadeyuan.store.domain.Discount;
+import com.wadeyuan.store.domain.Product;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+class DiscountRuleIndexTests {
+
+	private final Product productA = new Product(1, "Product A", new BigDecimal("10.00"), LocalDateTime.now());
+
+	private final Product productB = new Product(2, "Product B", new BigDecimal("20.00"), LocalDateTime.now());
+
+	@Test
+	void testRefreshPicksUpRulesChangedElsewhere() {
+		// Arrange, the list stands in for the discount table other nodes write to
+		List<Discount> discounts = new ArrayList<>(List.of(discount(1, productA)));
+		DiscountRuleIndex discountRuleIndex = new DiscountRuleIndex(discounts);
+		long fingerprint = discountRuleIndex.getFingerprint();
+
+		// Act, nothing changed
+		Set<Long> unchanged = discountRuleIndex.refresh();
+
+		// Assert
+		Assertions.assertEquals(Set.of(), unchanged);
+
+		// Arrange, the rule of product A is deleted and one for product B is created
+		discounts.clear();
+		discounts.add(discount(2, productB));
+
+		// Act
+		Set<Long> changed = discountRuleIndex.refresh();
+
+		// Assert
+		Assertions.assertEquals(Set.of(1L, 2L), changed);
+		Assertions.assertEquals(List.of(), discountRuleIndex.findByTargetProductId(1));
+		Assertions.assertEquals(1, discountRuleIndex.findByTargetProductId(2).size());
+		Assertions.assertNotEquals(fingerprint, discountRuleIndex.getFingerprint());
+	}
+
+	private static Discount discount(long id, Product product) {
+		return new Discount(id, product, 1, product, DiscountType.PERCENTAGE, new BigDecimal("50.0"), true);
+	}
+}
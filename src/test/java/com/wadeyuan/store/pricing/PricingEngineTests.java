@@ -0,0 +1,218 @@
+package com.wadeyuan.store.pricing;
+
+import com.wadeyuan.store.constants.DiscountType;
+import com.wadeyuan.store.domain.CartItem;
+import com.wadeyuan.store.domain.Discount;
+import com.wadeyuan.store.domain.Product;
+import com.wadeyuan.store.domain.ShoppingCart;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.*;
+
+class PricingEngineTests {
+
+	private static final int PRODUCTS = 40;
+	private static final int DISCOUNTS = 120;
+	private static final int CARTS = 5_000;
+	private static final int MUTATED_CARTS = 500;
+	private static final int MUTATIONS = 60;
+
+	private final PricingEngine pricingEngine = new PricingEngine();
+
+	@Test
+	void testMatchesBigDecimalEngineOnRandomCorpus() {
+		// Arrange
+		Random random = new Random(20230629L);
+		List<Product> products = randomProducts(random);
+		List<Discount> discounts = randomDiscounts(random, products);
+		Map<Long, List<DiscountRule>> rulesByTarget = new HashMap<>();
+		discounts.forEach(discount -> rulesByTarget.computeIfAbsent(discount.getTargetProduct().getId(), key -> new ArrayList<>()).add(DiscountRule.of(discount)));
+		DiscountRuleLookup lookup = productId -> rulesByTarget.getOrDefault(productId, List.of());
+
+		for (int i = 0; i < CARTS; i++) {
+			ShoppingCart cart = new ShoppingCart(i, new ArrayList<>());
+			int lines = 1 + random.nextInt(12);
+			for (int j = 0; j < lines; j++) {
+				cart.addToCart(products.get(random.nextInt(PRODUCTS)), 1 + random.nextInt(9));
+			}
+
+			// Act
+			CartPrice price = pricingEngine.price(cart, lookup);
+			BigDecimal[] expected = referencePrice(cart, discounts);
+
+			// Assert
+			Assertions.assertEquals(0, expected[0].compareTo(Money.toBigDecimal(price.totalAmount())), "total of " + cart);
+			Assertions.assertEquals(0, expected[1].compareTo(Money.toBigDecimal(price.discountAmount())), "discount of " + cart);
+			Assertions.assertEquals(0, expected[0].subtract(expected[1]).compareTo(Money.toBigDecimal(price.finalAmount())), "final amount of " + cart);
+		}
+	}
+
+	@Test
+	void testIncrementalRepricingMatchesFullPricing() {
+		// Arrange
+		Random random = new Random(20231018L);
+		List<Product> products = randomProducts(random);
+		List<Discount> discounts = randomDiscounts(random, products);
+		DiscountRuleIndex discountRuleIndex = new DiscountRuleIndex(discounts);
+
+		for (int i = 0; i < MUTATED_CARTS; i++) {
+			ShoppingCart cart = new ShoppingCart(i, new ArrayList<>());
+			for (int j = 0; j < MUTATIONS; j++) {
+				// Act
+				Product product = products.get(random.nextInt(PRODUCTS));
+				int operation = random.nextInt(20);
+				if(operation < 9) {
+					cart.addToCart(product, 1 + random.nextInt(5));
+				} else if(operation < 16) {
+					cart.removeFromCart(product, 1 + random.nextInt(5));
+				} else if(operation < 18) {
+					cart.updateQuantity(product, random.nextInt(8));
+				} else if(operation < 19) {
+					// A price change makes the whole cart stale, as the product controller does for carts holding it
+					product.setPrice(randomAmount(random, 100_000));
+					cart.setStale(true);
+				} else {
+					cart.clearCart();
+				}
+				pricingEngine.reprice(cart, discountRuleIndex);
+
+				// Assert
+				CartPrice expected = pricingEngine.price(cart, discountRuleIndex);
+				Assertions.assertEquals(expected.totalAmount(), cart.getTotalAmount(), "total of " + cart);
+				Assertions.assertEquals(expected.discountAmount(), cart.getDiscountAmount(), "discount of " + cart);
+				Assertions.assertFalse(cart.isStale());
+			}
+		}
+	}
+
+	@Test
+	void testRecordsPricingMetrics() {
+		// Arrange
+		SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+		PricingEngine meteredPricingEngine = new PricingEngine(meterRegistry);
+		ShoppingCart cart = new ShoppingCart(1, new ArrayList<>());
+		cart.addToCart(new Product(1, "Product A", new BigDecimal("10.00"), LocalDateTime.now()), 3);
+		// Buy 1 and get the other 2 at 50% off
+		DiscountRule rule = new DiscountRule(1, 1, 1, 1, DiscountType.PERCENTAGE, 5_000);
+
+		// Act
+		CartPrice price = meteredPricingEngine.price(cart, productId -> productId == 1 ? List.of(rule) : List.of());
+
+		// Assert
+		Assertions.assertEquals(30_000_000, price.totalAmount());
+		Assertions.assertEquals(10_000_000, price.discountAmount());
+		Assertions.assertEquals(1, meterRegistry.get("store.pricing.duration").timer().count());
+		Assertions.assertEquals(1, meterRegistry.get("store.pricing.discount.duration").timer().count());
+		Assertions.assertEquals(1.0, meterRegistry.get("store.pricing.cart.lines").summary().totalAmount());
+		Assertions.assertEquals(1.0, meterRegistry.get("store.pricing.rules.evaluated").summary().totalAmount());
+	}
+
+	@Test
+	void testPricesWithTheProductsCurrentPrice() {
+		// Arrange, the cart was priced once before the price changed
+		Product product = new Product(1, "Product A", new BigDecimal("10.00"), LocalDateTime.now());
+		ShoppingCart cart = new ShoppingCart(1, new ArrayList<>());
+		cart.addToCart(product, 2);
+		pricingEngine.price(cart, productId -> List.of());
+		product.setPrice(new BigDecimal("12.50"));
+
+		// Act
+		CartPrice price = pricingEngine.price(cart, productId -> List.of());
+
+		// Assert
+		Assertions.assertEquals(25_000_000, price.totalAmount());
+	}
+
+	@Test
+	void testRoundsHalfEven() {
+		Assertions.assertEquals(0, Money.toMicros(new BigDecimal("0.0000005")));
+		Assertions.assertEquals(2, Money.toMicros(new BigDecimal("0.0000015")));
+		Assertions.assertEquals(1250, Money.toBasisPoints(new BigDecimal("12.505")));
+		// 0.000003 * 50% = 0.0000015, rounded to the even neighbour
+		Assertions.assertEquals(2, Money.percentageOf(3, 5_000));
+		Assertions.assertEquals(0, Money.percentageOf(1, 5_000));
+		Assertions.assertEquals(new BigDecimal("5.995"), Money.toBigDecimal(5_995_000));
+		Assertions.assertEquals(new BigDecimal("15.00"), Money.toBigDecimal(15_000_000));
+	}
+
+	@Test
+	void testRejectsOverflow() {
+		Assertions.assertThrows(ArithmeticException.class, () -> Money.percentageOf(Long.MAX_VALUE / 2, 5_000));
+	}
+
+	private static List<Product> randomProducts(Random random) {
+		List<Product> products = new ArrayList<>();
+		for (int i = 1; i <= PRODUCTS; i++) {
+			products.add(new Product(i, "Product " + i, randomAmount(random, 100_000), LocalDateTime.now()));
+		}
+		return products;
+	}
+
+	private static List<Discount> randomDiscounts(Random random, List<Product> products) {
+		List<Discount> discounts = new ArrayList<>();
+		for (int i = 1; i <= DISCOUNTS; i++) {
+			Product target = products.get(random.nextInt(PRODUCTS));
+			// Half of the rules are "buy x and get the rest z% off" on the same product
+			Product required = random.nextBoolean() ? target : products.get(random.nextInt(PRODUCTS));
+			DiscountType discountType = random.nextBoolean() ? DiscountType.PERCENTAGE : DiscountType.AMOUNT;
+			BigDecimal discountValue = discountType == DiscountType.PERCENTAGE ? randomAmount(random, 10_000) : randomAmount(random, 50_000);
+			discounts.add(new Discount(i, required, random.nextInt(6), target, discountType, discountValue, true));
+		}
+		return discounts;
+	}
+
+	private static BigDecimal randomAmount(Random random, int maxCents) {
+		return BigDecimal.valueOf(1 + random.nextInt(maxCents), 2);
+	}
+
+	/*
+		The BigDecimal calculation the engine replaced, kept verbatim as the oracle: returns {totalAmount, discountAmount}
+	 */
+	private static BigDecimal[] referencePrice(ShoppingCart cart, List<Discount> allDiscounts) {
+		BigDecimal totalAmount = BigDecimal.ZERO;
+		BigDecimal discountAmount = BigDecimal.ZERO;
+
+		for (CartItem item : cart.getItems()) {
+			Product product = item.getProduct();
+			BigDecimal cartItemAmount = product.getPrice().multiply(BigDecimal.valueOf(item.getQuantity()));
+			totalAmount = totalAmount.add(cartItemAmount);
+
+			BigDecimal cartItemDiscount = allDiscounts.stream()
+					.filter(discount -> discount.getTargetProduct().equals(product))
+					.map(discount -> referenceDiscountAmount(item, cart, discount))
+					.max(BigDecimal::compareTo)
+					.orElse(BigDecimal.ZERO);
+			discountAmount = discountAmount.add(cartItemDiscount.min(cartItemAmount));
+		}
+		return new BigDecimal[] {totalAmount, discountAmount};
+	}
+
+	private static BigDecimal referenceDiscountAmount(CartItem item, ShoppingCart cart, Discount discount) {
+		Product product = item.getProduct();
+		Product requiredProductInCart = discount.getRequiredProduct();
+		BigDecimal discountAmount = BigDecimal.ZERO;
+
+		int discountableProductQuantity;
+		int requiredQuantity = discount.getRequiredQuantity();
+		if (!requiredProductInCart.equals(product)) {
+			CartItem requiredItem = cart.getCarItemByProduct(requiredProductInCart);
+			if(requiredItem == null || requiredItem.getQuantity() < requiredQuantity) return discountAmount;
+
+			discountableProductQuantity = item.getQuantity();
+		} else {
+			if(item.getQuantity() <= requiredQuantity) return discountAmount;
+
+			discountableProductQuantity = item.getQuantity() - requiredQuantity;
+		}
+		switch (discount.getDiscountType()) {
+			case AMOUNT -> discountAmount = discount.getDiscountValue();
+			case PERCENTAGE -> discountAmount = discount.getDiscountValue().multiply(BigDecimal.valueOf(discountableProductQuantity)).multiply(product.getPrice()).divide(BigDecimal.valueOf(100));
+		}
+
+		return discountAmount;
+	}
+}